@@ -79,6 +79,19 @@ public interface ChangeHistory {
 	 */
 	List<OWLOntologyChange> getChanges(OWLOntology ontology);	
 	
+	/**
+	 * Passes the changes of each revision from the start revision to the end revision to the visitor in order.  
+	 * <p>
+	 * Unlike {@link #getChanges(OWLOntology)} the changes are not collected into a single normalized list so a consumer
+	 * that only needs one pass over the history does not need to hold all of it in memory.
+	 * 
+	 * @param start	the first revision to visit or null to start at the start revision of this history
+	 * @param end	the revision after the last revision to visit or null to visit to the end revision of this history
+	 * @param visitor	visitor
+	 * @throws IOException	if the visitor failed
+	 */
+	void forEachRevision(OntologyDocumentRevision start, OntologyDocumentRevision end, RevisionVisitor visitor) throws IOException;
+	
 	void writeChangeDocument(OutputStream out) throws IOException;
 	
 	void setCompressionLimit(int compressionLimit);
@@ -13,6 +13,12 @@ public final class ChangeMetaData implements Serializable {
 		this.date = date;
 		this.commitComment = commitComment;
 	}
+	public ChangeMetaData(Date date, String commitComment, UserId userId) {
+	    this.date = date;
+	    this.commitComment = commitComment;
+	    this.userId = userId;
+	}
+	
 	public ChangeMetaData(String commitComment) {
 		this.date = new Date();
 		this.commitComment = commitComment;
@@ -27,6 +27,18 @@ public interface DocumentFactory {
 	
 	ChangeHistory readChangeDocument(InputStream in, OntologyDocumentRevision start, OntologyDocumentRevision end) throws IOException;
 	
+	/**
+	 * Reads a change document from a stream and passes the revisions from the start revision to the end revision
+	 * to the visitor as they are decoded.  The revisions are not collected into a change history.
+	 * 
+	 * @param in	the stream holding the change document
+	 * @param start	the first revision to visit or null to start at the beginning of the document
+	 * @param end	the revision after the last revision to visit or null to visit to the end of the document
+	 * @param visitor	visitor
+	 * @throws IOException	if the document could not be read or the visitor failed
+	 */
+	void readChangeDocument(InputStream in, OntologyDocumentRevision start, OntologyDocumentRevision end, RevisionVisitor visitor) throws IOException;
+	
 	boolean hasServerMetadata(OWLOntology ontology);
 	
 	IRI getServerLocation(OWLOntology ontology) throws IOException;
@@ -39,6 +51,18 @@ public interface DocumentFactory {
 	
 	VersionedOntologyDocument createVersionedOntology(OWLOntology ontology, RemoteOntologyDocument serverDocument, OntologyDocumentRevision revision);
 	
+	/**
+	 * Creates a versioned ontology that was checked out from a snapshot.  The local history starts empty at the
+	 * revision of the snapshot.
+	 * 
+	 * @param ontology the ontology
+	 * @param serverDocument the server document
+	 * @param revision the revision of the ontology
+	 * @param baseSnapshot the snapshot that the ontology was built from
+	 * @return the versioned ontology
+	 */
+	VersionedOntologyDocument createVersionedOntology(OWLOntology ontology, RemoteOntologyDocument serverDocument, OntologyDocumentRevision revision, OntologySnapshot baseSnapshot);
+	
 	OWLObjectRenderer getOWLRenderer();
 
 }
@@ -0,0 +1,43 @@
+package org.protege.owl.server.api;
+
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * A materialized copy of an ontology document at some revision.
+ * <p>
+ * A snapshot holds the contents of the ontology at its revision, as the changes that add them to an empty ontology.
+ * It holds no removals.
+ * Applying the snapshot followed by the change history from the revision of the snapshot to a later revision gives
+ * the same ontology as applying the full change history from the start revision.  The server keeps snapshots so that
+ * a checkout does not need to replay the whole history of a document.
+ *
+ * @author tredmond
+ */
+public interface OntologySnapshot {
+    String SNAPSHOT_EXTENSION = ".snapshot";
+
+    /**
+     * Get the revision of the ontology document captured by this snapshot.
+     *
+     * @return OntologyDocumentRevision
+     */
+    OntologyDocumentRevision getRevision();
+
+    /**
+     * Returns the changes that turn an empty ontology into the ontology at the revision of this snapshot.
+     *
+     * @param ontology the ontology that the changes apply to
+     * @return List
+     */
+    List<OWLOntologyChange> getChanges(OWLOntology ontology);
+
+    /**
+     * Sets the number of changes above which the snapshot is compressed when it is serialized.
+     *
+     * @param compressionLimit the compression limit or a negative number if the snapshot should not be compressed
+     */
+    void setCompressionLimit(int compressionLimit);
+}
@@ -0,0 +1,28 @@
+package org.protege.owl.server.api;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Receives the revisions of a change history one at a time.  This allows a consumer that only needs a single pass
+ * over the history to process the revisions as they are decoded without holding the whole history in memory.
+ * 
+ * @author tredmond
+ */
+public interface RevisionVisitor {
+    
+    /**
+     * Called once for each revision in order.
+     * <p>
+     * The changes are the changes that were committed in this revision.  Unlike {@link ChangeHistory#getChanges(org.semanticweb.owlapi.model.OWLOntology)}
+     * they are not normalized and they refer to a placeholder ontology.
+     * 
+     * @param revision the revision
+     * @param metaData the metadata of the commit or null if it is not known
+     * @param changes the changes of this revision
+     * @throws IOException if the visitor fails to process the revision
+     */
+    void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) throws IOException;
+}
@@ -96,6 +96,18 @@ public interface Client {
 	 */
 	ChangeHistory getChanges(RemoteOntologyDocument document, RevisionPointer start, RevisionPointer end) throws OWLServerException;
 	
+	/**
+	 * Retrieves the latest snapshot that the server has for the RemoteOntologyDocument at or before a given revision.
+	 * Applying the snapshot followed by the changes from the revision of the snapshot to the given revision gives the
+	 * ontology at the given revision without replaying the history from the start revision.
+	 * 
+	 * @param document	document
+	 * @param revision	revision
+	 * @throws OWLServerException	OWLServerException
+	 * @return OntologySnapshot
+	 */
+	OntologySnapshot getSnapshot(RemoteOntologyDocument document, RevisionPointer revision) throws OWLServerException;
+	
 	/**
 	 * Commits a collection of changes to the remote ontology document.
 	 * 
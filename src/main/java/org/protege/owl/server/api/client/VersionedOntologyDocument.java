@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.semanticweb.owlapi.model.OWLOntology;
 
 /**
@@ -39,7 +40,7 @@ public interface VersionedOntologyDocument {
 	  * <p>
 	  * The local history must satisfy the following invariants:
 	  * <ol>
-	  * <li> the local history starts at revision zero,</li>
+	  * <li> the local history starts at revision zero or at the revision of the {@link #getBaseSnapshot() base snapshot},</li>
 	  * <li> the local history ends at some revision at or after the current revision of this document (getRevision()) and
 	  * <li> the local history is a subset of the history on the server.
 	  * </ol>
@@ -48,6 +49,15 @@ public interface VersionedOntologyDocument {
 	  */
 	 ChangeHistory getLocalHistory();
 	 
+	 /**
+	  * Returns the snapshot that the local history starts from when the document was checked out from a snapshot.
+	  * The snapshot together with the local history stands in for the history from revision zero, so the history
+	  * before the snapshot does not have to be fetched from the server.
+	  * 
+	  * @return the base snapshot or null if the local history starts at revision zero
+	  */
+	 OntologySnapshot getBaseSnapshot();
+	 
 	 
 	 /**
 	  * This call adds to the local copy of the server history when some more of the history of the
@@ -6,6 +6,7 @@ import java.util.Map;
 import org.protege.owl.server.api.AuthToken;
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.OWLServerException;
@@ -24,6 +25,19 @@ public interface ServerExports {
         
     ChangeHistory getChanges(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision start, OntologyDocumentRevision end) throws OWLServerException;
 
+    /**
+     * Returns the latest snapshot that the server has for a document at or before a given revision.  The caller
+     * can then retrieve the changes from the revision of the snapshot to the revision that it needs.  If the server has
+     * no suitable snapshot, the snapshot of the empty ontology at the start revision is returned.
+     *
+     * @param u	Authorization token
+     * @param doc	doc
+     * @param revision	revision
+     * @throws OWLServerException	OWLServerException
+     * @return OntologySnapshot
+     */
+    OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision revision) throws OWLServerException;
+
     /**
      * The call to commit changes.  The revision of the change history
      * passed in is the last revision that has been seen by the
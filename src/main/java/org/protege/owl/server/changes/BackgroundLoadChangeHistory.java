@@ -6,7 +6,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +19,8 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.protege.owl.server.util.OWLObjectInterner;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
 
@@ -26,8 +33,31 @@ import org.semanticweb.owlapi.model.OWLOntologyChange;
  * ChangeHistory is used.  Instead of throwing an error at that point, this class will return the empty history.  This somewhat strange behavior
  * is actually perfectly acceptable to a caller such as an implementation of the VersionedOntologyDocument because the history document is a cache
  * and having it suddenly become empty merely means that it will need to be refilled later.
+ * <p>
+ * If only some records of the history file are damaged the revisions before the first damaged record are kept and the
+ * file is cut back to them.  The revisions after them are then fetched from the server the next time they are needed,
+ * so the amount that is downloaded again depends on the damage and not on the size of the history.
+ * <p>
+ * The histories are loaded by a small pool of daemon threads that is shared by all the documents, so opening many
+ * documents at once does not start a thread for each of them.
  */
 public class BackgroundLoadChangeHistory implements ChangeHistory {
+    public static final int LOADER_THREAD_COUNT = 2;
+    private static final ExecutorService loaders;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LOADER_THREAD_COUNT, LOADER_THREAD_COUNT, 30, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "History loading thread");
+                th.setDaemon(true);
+                return th;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        loaders = executor;
+    }
+    
     private Logger logger = LoggerFactory.getLogger(BackgroundLoadChangeHistory.class.getCanonicalName());
     private File historyFile;
     private DocumentFactory factory;
@@ -38,7 +68,7 @@ public class BackgroundLoadChangeHistory implements ChangeHistory {
         this.factory = factory;
         this.historyFile = historyFile;
         backgroundLoader = new FutureTask<ChangeHistory>(new BackGroundLoader());
-        new Thread(backgroundLoader, "History loading thread").start();
+        loaders.execute(backgroundLoader);
     }
     
     private class BackGroundLoader implements Callable<ChangeHistory> {
@@ -46,16 +76,40 @@ public class BackgroundLoadChangeHistory implements ChangeHistory {
         @Override
         public ChangeHistory call() throws IOException {
             long startTime = System.currentTimeMillis();
+            if (!ChangeHistoryFile.isLegacyFormat(historyFile)) {
+                try {
+                    ChangeHistoryFile changeHistoryFile = new ChangeHistoryFile(factory, historyFile);
+                    changeHistoryFile.setMemoryMapped(Boolean.getBoolean(ChangeHistoryFile.MEMORY_MAPPED_PROPERTY));
+                    changeHistoryFile.setParallelism(Integer.getInteger(ChangeHistoryFile.PARALLELISM_PROPERTY, ChangeHistoryFile.DEFAULT_PARALLELISM));
+                    if (Boolean.getBoolean(ChangeHistoryFile.INTERN_PROPERTY)) {
+                        changeHistoryFile.setInterner(new OWLObjectInterner());
+                    }
+                    try {
+                        return changeHistoryFile.read();
+                    }
+                    catch (DamagedHistoryException damage) {
+                        logger.warn("History file " + historyFile + " is damaged from revision " + damage.getDamagedRevision() + " on - keeping the revisions before it.", damage);
+                        return changeHistoryFile.repair(damage);
+                    }
+                }
+                finally {
+                    logLoadTime(startTime);
+                }
+            }
             FileInputStream in = new FileInputStream(historyFile);
             try {
                 return factory.readChangeDocument(in, null, null);
             }
             finally {
                 in.close();
-                long interval = System.currentTimeMillis() - startTime;
-                if (interval >= 1000) {
-                    logger.info("Load of history file " + historyFile.getName() + " took " + (interval / 1000) + " seconds.");
-                }
+                logLoadTime(startTime);
+            }
+        }
+        
+        private void logLoadTime(long startTime) {
+            long interval = System.currentTimeMillis() - startTime;
+            if (interval >= 1000) {
+                logger.info("Load of history file " + historyFile.getName() + " took " + (interval / 1000) + " seconds.");
             }
         }
         
@@ -111,6 +165,11 @@ public class BackgroundLoadChangeHistory implements ChangeHistory {
     }
 
 
+    public void forEachRevision(OntologyDocumentRevision start, OntologyDocumentRevision end, RevisionVisitor visitor) throws IOException {
+        getDelegate().forEachRevision(start, end, visitor);
+    }
+
+
     public void writeChangeDocument(OutputStream out) throws IOException {
         getDelegate().writeChangeDocument(out);
     }
@@ -0,0 +1,1130 @@
+package org.protege.owl.server.changes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.protege.owl.server.changes.format.ByteBufferInputStream;
+import org.protege.owl.server.changes.format.OWLInputStream;
+import org.protege.owl.server.changes.format.OWLOutputStream;
+import org.protege.owl.server.util.OWLObjectInterner;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The append-only representation of a change history that the server keeps on disk.
+ * <p>
+ * The file starts with a short header (magic number, format version and start revision) and is followed
+ * by one length-prefixed record for each revision.  The offsets of the records are kept in a sidecar index
+ * file (see {@link ChangeHistoryIndex}) so that a range of revisions can be read without reading the records
+ * that precede it.  A commit appends the records for the new revisions
+ * to the end of the file so the bytes of the earlier revisions are never rewritten.  If the server dies
+ * in the middle of an append the file ends with a partial record.  This partial record is ignored when the
+ * file is read and it is cut off before the next append.
+ * <p>
+ * Older servers saved the history as a single serialized change document that was rewritten on every commit.
+ * These files are recognized and migrated to this format the first time they are read.  The original file is
+ * kept as the backup history file.  Files written with an older version of this format are upgraded in the same way.
+ * <p>
+ * The records can either be read through a buffered stream or decoded directly from a memory mapped view of the file.
+ * Memory mapping avoids the stream call overhead when large histories are loaded, but on some platforms a mapped file
+ * cannot be renamed or truncated until the mapping is garbage collected, so it is off unless it is configured.
+ * <p>
+ * From version 5 the header also holds a compression dictionary built from the strings that occur most often in the
+ * recent revisions of the document (see {@link CompressionDictionary}).  The changes of every record, however small, are
+ * deflated with this dictionary unless that does not make the record smaller.  The dictionary is rebuilt whenever the
+ * file is rewritten, in particular by {@link #compact()}; appended records use the dictionary that is in the header.
+ * <p>
+ * From version 6 every record ends with a CRC32 checksum of its contents and the dictionary is followed by a checksum
+ * of the dictionary.  A record whose checksum does not match stops the read: the revisions before it are returned in a
+ * {@link DamagedHistoryException} and {@link #repair(DamagedHistoryException)} cuts the file back to these revisions and
+ * replays whatever the backup holds after them.  The cost of a recovery then depends on the size of the damage and not
+ * on the size of the history.  Before the file is cut a copy of it is kept as the damaged history file, so the records
+ * after the damaged record can still be read from the copy.
+ * <p>
+ * Large history files are decoded by several threads.  The records of a history file are independent of each other so
+ * the index is split into contiguous ranges of revisions that are decoded concurrently and stitched back together in order.
+ * <p>
+ * Instances of this class are not thread safe.  The server makes sure that all the reads and writes of a history
+ * file happen on a single thread.
+ * <p>
+ * The history file also serves as the commit journal of the server.  An append writes only the records of the new
+ * revisions and forces them to the disk before the commit is acknowledged, so the cost of a commit depends on the size
+ * of the change and not on the size of the history.  After a crash the partial record at the end of the file is dropped
+ * and the history is recovered up to the last acknowledged commit.  New files are written under a temporary name and
+ * moved into place, and the directory is forced after the move, so that a crash cannot leave a history without its header.
+ *
+ * @author tredmond
+ */
+public class ChangeHistoryFile {
+    public static final int MAGIC   = 0x4F574C48; // OWLH
+    public static final int VERSION = 6;
+    public static final String BACKUP_EXTENSION = ".~";
+    public static final String DAMAGED_EXTENSION = ".damaged";
+    /**
+     * The system property that turns on memory mapped reads of the local history files on the client.
+     */
+    public static final String MEMORY_MAPPED_PROPERTY = "org.protege.owl.server.mappedHistory";
+    /**
+     * The system property that sets the largest number of threads that decode a history file on the client.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.protege.owl.server.historyParallelism";
+    public static final int DEFAULT_PARALLELISM = Math.min(8, Runtime.getRuntime().availableProcessors());
+    /**
+     * History files smaller than this are always decoded by a single thread.
+     */
+    public static final long PARALLEL_READ_THRESHOLD = 1024 * 1024;
+    /**
+     * The system property that turns on the interning of the objects decoded from the local history files on the client.
+     */
+    public static final String INTERN_PROPERTY = "org.protege.owl.server.internHistory";
+
+    static final int HEADER_SIZE = 12;
+    private static final int RAW_CHANGES = 0;
+    private static final int DEFLATED_CHANGES = 1;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xACED;
+    private static final ForkJoinPool decoders = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private Logger logger = LoggerFactory.getLogger(ChangeHistoryFile.class.getCanonicalName());
+    private DocumentFactory factory;
+    private File historyFile;
+    private ChangeHistoryIndex index;
+    private int version = VERSION;
+    private byte[] dictionary = new byte[0];
+    private long firstRecordOffset = HEADER_SIZE;
+    private boolean memoryMapped = false;
+    private int parallelism = 1;
+    private OWLObjectInterner interner;
+    private long parallelReadThreshold = PARALLEL_READ_THRESHOLD;
+    private File preservedDamagedFile;
+
+    public ChangeHistoryFile(DocumentFactory factory, File historyFile) {
+        this.factory = factory;
+        this.historyFile = historyFile;
+    }
+
+    public File getHistoryFile() {
+        return historyFile;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the largest number of threads that decode this history file when it is read.
+     *
+     * @param parallelism the number of threads or 1 to decode the file on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public OWLObjectInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Sets the interner that canonicalizes the objects decoded from this history file.
+     *
+     * @param interner the interner or null if decoded objects should not be interned
+     */
+    public void setInterner(OWLObjectInterner interner) {
+        this.interner = interner;
+    }
+
+    void setParallelReadThreshold(long parallelReadThreshold) {
+        this.parallelReadThreshold = parallelReadThreshold;
+    }
+
+    public static File getBackupHistoryFile(File historyFile) {
+        return new File(historyFile.getAbsolutePath() + BACKUP_EXTENSION);
+    }
+
+    public static File getDamagedHistoryFile(File historyFile) {
+        return new File(historyFile.getAbsolutePath() + DAMAGED_EXTENSION);
+    }
+
+    public static boolean isLegacyFormat(File historyFile) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(historyFile));
+        try {
+            return in.readUnsignedShort() == JAVA_SERIALIZATION_MAGIC;
+        }
+        catch (EOFException eof) {
+            return false;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the revision that follows the last complete record on disk.  This only needs the index
+     * so the revision records are not read.
+     *
+     * @return the end revision of the history on disk
+     * @throws IOException if the history file could not be read
+     */
+    public OntologyDocumentRevision getEndRevision() throws IOException {
+        return getIndex().getEndRevision();
+    }
+
+    /**
+     * Reads the full change history from disk, migrating the history file first if it is in the legacy format
+     * or in an older version of this format.
+     *
+     * @return the change history
+     * @throws IOException if the history file could not be read
+     */
+    public ChangeHistory read() throws IOException {
+        if (isLegacyFormat(historyFile)) {
+            ChangeHistory changes = ChangeHistoryUtilities.readChanges(factory, historyFile, OntologyDocumentRevision.START_REVISION, null);
+            migrate(changes);
+            return changes;
+        }
+        ChangeHistory changes;
+        if (parallelism > 1 && historyFile.length() >= parallelReadThreshold) {
+            changes = readRecordsInParallel();
+        }
+        else {
+            changes = memoryMapped ? readMappedRecords() : readRecords();
+        }
+        if (version != VERSION) {
+            migrate(changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Reads a range of revisions from disk.  The index is used to go straight to the records of the requested revisions.
+     *
+     * @param start the first revision to read or null to start at the beginning of the history
+     * @param end the revision after the last revision to read or null to read to the end of the history
+     * @return the change history between the start and end revisions
+     * @throws IOException if the history file could not be read
+     */
+    public ChangeHistory read(OntologyDocumentRevision start, OntologyDocumentRevision end) throws IOException {
+        ChangeHistoryIndex index = getIndex();
+        if (start == null || start.compareTo(index.getStartRevision()) < 0) {
+            start = index.getStartRevision();
+        }
+        RevisionCollector collector = new RevisionCollector();
+        forEachRevision(start, end, collector);
+        return collector.toChangeHistory(start, factory);
+    }
+
+    /**
+     * Decodes a range of revisions from disk and passes them to a visitor one at a time.  The index is used to go straight
+     * to the records of the requested revisions and only one revision is held in memory at a time.
+     *
+     * @param start the first revision to visit or null to start at the beginning of the history
+     * @param end the revision after the last revision to visit or null to visit to the end of the history
+     * @param visitor the visitor
+     * @throws IOException if the history could not be read or the visitor failed
+     */
+    public void forEachRevision(OntologyDocumentRevision start, OntologyDocumentRevision end, RevisionVisitor visitor) throws IOException {
+        ChangeHistoryIndex index = getIndex();
+        if (start == null || start.compareTo(index.getStartRevision()) < 0) {
+            start = index.getStartRevision();
+        }
+        if (end == null || end.compareTo(index.getEndRevision()) > 0) {
+            end = index.getEndRevision();
+        }
+        if (start.compareTo(end) >= 0) {
+            return;
+        }
+        RecordReader reader = new RecordReader();
+        RandomAccessFile raf = new RandomAccessFile(historyFile, "r");
+        try {
+            long regionStart = index.getRecordOffset(start);
+            OntologyDocumentRevision last = end.add(-1);
+            long regionLength = index.getRecordOffset(last) + index.getRecordLength(last) - regionStart;
+            ByteBuffer region = null;
+            if (memoryMapped && regionLength <= Integer.MAX_VALUE) {
+                region = raf.getChannel().map(MapMode.READ_ONLY, regionStart, regionLength);
+            }
+            for (OntologyDocumentRevision revision = start; revision.compareTo(end) < 0; revision = revision.next()) {
+                ByteBuffer record;
+                if (region != null) {
+                    region.position((int) (index.getRecordOffset(revision) - regionStart));
+                    record = region.slice();
+                    record.limit(index.getRecordLength(revision));
+                }
+                else {
+                    byte[] bytes = new byte[index.getRecordLength(revision)];
+                    raf.seek(index.getRecordOffset(revision));
+                    raf.readFully(bytes);
+                    record = ByteBuffer.wrap(bytes);
+                }
+                reader.readRecord(record, revision, visitor);
+            }
+        }
+        finally {
+            reader.close();
+            raf.close();
+        }
+    }
+
+    /**
+     * Checks the records from a revision to the end of the history against their checksums without decoding them.  This
+     * lets the index be trusted for the end of a history that is not read in full.  The records of the formats before
+     * version 6 have no checksums and are not checked.
+     *
+     * @param start the first revision to check or null to check the whole history
+     * @return the end revision of the history on disk
+     * @throws IOException if a record is damaged or the history file could not be read
+     */
+    public OntologyDocumentRevision verify(OntologyDocumentRevision start) throws IOException {
+        ChangeHistoryIndex index = getIndex();
+        OntologyDocumentRevision end = index.getEndRevision();
+        if (start == null || start.compareTo(index.getStartRevision()) < 0) {
+            start = index.getStartRevision();
+        }
+        if (version < 6 || start.compareTo(end) >= 0) {
+            return end;
+        }
+        RecordReader reader = new RecordReader();
+        RandomAccessFile raf = new RandomAccessFile(historyFile, "r");
+        try {
+            for (OntologyDocumentRevision revision = start; revision.compareTo(end) < 0; revision = revision.next()) {
+                byte[] bytes = new byte[index.getRecordLength(revision)];
+                raf.seek(index.getRecordOffset(revision));
+                raf.readFully(bytes);
+                reader.verifyChecksum(ByteBuffer.wrap(bytes), revision);
+            }
+        }
+        finally {
+            reader.close();
+            raf.close();
+        }
+        return end;
+    }
+
+    /**
+     * Recovers the history from the backup copy of the history file.  This is used when the history file itself
+     * cannot be read.  The history file is rewritten from the contents of the backup.
+     * <p>
+     * The backup is written when a legacy history file is migrated and is not updated by later appends, so it can be
+     * older than the history file.  The history file is only replaced if the backup reaches the last revision that the
+     * history file or its index is known to have held.  Otherwise, or if that revision cannot be determined, nothing is
+     * changed and an exception is thrown so that the commits made since the backup are not silently dropped.
+     *
+     * @return the change history
+     * @throws IOException if the backup could not be read or is older than the history file
+     */
+    public ChangeHistory recoverFromBackup() throws IOException {
+        File backup = getBackupHistoryFile(historyFile);
+        ChangeHistory changes = ChangeHistoryUtilities.readChanges(factory, backup, OntologyDocumentRevision.START_REVISION, null);
+        OntologyDocumentRevision knownEnd = getKnownEndRevision();
+        if (knownEnd == null) {
+            throw new IOException("Could not tell how many revisions " + historyFile + " held - not replacing it with the backup " + backup
+                                      + " (end revision = " + changes.getEndRevision() + ")");
+        }
+        if (changes.getEndRevision().compareTo(knownEnd) < 0) {
+            throw new IOException("The backup " + backup + " ends at revision " + changes.getEndRevision() + " but " + historyFile
+                                      + " held revisions up to " + knownEnd + " - not replacing it with the backup");
+        }
+        logger.warn("Recovered " + historyFile + " from the backup (end revision = " + changes.getEndRevision() + ")");
+        write(changes);
+        return changes;
+    }
+
+    /*
+     * The largest end revision that the history file or its index records, or null if neither can be read.
+     */
+    private OntologyDocumentRevision getKnownEndRevision() {
+        OntologyDocumentRevision knownEnd = ChangeHistoryIndex.readEndRevision(ChangeHistoryIndex.getIndexFile(historyFile));
+        try {
+            OntologyDocumentRevision recordedEnd = getRecordedEndRevision(historyFile);
+            if (knownEnd == null || recordedEnd.compareTo(knownEnd) > 0) {
+                knownEnd = recordedEnd;
+            }
+        }
+        catch (IOException ioe) {
+            logger.debug("Could not read the records of " + historyFile, ioe);
+        }
+        return knownEnd;
+    }
+
+    /**
+     * Recovers the history after a damaged record was found.  The history file is first copied to the damaged history
+     * file (see {@link #preserveDamagedFile()}).  It is then cut back to the revisions before the damaged record and the
+     * revisions from the damaged record on are replayed from the backup if the backup has them.  Revisions that are not
+     * in the backup are no longer in the history file.  A client cache can fetch them again from the server; on the
+     * server they can only be recovered from the preserved copy, so the server leaves the repair to the operator.
+     *
+     * @param damage the exception thrown when the history file was read
+     * @return the recovered change history
+     * @throws IOException if the history file could not be repaired
+     */
+    public ChangeHistory repair(DamagedHistoryException damage) throws IOException {
+        File preserved = preserveDamagedFile();
+        OntologyDocumentRevision damagedEnd = getRecordedEndRevision(preserved);
+        ChangeHistory changes = damage.getValidHistory();
+        File backup = getBackupHistoryFile(historyFile);
+        if (backup.exists()) {
+            ChangeHistory backupChanges = ChangeHistoryUtilities.readChanges(factory, backup, OntologyDocumentRevision.START_REVISION, null);
+            if (backupChanges.getStartRevision().equals(changes.getStartRevision())
+                    && backupChanges.getEndRevision().compareTo(changes.getEndRevision()) > 0) {
+                changes = changes.appendChanges(backupChanges.cropChanges(changes.getEndRevision(), backupChanges.getEndRevision()));
+            }
+        }
+        if (version != VERSION) {
+            write(changes);
+        }
+        else {
+            ChangeHistoryIndex index = getIndex();
+            index.truncate(damage.getDamagedRevision());
+            RandomAccessFile raf = new RandomAccessFile(historyFile, "rw");
+            try {
+                raf.setLength(index.getEnd());
+                raf.getChannel().force(false);
+            }
+            finally {
+                raf.close();
+            }
+            index.write(ChangeHistoryIndex.getIndexFile(historyFile));
+            append(changes);
+        }
+        logger.warn("Repaired " + historyFile + ": kept the revisions before " + damage.getDamagedRevision()
+                        + " and recovered the history up to revision " + changes.getEndRevision()
+                        + ", the damaged file with records up to revision " + damagedEnd + " was kept as " + preserved);
+        return changes;
+    }
+
+    /**
+     * Copies the history file and its index to the damaged history file so that the records after a damaged record are
+     * not lost when the history file is repaired.  An earlier copy is never overwritten; if the damaged history file
+     * already exists the copy gets a numbered name instead.
+     *
+     * @return the copy
+     * @throws IOException if the history file could not be copied
+     */
+    public File preserveDamagedFile() throws IOException {
+        File preserved = getDamagedHistoryFile(historyFile);
+        for (int i = 1; preserved.exists(); i++) {
+            preserved = new File(getDamagedHistoryFile(historyFile).getAbsolutePath() + "." + i);
+        }
+        Files.copy(historyFile.toPath(), preserved.toPath());
+        preservedDamagedFile = preserved;
+        FileChannel channel = FileChannel.open(preserved.toPath(), StandardOpenOption.WRITE);
+        try {
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+        forceDirectory(preserved.getAbsoluteFile().getParentFile());
+        return preserved;
+    }
+
+    /**
+     * Returns the copy of the damaged history file that was made by the last repair.
+     *
+     * @return the copy or null if the file has not been repaired
+     */
+    public File getPreservedDamagedFile() {
+        return preservedDamagedFile;
+    }
+
+    /**
+     * Returns the revision after the last complete record of a history file, whether or not the records can be decoded.
+     * For a damaged file this is the end of the revisions that the file held before it was damaged.
+     *
+     * @param file a history file
+     * @return the end revision of the records of the file
+     * @throws IOException if the header of the file could not be read
+     */
+    public OntologyDocumentRevision getRecordedEndRevision(File file) throws IOException {
+        ChangeHistoryFile copy = new ChangeHistoryFile(factory, file);
+        return copy.loadIndex().getEndRevision();
+    }
+
+    /**
+     * Replaces the contents of the history file with a change history.  The new contents are written to a temporary file
+     * that is then moved in place of the history file.
+     *
+     * @param changes the change history to write
+     * @throws IOException if the history could not be written
+     */
+    public void write(ChangeHistory changes) throws IOException {
+        File tmp = getTemporaryHistoryFile();
+        create(tmp, changes);
+        replace(tmp, historyFile);
+        index.write(ChangeHistoryIndex.getIndexFile(historyFile));
+    }
+
+    /**
+     * Rewrites the history file with a compression dictionary that is rebuilt from the recent revisions.  This is
+     * worth doing when the vocabulary of the recent commits has drifted away from the vocabulary that the dictionary
+     * was built from.
+     *
+     * @throws IOException if the history could not be read or written
+     */
+    public void compact() throws IOException {
+        long startTime = System.currentTimeMillis();
+        long oldLength = historyFile.length();
+        ChangeHistory changes = read();
+        write(changes);
+        logger.info("Compacted " + historyFile + " from " + oldLength + " to " + historyFile.length() + " bytes with a "
+                        + dictionary.length + " byte dictionary (" + (System.currentTimeMillis() - startTime) + " ms)");
+    }
+
+    /**
+     * Returns the compression dictionary of the history file as it was last read or written.
+     *
+     * @return the dictionary, empty for files written with an older version of the format
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Writes the revisions of the change history that are not yet on disk to the end of the history file.
+     * The revisions are forced to the disk before this method returns.
+     *
+     * @param changes a change history that extends the history on disk
+     * @throws IOException if the history could not be written
+     */
+    public void append(ChangeHistory changes) throws IOException {
+        if (index == null && !historyFile.exists()) {
+            write(changes);
+            return;
+        }
+        ChangeHistoryIndex index = getIndex();
+        if (version != VERSION) {
+            read();
+            index = getIndex();
+        }
+        OntologyDocumentRevision endRevision = index.getEndRevision();
+        if (changes.getStartRevision().compareTo(endRevision) > 0 || !changes.getStartRevision().equals(index.getStartRevision())) {
+            throw new IllegalStateException("Changes starting at " + changes.getStartRevision() + " can't be appended to the history in " + historyFile);
+        }
+        if (changes.getEndRevision().compareTo(endRevision) <= 0) {
+            return;
+        }
+        FileOutputStream fos = new FileOutputStream(historyFile, true);
+        try {
+            FileChannel channel = fos.getChannel();
+            if (channel.size() > index.getEnd()) {
+                logger.warn("Removing incomplete revision at the end of " + historyFile);
+                channel.truncate(index.getEnd());
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            writeRecords(out, changes, endRevision);
+            out.flush();
+            channel.force(false);
+        }
+        finally {
+            fos.close();
+        }
+        index.append(ChangeHistoryIndex.getIndexFile(historyFile), endRevision);
+    }
+
+    /**
+     * Returns the length of the complete revisions in the history file.  After the history has been read, written
+     * or appended to, the length is known from the index and the disk is not touched.
+     *
+     * @return the length of the history file in bytes
+     */
+    public long getLength() {
+        return index != null ? index.getEnd() : historyFile.length();
+    }
+
+    ChangeHistoryIndex getIndex() throws IOException {
+        if (index == null) {
+            if (isLegacyFormat(historyFile)) {
+                read();
+            }
+            else {
+                index = loadIndex();
+            }
+        }
+        return index;
+    }
+
+    private ChangeHistoryIndex loadIndex() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(historyFile, "r");
+        try {
+            OntologyDocumentRevision start = readHeader(raf);
+            File indexFile = ChangeHistoryIndex.getIndexFile(historyFile);
+            ChangeHistoryIndex index = ChangeHistoryIndex.read(indexFile, firstRecordOffset);
+            if (index == null || !index.getStartRevision().equals(start) || index.getEnd() > raf.length()) {
+                logger.info("Rebuilding the index for " + historyFile);
+                index = new ChangeHistoryIndex(start, firstRecordOffset);
+            }
+            if (!index.scan(raf)) {
+                logger.warn("Ignoring incomplete revision at the end of " + historyFile + " (" + (raf.length() - index.getEnd()) + " bytes)");
+            }
+            return index;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private OntologyDocumentRevision readHeader(DataInput in) throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        }
+        catch (EOFException eof) {
+            throw new IOException("Unrecognized history file format for " + historyFile);
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Unrecognized history file format for " + historyFile);
+        }
+        int fileVersion = in.readInt();
+        if (fileVersion < 1 || fileVersion > VERSION) {
+            throw new IOException("Unsupported version " + fileVersion + " of the history file format for " + historyFile);
+        }
+        version = fileVersion;
+        OntologyDocumentRevision start = new OntologyDocumentRevision(in.readInt());
+        if (version >= 5) {
+            int dictionaryLength = in.readInt();
+            if (dictionaryLength < 0 || dictionaryLength > CompressionDictionary.MAX_SIZE) {
+                throw new IOException("Corrupt compression dictionary in " + historyFile);
+            }
+            dictionary = new byte[dictionaryLength];
+            in.readFully(dictionary);
+            firstRecordOffset = HEADER_SIZE + 4 + dictionaryLength;
+            if (version >= 6) {
+                if (in.readInt() != checksum(dictionary)) {
+                    throw new IOException("Checksum mismatch in the compression dictionary of " + historyFile);
+                }
+                firstRecordOffset += 4;
+            }
+        }
+        else {
+            dictionary = new byte[0];
+            firstRecordOffset = HEADER_SIZE;
+        }
+        return start;
+    }
+
+    private void create(File file, ChangeHistory changes) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(changes.getStartRevision().getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION));
+            dictionary = CompressionDictionary.build(changes);
+            out.writeInt(dictionary.length);
+            out.write(dictionary);
+            out.writeInt(checksum(dictionary));
+            version = VERSION;
+            firstRecordOffset = HEADER_SIZE + 4 + dictionary.length + 4;
+            index = new ChangeHistoryIndex(changes.getStartRevision(), firstRecordOffset);
+            writeRecords(out, changes, changes.getStartRevision());
+            out.flush();
+            fos.getChannel().force(false);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeRecords(DataOutputStream out, ChangeHistory changes, OntologyDocumentRevision from) throws IOException {
+        OWLOntology fakeOntology = createFakeOntology();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RecordWriter writer = new RecordWriter();
+        try {
+            for (OntologyDocumentRevision revision = from; revision.compareTo(changes.getEndRevision()) < 0; revision = revision.next()) {
+                buffer.reset();
+                writer.writeRecord(buffer, revision, changes.getMetaData(revision), changes.cropChanges(revision, revision.next()).getChanges(fakeOntology));
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+                index.add(buffer.size());
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * A record consists of the revision, the serialized metadata (preceded by its length) and the changes.  The changes
+     * are written in the binary OWL format and then deflated with the dictionary of the file.  A one byte flag tells
+     * whether the changes are deflated, in which case their uncompressed length follows the flag.  The record ends with
+     * the checksum of everything before it.
+     */
+    private class RecordWriter {
+        private ByteArrayOutputStream changeBuffer = new ByteArrayOutputStream();
+        private CRC32 checksum = new CRC32();
+        private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private byte[] deflated = new byte[4096];
+
+        @SuppressWarnings("deprecation")
+        public void writeRecord(ByteArrayOutputStream buffer, OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) throws IOException {
+            checksum.reset();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffer, checksum));
+            out.writeInt(revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION));
+            if (metaData == null) {
+                out.writeInt(0);
+            }
+            else {
+                ByteArrayOutputStream metaDataBuffer = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(metaDataBuffer);
+                oos.writeObject(metaData);
+                oos.flush();
+                out.writeInt(metaDataBuffer.size());
+                metaDataBuffer.writeTo(out);
+            }
+            changeBuffer.reset();
+            new OWLOutputStream(changeBuffer).write(changes);
+            byte[] raw = changeBuffer.toByteArray();
+            int deflatedLength = deflate(raw);
+            if (deflatedLength + 4 < raw.length) {
+                out.writeByte(DEFLATED_CHANGES);
+                out.writeInt(raw.length);
+                out.write(deflated, 0, deflatedLength);
+            }
+            else {
+                out.writeByte(RAW_CHANGES);
+                out.write(raw);
+            }
+            out.flush();
+            new DataOutputStream(buffer).writeInt((int) checksum.getValue());
+        }
+
+        private int deflate(byte[] raw) {
+            deflater.reset();
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == deflated.length) {
+                    deflated = Arrays.copyOf(deflated, 2 * deflated.length);
+                }
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            }
+            return length;
+        }
+
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    private ChangeHistory readRecords() throws IOException {
+        long fileLength = historyFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(historyFile)));
+        RecordReader reader = new RecordReader();
+        try {
+            OntologyDocumentRevision start = readHeader(in);
+            ChangeHistoryIndex index = new ChangeHistoryIndex(start, firstRecordOffset);
+            RevisionCollector collector = new RevisionCollector();
+            while (fileLength - index.getEnd() >= 4) {
+                int recordLength = in.readInt();
+                if (recordLength < 0 || fileLength - index.getEnd() - 4 < recordLength) {
+                    break;
+                }
+                byte[] record = new byte[recordLength];
+                in.readFully(record);
+                try {
+                    reader.readRecord(ByteBuffer.wrap(record), index.getEndRevision(), collector);
+                }
+                catch (IOException ioe) {
+                    return finishDamagedRead(index, collector, ioe);
+                }
+                index.add(recordLength);
+            }
+            return finishRead(index, fileLength, collector);
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+    }
+
+    private ChangeHistory readMappedRecords() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(historyFile, "r");
+        try {
+            long fileLength = raf.length();
+            if (fileLength > Integer.MAX_VALUE) {
+                logger.info(historyFile + " is too large to be mapped, reading it as a stream instead");
+                return readRecords();
+            }
+            ByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, fileLength);
+            OntologyDocumentRevision start = readHeader(raf);
+            RecordReader reader = new RecordReader();
+            buffer.position((int) firstRecordOffset);
+            ChangeHistoryIndex index = new ChangeHistoryIndex(start, firstRecordOffset);
+            RevisionCollector collector = new RevisionCollector();
+            try {
+                while (buffer.remaining() >= 4) {
+                    int recordLength = buffer.getInt();
+                    if (recordLength < 0 || buffer.remaining() < recordLength) {
+                        break;
+                    }
+                    ByteBuffer record = buffer.slice();
+                    record.limit(recordLength);
+                    try {
+                        reader.readRecord(record, index.getEndRevision(), collector);
+                    }
+                    catch (IOException ioe) {
+                        return finishDamagedRead(index, collector, ioe);
+                    }
+                    buffer.position(buffer.position() + recordLength);
+                    index.add(recordLength);
+                }
+            }
+            finally {
+                reader.close();
+            }
+            return finishRead(index, fileLength, collector);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private ChangeHistory readRecordsInParallel() throws IOException {
+        long startTime = System.currentTimeMillis();
+        index = loadIndex();
+        OntologyDocumentRevision start = index.getStartRevision();
+        int revisions = index.size();
+        int chunks = Math.min(parallelism, revisions);
+        List<Future<DecodedRange>> decoded = new ArrayList<Future<DecodedRange>>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final OntologyDocumentRevision from = start.add((int) ((long) revisions * chunk / chunks));
+            final OntologyDocumentRevision to = start.add((int) ((long) revisions * (chunk + 1) / chunks));
+            decoded.add(decoders.submit(new Callable<DecodedRange>() {
+                @Override
+                public DecodedRange call() {
+                    DecodedRange range = new DecodedRange();
+                    try {
+                        forEachRevision(from, to, range.collector);
+                    }
+                    catch (IOException ioe) {
+                        range.damage = ioe;
+                    }
+                    return range;
+                }
+            }));
+        }
+        RevisionCollector collector = new RevisionCollector();
+        try {
+            for (Future<DecodedRange> chunk : decoded) {
+                DecodedRange range = chunk.get();
+                collector.addAll(range.collector);
+                if (range.damage != null) {
+                    index.truncate(start.add(collector.size()));
+                    return finishDamagedRead(index, collector, range.damage);
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + historyFile);
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException("Could not read " + historyFile, ee.getCause());
+        }
+        finally {
+            for (Future<DecodedRange> chunk : decoded) {
+                chunk.cancel(false);
+            }
+        }
+        saveIndex(index);
+        logger.debug("Decoded " + revisions + " revisions of " + historyFile + " with " + chunks + " threads in " + (System.currentTimeMillis() - startTime) + " ms");
+        return collector.toChangeHistory(start, factory);
+    }
+
+    private ChangeHistory finishRead(ChangeHistoryIndex index, long fileLength, RevisionCollector collector) throws IOException {
+        if (index.getEnd() < fileLength) {
+            logger.warn("Ignoring incomplete revision at the end of " + historyFile + " (" + (fileLength - index.getEnd()) + " bytes)");
+        }
+        saveIndex(index);
+        this.index = index;
+        return collector.toChangeHistory(index.getStartRevision(), factory);
+    }
+
+    /*
+     * The index covers the records before the damaged record.  It is kept so that the damaged records can be cut off
+     * by a repair or by the next append.
+     */
+    private ChangeHistory finishDamagedRead(ChangeHistoryIndex index, RevisionCollector collector, IOException damage) throws IOException {
+        this.index = index;
+        ChangeHistory validHistory = collector.toChangeHistory(index.getStartRevision(), factory);
+        throw new DamagedHistoryException("Damaged record for revision " + validHistory.getEndRevision() + " in " + historyFile, validHistory, damage);
+    }
+
+    private static class DecodedRange {
+        private RevisionCollector collector = new RevisionCollector();
+        private IOException damage;
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+        return (int) checksum.getValue();
+    }
+
+    private void saveIndex(ChangeHistoryIndex index) throws IOException {
+        File indexFile = ChangeHistoryIndex.getIndexFile(historyFile);
+        if (!index.isSavedIn(indexFile)) {
+            index.write(indexFile);
+        }
+    }
+
+    /*
+     * Decodes the records of a history file.  The OWL reader is expensive to create so a single reader is pointed at the
+     * buffer of each record in turn.
+     */
+    @SuppressWarnings("deprecation")
+    private class RecordReader {
+        private ByteBufferInputStream recordStream = new ByteBufferInputStream(ByteBuffer.allocate(0));
+        private OWLInputStream owlStream = new OWLInputStream(recordStream);
+        private Inflater inflater;
+        private CRC32 checksum = new CRC32();
+        private byte[] compressed = new byte[0];
+        private byte[] inflated = new byte[0];
+
+        public RecordReader() {
+            owlStream.setInterner(interner);
+        }
+
+        public void readRecord(ByteBuffer record, OntologyDocumentRevision expectedRevision, RevisionVisitor visitor) throws IOException {
+            OntologyDocumentRevision revision;
+            ChangeMetaData metaData;
+            List<OWLOntologyChange> changeList;
+            try {
+                OWLInputStream changeStream;
+                if (version >= 6) {
+                    verifyChecksum(record, expectedRevision);
+                }
+                recordStream.setBuffer(record);
+                if (version == 1) {
+                    ObjectInputStream ois = new ObjectInputStream(recordStream);
+                    revision = (OntologyDocumentRevision) ois.readObject();
+                    metaData = (ChangeMetaData) ois.readObject();
+                    changeStream = new OWLInputStream(ois, owlStream);
+                }
+                else {
+                    revision = new OntologyDocumentRevision(record.getInt());
+                    int metaDataLength = record.getInt();
+                    metaData = null;
+                    if (metaDataLength > 0) {
+                        byte[] metaDataBytes = new byte[metaDataLength];
+                        record.get(metaDataBytes);
+                        metaData = (ChangeMetaData) new ObjectInputStream(new ByteArrayInputStream(metaDataBytes)).readObject();
+                    }
+                    owlStream.reset();
+                    if (version >= 5) {
+                        readChangeEncoding(record);
+                    }
+                    changeStream = owlStream;
+                }
+                if (!revision.equals(expectedRevision)) {
+                    throw new IOException("Expected revision " + expectedRevision + " but found " + revision + " in " + historyFile);
+                }
+                @SuppressWarnings("unchecked")
+                List<OWLOntologyChange> decoded = (List<OWLOntologyChange>) changeStream.read();
+                changeList = decoded;
+            }
+            catch (ClassNotFoundException cnfe) {
+                throw new IOException("Class loader issues reading " + historyFile, cnfe);
+            }
+            catch (RuntimeException re) {
+                throw new IOException("Corrupt record for revision " + expectedRevision + " in " + historyFile, re);
+            }
+            visitor.visit(revision, metaData, changeList);
+        }
+
+        private void verifyChecksum(ByteBuffer record, OntologyDocumentRevision expectedRevision) throws IOException {
+            int end = record.limit() - 4;
+            if (end < record.position()) {
+                throw new IOException("Truncated record for revision " + expectedRevision + " in " + historyFile);
+            }
+            ByteBuffer contents = record.duplicate();
+            contents.limit(end);
+            checksum.reset();
+            checksum.update(contents);
+            if ((int) checksum.getValue() != record.getInt(end)) {
+                throw new IOException("Checksum mismatch in the record for revision " + expectedRevision + " in " + historyFile);
+            }
+            record.limit(end);
+        }
+
+        private void readChangeEncoding(ByteBuffer record) throws IOException {
+            int encoding = record.get();
+            if (encoding == DEFLATED_CHANGES) {
+                recordStream.setBuffer(inflate(record, record.getInt()));
+            }
+            else if (encoding != RAW_CHANGES) {
+                throw new IOException("Unknown encoding " + encoding + " of the changes in " + historyFile);
+            }
+        }
+
+        private ByteBuffer inflate(ByteBuffer record, int length) throws IOException {
+            if (length < 0) {
+                throw new IOException("Corrupt compressed changes in " + historyFile);
+            }
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            }
+            inflater.reset();
+            if (dictionary.length > 0) {
+                inflater.setDictionary(dictionary);
+            }
+            if (record.hasArray()) {
+                inflater.setInput(record.array(), record.arrayOffset() + record.position(), record.remaining());
+            }
+            else {
+                if (compressed.length < record.remaining()) {
+                    compressed = new byte[Math.max(record.remaining(), 2 * compressed.length)];
+                }
+                int remaining = record.remaining();
+                record.get(compressed, 0, remaining);
+                inflater.setInput(compressed, 0, remaining);
+            }
+            if (inflated.length < length) {
+                inflated = new byte[Math.max(length, 2 * inflated.length)];
+            }
+            try {
+                int inflatedLength = 0;
+                while (inflatedLength < length) {
+                    int count = inflater.inflate(inflated, inflatedLength, length - inflatedLength);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated compressed changes in " + historyFile);
+                    }
+                    inflatedLength += count;
+                }
+            }
+            catch (DataFormatException dfe) {
+                throw new IOException("Corrupt compressed changes in " + historyFile, dfe);
+            }
+            return ByteBuffer.wrap(inflated, 0, length);
+        }
+
+        public void close() {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private void migrate(ChangeHistory changes) throws IOException {
+        long startTime = System.currentTimeMillis();
+        File tmp = getTemporaryHistoryFile();
+        create(tmp, changes);
+        File backup = getBackupHistoryFile(historyFile);
+        if (backup.exists()) {
+            backup.delete();
+        }
+        if (!historyFile.renameTo(backup)) {
+            throw new IOException("Could not move " + historyFile + " to " + backup);
+        }
+        replace(tmp, historyFile);
+        index.write(ChangeHistoryIndex.getIndexFile(historyFile));
+        logger.info("Migrated " + historyFile + " to version " + VERSION + " of the history format (" + (System.currentTimeMillis() - startTime) + " ms)");
+    }
+
+    private File getTemporaryHistoryFile() {
+        return new File(historyFile.getAbsolutePath() + ".tmp");
+    }
+
+    private void replace(File from, File to) throws IOException {
+        if (to.exists()) {
+            to.delete();
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Could not move " + from + " to " + to);
+        }
+        forceDirectory(to.getAbsoluteFile().getParentFile());
+    }
+
+    /*
+     * Makes the name of a file that was just moved into a directory durable.  Not every platform can open
+     * a directory for this, in which case the move is left to the file system.
+     */
+    private void forceDirectory(File dir) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        }
+        catch (IOException ioe) {
+            return;
+        }
+        try {
+            channel.force(true);
+        }
+        catch (IOException ioe) {
+            logger.debug("Could not force directory " + dir, ioe);
+        }
+        finally {
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                ;
+            }
+        }
+    }
+
+    private static OWLOntology createFakeOntology() {
+        try {
+            return OWLManager.createOWLOntologyManager().createOntology();
+        }
+        catch (OWLOntologyCreationException e) {
+            throw new RuntimeException("This really shouldn't happen!", e);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -16,6 +17,8 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.protege.owl.server.api.exception.RuntimeIOException;
 import org.protege.owl.server.changes.format.OWLOutputStream;
 import org.protege.owl.server.render.RenderOntologyChangeVisitor;
 import org.protege.owl.server.util.ChangeUtilities;
@@ -25,28 +28,45 @@ import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
 /**
+ * An immutable change history.
+ * <p>
+ * The revisions are kept in a {@link RevisionLog} that is shared with the histories that this history was cropped from
+ * or appended to, and the history is the window of the log between its first slot and its size.  So cropping a history
+ * and appending a commit to the end of a history take time proportional to the number of new revisions and not to the
+ * length of the history.  The net delta returned by {@link #getChanges(OWLOntology)} is assembled from normalized deltas
+ * that the log caches for large aligned blocks of revisions, so it does not renormalize every revision of a long range.
  * 
  * @author tredmond
  */
 public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 	private static final long serialVersionUID = -3842895051205436375L;
 	public static Logger logger = LoggerFactory.getLogger(ChangeHistoryImpl.class.getCanonicalName());
+	private static OWLOntology placeholderOntology;
 	private transient int compressionLimit = -1;
 	private OntologyDocumentRevision startRevision;
-	private List<List<OWLOntologyChange>> listOfRevisionChanges = new ArrayList<List<OWLOntologyChange>>();
-	private SortedMap<OntologyDocumentRevision, ChangeMetaData> metaDataMap = new TreeMap<OntologyDocumentRevision, ChangeMetaData>();
+	private transient RevisionLog log;
+	private transient int first;
+	private transient int size;
 	private DocumentFactory documentFactory;
 	
-	private ChangeHistoryImpl(OntologyDocumentRevision start, DocumentFactory documentFactory) {
+	private ChangeHistoryImpl(OntologyDocumentRevision start, DocumentFactory documentFactory, RevisionLog log, int first, int size) {
         startRevision = start;
-        this.documentFactory = documentFactory;	    
+        this.documentFactory = documentFactory;
+        this.log = log;
+        this.first = first;
+        this.size = size;
 	}
 	
 	ChangeHistoryImpl(OntologyDocumentRevision start, DocumentFactory documentFactory, List<List<OWLOntologyChange>> listOfRevisionChanges, SortedMap<OntologyDocumentRevision, ChangeMetaData> metaDataMap) {
 	    startRevision = start;
 	    this.documentFactory = documentFactory;
-	    this.listOfRevisionChanges = listOfRevisionChanges;
-	    this.metaDataMap = metaDataMap;
+	    List<ChangeMetaData> metaData = new ArrayList<ChangeMetaData>(listOfRevisionChanges.size());
+	    OntologyDocumentRevision revision = start;
+	    for (int i = 0; i < listOfRevisionChanges.size(); i++, revision = revision.next()) {
+	        metaData.add(metaDataMap.get(revision));
+	    }
+	    log = RevisionLog.create(listOfRevisionChanges, metaData);
+	    size = listOfRevisionChanges.size();
 	}
 
 	/*
@@ -57,11 +77,11 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 		    metaData = new ChangeMetaData();
 		}
 	    this.startRevision = startRevision;
+	    this.log = new RevisionLog();
 		if (changes != null) {
-			this.listOfRevisionChanges.add(new ArrayList<OWLOntologyChange>(changes));
-		}
-		if (metaData != null && changes != null) {
-		    this.metaDataMap.put(startRevision, metaData);
+		    List<List<OWLOntologyChange>> revisionChanges = Collections.singletonList((List<OWLOntologyChange>) new ArrayList<OWLOntologyChange>(changes));
+		    log = log.append(0, 0, revisionChanges, Collections.singletonList(metaData));
+		    size = 1;
 		}
 		this.documentFactory = documentFactory;
 	}
@@ -83,12 +103,52 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 
 	@Override
 	public OntologyDocumentRevision getEndRevision() {
-	    return startRevision.add(listOfRevisionChanges.size());
+	    return startRevision.add(size);
+	}
+
+	/**
+	 * Returns the number of changes in this history without copying them.
+	 * 
+	 * @return the number of changes
+	 */
+	public int getChangeCount() {
+	    return getChangeCount(getStartRevision(), getEndRevision());
+	}
+
+	/**
+	 * Returns the number of changes in the revisions from start up to but not including end without copying them.
+	 * 
+	 * @param start the first revision to count
+	 * @param end the revision after the last revision to count
+	 * @return the number of changes
+	 */
+	public int getChangeCount(OntologyDocumentRevision start, OntologyDocumentRevision end) {
+	    int from = Math.max(start.getRevisionDifferenceFrom(startRevision), 0);
+	    int to = Math.min(end.getRevisionDifferenceFrom(startRevision), size);
+	    int count = 0;
+	    for (int i = first + from; i < first + to; i++) {
+	        count += log.getChanges(i).size();
+	    }
+	    return count;
+	}
+
+	/**
+	 * Returns the number of changes in the net deltas that the log of this history has cached.  The log is shared
+	 * with the histories that were cropped from or appended to this history.
+	 * 
+	 * @return the number of cached changes
+	 */
+	public int getCachedChangeCount() {
+	    return log.getCachedChangeCount();
 	}
 
 	@Override
 	public ChangeMetaData getMetaData(OntologyDocumentRevision revision) {
-		return metaDataMap.get(revision);
+	    int index = revision.getRevisionDifferenceFrom(startRevision);
+	    if (index < 0 || index >= size) {
+	        return null;
+	    }
+		return log.getMetaData(first + index);
 	}
 	
 	@Override
@@ -102,22 +162,10 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 		if (start.equals(getStartRevision()) && end.equals(getEndRevision())) {
 		    return this;
 		}
-		List<List<OWLOntologyChange>> subChanges = listOfRevisionChanges.subList(start.getRevisionDifferenceFrom(startRevision), end.getRevisionDifferenceFrom(startRevision));
-		SortedMap<OntologyDocumentRevision, ChangeMetaData> subMetaDataMap = cropMap(metaDataMap, start, end);
-		return new ChangeHistoryImpl(start, documentFactory, subChanges, subMetaDataMap);
-	}
-	
-	private <X extends Comparable<X>, Y> SortedMap<X, Y> cropMap(SortedMap<X,Y> map, X start, X end) {
-	    if (map.isEmpty()) {
-	        return new TreeMap<X,Y>();
-	    }
-	    if (start.compareTo(map.lastKey()) > 0) {
-	        return new TreeMap<X,Y>();
-	    }
-	    if (end.compareTo(map.firstKey()) < 0) {
-	        return new TreeMap<X,Y>();
-	    }
-	    return map.tailMap(start).headMap(end);
+		if (end.compareTo(start) < 0) {
+		    end = start;
+		}
+		return new ChangeHistoryImpl(start, documentFactory, log, first + start.getRevisionDifferenceFrom(startRevision), end.getRevisionDifferenceFrom(start));
 	}
 	
 	@Override
@@ -128,35 +176,59 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 		if (additionalChanges.getStartRevision().compareTo(getEndRevision()) > 0) {
 			throw new IllegalArgumentException("Changes could not be merged because there was a gap in the change histories");
 		}
-		OWLOntology fakeOntology;
+		final OWLOntology placeholder = getPlaceholderOntology();
+		final List<List<OWLOntologyChange>> newChanges = new ArrayList<List<OWLOntologyChange>>();
+		final List<ChangeMetaData> newMetaData = new ArrayList<ChangeMetaData>();
 		try {
-			fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
+		    additionalChanges.forEachRevision(getEndRevision(), additionalChanges.getEndRevision(), new RevisionVisitor() {
+		        @Override
+		        public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) {
+		            newMetaData.add(metaData);
+		            newChanges.add(ReplaceChangedOntologyVisitor.mutate(placeholder, ChangeUtilities.normalizeChangeDelta(changes)));
+		        }
+		    });
 		}
-		catch (OWLOntologyCreationException e) {
-			throw new RuntimeException("This really shouldn't happen!", e);
+		catch (IOException ioe) {
+		    throw new RuntimeIOException(ioe);
 		}
-		ChangeHistoryImpl newDoc = new ChangeHistoryImpl(startRevision, documentFactory);
-		newDoc.listOfRevisionChanges = new ArrayList<List<OWLOntologyChange>>(listOfRevisionChanges);
-		newDoc.metaDataMap = new TreeMap<OntologyDocumentRevision, ChangeMetaData>(metaDataMap);
-		for (OntologyDocumentRevision revision = newDoc.getEndRevision();
-		        additionalChanges.getEndRevision().compareTo(revision) > 0;
-		        revision = revision.next()) {
-		    newDoc.metaDataMap.put(revision, additionalChanges.getMetaData(revision));
-		    newDoc.listOfRevisionChanges.add(additionalChanges.cropChanges(revision, revision.next()).getChanges(fakeOntology));
-		}
-		return newDoc;
+		RevisionLog newLog = log.append(first, first + size, newChanges, newMetaData);
+		return new ChangeHistoryImpl(startRevision, documentFactory, newLog, newLog == log ? first : 0, size + newChanges.size());
+	}
+	
+	/*
+	 * The ontology that the changes of appended revisions refer to.  The changes are always mutated to the caller's
+	 * ontology when they are retrieved so a single ontology serves all the histories.
+	 */
+	private static synchronized OWLOntology getPlaceholderOntology() {
+	    if (placeholderOntology == null) {
+	        try {
+	            placeholderOntology = OWLManager.createOWLOntologyManager().createOntology();
+	        }
+	        catch (OWLOntologyCreationException e) {
+	            throw new RuntimeException("This really shouldn't happen!", e);
+	        }
+	    }
+	    return placeholderOntology;
 	}
 
 
 	@Override
 	public List<OWLOntologyChange> getChanges(OWLOntology ontology) {
-	    List<OWLOntologyChange> filteredChanges = new ArrayList<OWLOntologyChange>();
-	    OntologyDocumentRevision revision = startRevision;
-	    for (List<OWLOntologyChange> change : listOfRevisionChanges) {
-	        filteredChanges.addAll(change);
-	        revision = revision.next();
+	    return ReplaceChangedOntologyVisitor.mutate(ontology, log.getNormalizedChanges(first, first + size));
+	}
+	
+	@Override
+	public void forEachRevision(OntologyDocumentRevision start, OntologyDocumentRevision end, RevisionVisitor visitor) throws IOException {
+	    if (start == null || start.compareTo(getStartRevision()) < 0) {
+	        start = getStartRevision();
+	    }
+	    if (end == null || end.compareTo(getEndRevision()) > 0) {
+	        end = getEndRevision();
+	    }
+	    for (OntologyDocumentRevision revision = start; revision.compareTo(end) < 0; revision = revision.next()) {
+	        int index = first + revision.getRevisionDifferenceFrom(startRevision);
+	        visitor.visit(revision, log.getMetaData(index), Collections.unmodifiableList(log.getChanges(index)));
 	    }
-	    return ReplaceChangedOntologyVisitor.mutate(ontology, ChangeUtilities.normalizeChangeDelta(filteredChanges));
 	}
 	
 	@Override
@@ -169,13 +241,20 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 		else {
 			oos = new ObjectOutputStream(out);
 		}
+		SortedMap<OntologyDocumentRevision, ChangeMetaData> metaDataMap = new TreeMap<OntologyDocumentRevision, ChangeMetaData>();
+		OntologyDocumentRevision revision = startRevision;
+		for (int i = first; i < first + size; i++, revision = revision.next()) {
+		    if (log.getMetaData(i) != null) {
+		        metaDataMap.put(revision, log.getMetaData(i));
+		    }
+		}
 		oos.writeObject(startRevision);
-		oos.writeObject(metaDataMap);
-		oos.writeInt(listOfRevisionChanges.size());
+		oos.writeObject(ChangeMetaDataBlock.write(metaDataMap));
+		oos.writeInt(size);
 		OWLOutputStream owlstream = new OWLOutputStream(oos);
 		owlstream.setCompressionLimit(compressionLimit);
-		for (List<OWLOntologyChange> changeSet : listOfRevisionChanges) {
-		    owlstream.writeWithCompression(changeSet);
+		for (int i = first; i < first + size; i++) {
+		    owlstream.writeWithCompression(log.getChanges(i));
 		}
 		oos.flush();
 		logLongWrite(System.currentTimeMillis() - startTime);
@@ -183,10 +262,7 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 	
 	private void logLongWrite(long interval) {
 	    if (interval > 1000) {
-	        int totalChanges = 0;
-	        for (List<OWLOntologyChange> changeList : listOfRevisionChanges) {
-	            totalChanges += changeList.size();
-	        }
+	        int totalChanges = getChangeCount();
 	        logger.info("Write of change history (" + totalChanges + " changes) took " + (interval/1000) + " seconds (compression limit = " + compressionLimit + ").");
 	    }
 	}
@@ -200,8 +276,9 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
 	    documentFactory = (DocumentFactory) in.readObject();
 	    ChangeHistoryImpl doc = (ChangeHistoryImpl) documentFactory.readChangeDocument(in, null, null);
 	    startRevision = doc.getStartRevision();
-	    listOfRevisionChanges = doc.listOfRevisionChanges;
-	    metaDataMap = doc.metaDataMap;
+	    log = doc.log;
+	    first = doc.first;
+	    size = doc.size;
 	}
 	
 	@Override
@@ -256,7 +333,8 @@ public class ChangeHistoryImpl implements ChangeHistory, Serializable {
         sb.append(" --> ");
         sb.append(getEndRevision());
         sb.append(": ");
-        for (List<OWLOntologyChange> changesAtRevision : listOfRevisionChanges) {
+        for (int i = first; i < first + size; i++) {
+            List<OWLOntologyChange> changesAtRevision = log.getChanges(i);
             sb.append("[");
             boolean firstTime = true;
             for (OWLOntologyChange particularChangeAtRevision : changesAtRevision) {
@@ -0,0 +1,239 @@
+package org.protege.owl.server.changes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.protege.owl.server.api.OntologyDocumentRevision;
+
+/**
+ * The index of the revision records in a history file.
+ * <p>
+ * The index is kept in a sidecar file next to the history file.  It starts with a header (magic number, format version and
+ * start revision) followed by a fixed size entry (offset and length) for each revision record in the history file.  The
+ * index is only a cache: it is written after the records that it describes and it is rebuilt from the length prefixes of the
+ * records whenever it is missing or does not match the history file.
+ *
+ * @author tredmond
+ */
+class ChangeHistoryIndex {
+    public static final String INDEX_EXTENSION = ".index";
+    public static final int MAGIC   = 0x4F574C49; // OWLI
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE  = 12;
+
+    private OntologyDocumentRevision startRevision;
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private int size;
+    private long end;
+
+    public ChangeHistoryIndex(OntologyDocumentRevision startRevision, long firstRecordOffset) {
+        this.startRevision = startRevision;
+        this.end = firstRecordOffset;
+    }
+
+    public static File getIndexFile(File historyFile) {
+        return new File(historyFile.getAbsolutePath() + INDEX_EXTENSION);
+    }
+
+    public OntologyDocumentRevision getStartRevision() {
+        return startRevision;
+    }
+
+    public OntologyDocumentRevision getEndRevision() {
+        return startRevision.add(size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the offset in the history file just past the last indexed record.
+     *
+     * @return the end of the indexed part of the history file
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getRecordOffset(OntologyDocumentRevision revision) {
+        return offsets[revision.getRevisionDifferenceFrom(startRevision)];
+    }
+
+    public int getRecordLength(OntologyDocumentRevision revision) {
+        return lengths[revision.getRevisionDifferenceFrom(startRevision)];
+    }
+
+    public void add(int recordLength) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * size);
+            lengths = Arrays.copyOf(lengths, 2 * size);
+        }
+        offsets[size] = end + 4;
+        lengths[size] = recordLength;
+        size++;
+        end += 4 + recordLength;
+    }
+
+    /**
+     * Drops the entries of the revisions from a given revision on.  This is used when the records of these revisions
+     * are found to be damaged.
+     *
+     * @param revision the first revision that is dropped
+     */
+    public void truncate(OntologyDocumentRevision revision) {
+        int newSize = revision.getRevisionDifferenceFrom(startRevision);
+        if (newSize < size) {
+            end = offsets[newSize] - 4;
+            size = newSize;
+        }
+    }
+
+    /**
+     * Indexes the complete records that follow the indexed part of the history file.  Only the length prefixes
+     * of the records are read.
+     *
+     * @param history the history file opened for reading
+     * @return true if the records found extend to the end of the file
+     * @throws IOException if the history file could not be read
+     */
+    public boolean scan(RandomAccessFile history) throws IOException {
+        long fileLength = history.length();
+        while (fileLength - end >= 4) {
+            history.seek(end);
+            int recordLength = history.readInt();
+            if (recordLength < 0 || fileLength - end - 4 < recordLength) {
+                break;
+            }
+            add(recordLength);
+        }
+        return end == fileLength;
+    }
+
+    /**
+     * Returns the end revision recorded in an index file without checking the entries against the history file.  This
+     * still works when the header of the history file can no longer be read.
+     *
+     * @param indexFile the index file
+     * @return the end revision or null if the index file is missing or is not an index
+     */
+    public static OntologyDocumentRevision readEndRevision(File indexFile) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                long entries = (indexFile.length() - HEADER_SIZE) / ENTRY_SIZE;
+                if (entries < 0 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                return new OntologyDocumentRevision(in.readInt()).add((int) entries);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads an index from disk.
+     *
+     * @param indexFile the sidecar file
+     * @param firstRecordOffset the offset of the first record in the history file
+     * @return the index or null if the index file does not exist or is not readable
+     */
+    public static ChangeHistoryIndex read(File indexFile, long firstRecordOffset) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                long entries = (indexFile.length() - HEADER_SIZE) / ENTRY_SIZE;
+                if (entries < 0 || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                ChangeHistoryIndex index = new ChangeHistoryIndex(new OntologyDocumentRevision(in.readInt()), firstRecordOffset);
+                for (long i = 0; i < entries; i++) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset != index.end + 4 || length < 0) {
+                        return null;
+                    }
+                    index.add(length);
+                }
+                return index;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    public void write(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(startRevision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION));
+            writeEntries(out, 0);
+        }
+        finally {
+            out.flush();
+            out.close();
+        }
+    }
+
+    /**
+     * Adds the entries starting from a given revision to the end of the index file.  The index file is rewritten
+     * if it does not contain exactly the entries before that revision.
+     *
+     * @param indexFile the sidecar file
+     * @param from the first revision that is missing from the index file
+     * @throws IOException if the index could not be written
+     */
+    public void append(File indexFile, OntologyDocumentRevision from) throws IOException {
+        int first = from.getRevisionDifferenceFrom(startRevision);
+        if (indexFile.length() != HEADER_SIZE + (long) first * ENTRY_SIZE) {
+            write(indexFile);
+            return;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        try {
+            writeEntries(out, first);
+        }
+        finally {
+            out.flush();
+            out.close();
+        }
+    }
+
+    public boolean isSavedIn(File indexFile) {
+        return indexFile.length() == HEADER_SIZE + (long) size * ENTRY_SIZE;
+    }
+
+    private void writeEntries(DataOutputStream out, int first) throws IOException {
+        for (int i = first; i < size; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+        }
+    }
+}
@@ -35,6 +35,9 @@ public class ChangeHistoryUtilities {
 	}
 	
 	public static ChangeHistory readChanges(DocumentFactory factory, File historyFile, OntologyDocumentRevision start, OntologyDocumentRevision end) throws IOException {
+		if (historyFile.length() > 0 && !ChangeHistoryFile.isLegacyFormat(historyFile)) {
+			return new ChangeHistoryFile(factory, historyFile).read(start, end);
+		}
 		InputStream fis = new BufferedInputStream(new FileInputStream(historyFile));
 		try {
 			return factory.readChangeDocument(fis, start, end);
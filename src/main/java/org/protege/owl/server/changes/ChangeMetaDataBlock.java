@@ -0,0 +1,150 @@
+package org.protege.owl.server.changes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.UserId;
+
+/**
+ * The metadata of the revisions of a change document encoded as a block of columns.
+ * <p>
+ * The block starts with its version and the number of revisions n, followed by the columns:
+ * <pre>
+ *   int[n]     revision
+ *   long[n]    commit date in epoch milliseconds or Long.MIN_VALUE
+ *   int        number of distinct user ids u
+ *   string[u]  user ids
+ *   int[n]     index of the user id or -1
+ *   int[n]     length of the commit comment in bytes or -1
+ *   byte[]     the commit comments one after the other
+ * </pre>
+ * Strings are UTF-8 with an int length in front.  The fixed width columns let a reader find the revisions and the
+ * dates without decoding the comments, and the block does not depend on the change data that follows it in a
+ * change document so it can be read on its own.
+ *
+ * @author tredmond
+ */
+final class ChangeMetaDataBlock {
+    public static final int VERSION = 1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private ChangeMetaDataBlock() {
+    }
+
+    public static byte[] write(SortedMap<OntologyDocumentRevision, ChangeMetaData> metaDataMap) throws IOException {
+        int count = metaDataMap.size();
+        List<ChangeMetaData> metaData = new ArrayList<ChangeMetaData>(metaDataMap.values());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 24 * count);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        for (OntologyDocumentRevision revision : metaDataMap.keySet()) {
+            out.writeInt(revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION));
+        }
+        for (ChangeMetaData m : metaData) {
+            out.writeLong(m.getDate() == null ? NO_DATE : m.getDate().getTime());
+        }
+        Map<UserId, Integer> userIndex = new HashMap<UserId, Integer>();
+        List<UserId> users = new ArrayList<UserId>();
+        int[] userColumn = new int[count];
+        for (int i = 0; i < count; i++) {
+            UserId user = metaData.get(i).getUserId();
+            if (user == null) {
+                userColumn[i] = -1;
+                continue;
+            }
+            Integer index = userIndex.get(user);
+            if (index == null) {
+                index = users.size();
+                userIndex.put(user, index);
+                users.add(user);
+            }
+            userColumn[i] = index;
+        }
+        out.writeInt(users.size());
+        for (UserId user : users) {
+            byte[] name = user.getUserName().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(name.length);
+            out.write(name);
+        }
+        for (int index : userColumn) {
+            out.writeInt(index);
+        }
+        byte[][] comments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            String comment = metaData.get(i).getCommitComment();
+            comments[i] = comment == null ? null : comment.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(comments[i] == null ? -1 : comments[i].length);
+        }
+        for (byte[] comment : comments) {
+            if (comment != null) {
+                out.write(comment);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static SortedMap<OntologyDocumentRevision, ChangeMetaData> read(byte[] block) throws IOException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(block);
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of the revision metadata");
+            }
+            int count = in.getInt();
+            if (count < 0 || count > in.remaining() / 20) {
+                throw new IOException("Corrupt revision metadata: " + count + " revisions in " + block.length + " bytes");
+            }
+            int[] revisions = new int[count];
+            for (int i = 0; i < count; i++) {
+                revisions[i] = in.getInt();
+            }
+            long[] dates = new long[count];
+            for (int i = 0; i < count; i++) {
+                dates[i] = in.getLong();
+            }
+            UserId[] users = new UserId[in.getInt()];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = new UserId(readString(in, in.getInt()));
+            }
+            int[] userColumn = new int[count];
+            for (int i = 0; i < count; i++) {
+                userColumn[i] = in.getInt();
+            }
+            int[] commentLengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                commentLengths[i] = in.getInt();
+            }
+            SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = new TreeMap<OntologyDocumentRevision, ChangeMetaData>();
+            for (int i = 0; i < count; i++) {
+                Date date = dates[i] == NO_DATE ? null : new Date(dates[i]);
+                String comment = commentLengths[i] < 0 ? null : readString(in, commentLengths[i]);
+                UserId user = userColumn[i] < 0 ? null : users[userColumn[i]];
+                metaData.put(new OntologyDocumentRevision(revisions[i]), new ChangeMetaData(date, comment, user));
+            }
+            return metaData;
+        }
+        catch (RuntimeException re) {
+            throw new IOException("Corrupt revision metadata", re);
+        }
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,145 @@
+package org.protege.owl.server.changes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Builds the preset dictionary that the records of a history file are compressed with.
+ * <p>
+ * Each record is compressed on its own so that it can be decoded without the records that precede it.  Without a
+ * dictionary every record has to spell out the namespaces, the local names of the common entities and the common
+ * literals again before the compressor can refer back to them, which is most of a small record.  The dictionary holds
+ * the strings that occur most often in the recent revisions of the document, exactly as the change format writes them,
+ * so that the first occurrence of such a string in a record is already a back reference.
+ * <p>
+ * The strings are ranked by the number of bytes they could save, and the best ones are placed at the end of the
+ * dictionary where the back references to them are shortest.
+ *
+ * @author tredmond
+ */
+final class CompressionDictionary {
+    /**
+     * The size of the deflate window; bytes of the dictionary before the last 32K can never be referenced.
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+    /**
+     * The number of revisions at the end of the history that the strings are counted in.  Later commits are likely
+     * to look like the recent ones.
+     */
+    public static final int SAMPLE_REVISIONS = 1000;
+
+    private CompressionDictionary() {
+    }
+
+    public static byte[] build(ChangeHistory changes) throws IOException {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        OntologyDocumentRevision start = changes.getEndRevision().add(-SAMPLE_REVISIONS);
+        if (start.compareTo(changes.getStartRevision()) < 0) {
+            start = changes.getStartRevision();
+        }
+        changes.forEachRevision(start, changes.getEndRevision(), new RevisionVisitor() {
+            @Override
+            public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> revisionChanges) {
+                for (OWLOntologyChange change : revisionChanges) {
+                    if (change.isAxiomChange()) {
+                        count(counts, change.getAxiom());
+                    }
+                }
+            }
+        });
+        List<Entry<String, Integer>> ranked = new ArrayList<Entry<String, Integer>>();
+        for (Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) {
+                ranked.add(entry);
+            }
+        }
+        Collections.sort(ranked, new Comparator<Entry<String, Integer>>() {
+            @Override
+            public int compare(Entry<String, Integer> e1, Entry<String, Integer> e2) {
+                return Long.compare(getSavings(e2), getSavings(e1));
+            }
+        });
+        List<byte[]> selected = new ArrayList<byte[]>();
+        int size = 0;
+        for (Entry<String, Integer> entry : ranked) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_SIZE) {
+                continue;
+            }
+            selected.add(bytes);
+            size += bytes.length;
+        }
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] bytes : selected) {
+            position -= bytes.length;
+            System.arraycopy(bytes, 0, dictionary, position, bytes.length);
+        }
+        return dictionary;
+    }
+
+    private static long getSavings(Entry<String, Integer> entry) {
+        return (long) entry.getKey().length() * entry.getValue();
+    }
+
+    private static void count(Map<String, Integer> counts, OWLAxiom axiom) {
+        for (OWLEntity entity : axiom.getSignature()) {
+            count(counts, entity.getIRI());
+        }
+        if (axiom instanceof OWLAnnotationAssertionAxiom) {
+            OWLAnnotationAssertionAxiom assertion = (OWLAnnotationAssertionAxiom) axiom;
+            if (assertion.getSubject() instanceof IRI) {
+                count(counts, (IRI) assertion.getSubject());
+            }
+            count(counts, assertion.getAnnotation());
+        }
+        for (OWLAnnotation annotation : axiom.getAnnotations()) {
+            count(counts, annotation);
+        }
+    }
+
+    private static void count(Map<String, Integer> counts, OWLAnnotation annotation) {
+        if (annotation.getValue() instanceof OWLLiteral) {
+            count(counts, ((OWLLiteral) annotation.getValue()).getLiteral());
+        }
+        else if (annotation.getValue() instanceof IRI) {
+            count(counts, (IRI) annotation.getValue());
+        }
+    }
+
+    /*
+     * The change format writes the namespace and the remainder of an IRI as separate strings.
+     */
+    private static void count(Map<String, Integer> counts, IRI iri) {
+        String namespace = iri.getNamespace();
+        count(counts, namespace);
+        count(counts, iri.toString().substring(namespace.length()));
+    }
+
+    private static void count(Map<String, Integer> counts, String s) {
+        if (s.length() < 3) {
+            return;
+        }
+        Integer count = counts.get(s);
+        counts.put(s, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,40 @@
+package org.protege.owl.server.changes;
+
+import java.io.IOException;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+
+/**
+ * Thrown when a record of a history file is damaged.  The revisions before the damaged record were read successfully
+ * and are available from this exception so that only the revisions from the damaged record on need to be recovered.
+ *
+ * @author tredmond
+ */
+public class DamagedHistoryException extends IOException {
+    private static final long serialVersionUID = -3719035871276315641L;
+    private transient ChangeHistory validHistory;
+
+    public DamagedHistoryException(String message, ChangeHistory validHistory, Throwable cause) {
+        super(message, cause);
+        this.validHistory = validHistory;
+    }
+
+    /**
+     * Returns the revisions of the history file that precede the damaged record.
+     *
+     * @return the valid prefix of the history
+     */
+    public ChangeHistory getValidHistory() {
+        return validHistory;
+    }
+
+    /**
+     * Returns the revision of the first damaged record.
+     *
+     * @return the first revision that could not be read
+     */
+    public OntologyDocumentRevision getDamagedRevision() {
+        return validHistory.getEndRevision();
+    }
+}
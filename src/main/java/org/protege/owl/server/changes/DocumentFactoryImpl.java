@@ -7,7 +7,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
 import org.slf4j.Logger;
@@ -17,6 +16,8 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
+import org.protege.owl.server.api.RevisionVisitor;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.client.RemoteOntologyDocument;
 import org.protege.owl.server.api.client.VersionedOntologyDocument;
@@ -53,6 +54,15 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 		return new VersionedOntologyDocumentImpl(ontology, serverDocument, revision, localChanges);
 	}
 	
+	@Override
+	public VersionedOntologyDocument createVersionedOntology(OWLOntology ontology,
+	                                                    RemoteOntologyDocument serverDocument,
+	                                                    OntologyDocumentRevision revision,
+	                                                    OntologySnapshot baseSnapshot) {
+	    ChangeHistory localChanges = createEmptyChangeDocument(baseSnapshot.getRevision());
+	    return new VersionedOntologyDocumentImpl(ontology, serverDocument, revision, localChanges, baseSnapshot);
+	}
+	
 	@Override
 	public boolean hasServerMetadata(OWLOntology ontology) {
 		File ontologyFile = VersionedOntologyDocumentImpl.getBackingStore(ontology);
@@ -105,19 +115,24 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 	        File ontologyFile = VersionedOntologyDocumentImpl.getBackingStore(ontology);
 	        File metaDataFile = VersionedOntologyDocumentImpl.getMetaDataFile(ontologyFile);
 	        File historyFile  = VersionedOntologyDocumentImpl.getHistoryFile(ontologyFile);
+	        File snapshotFile = VersionedOntologyDocumentImpl.getSnapshotFile(ontologyFile);
 	        
 	        ois = new ObjectInputStream(new FileInputStream(metaDataFile));
 	        
 	        RemoteOntologyDocument serverDocument = (RemoteOntologyDocument) ois.readObject();
 	        OntologyDocumentRevision revision = (OntologyDocumentRevision) ois.readObject();
 	        ChangeHistory localChanges;
+	        OntologySnapshot baseSnapshot = null;
 	        if (historyFile.exists()) {
 	            localChanges = new BackgroundLoadChangeHistory(this, historyFile);
+	            if (snapshotFile.exists()) {
+	                baseSnapshot = OntologySnapshotImpl.read(snapshotFile);
+	            }
 	        }
 	        else {
 	            localChanges = createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
 	        }
-	        return new VersionedOntologyDocumentImpl(ontology, serverDocument, revision, localChanges);
+	        return new VersionedOntologyDocumentImpl(ontology, serverDocument, revision, localChanges, baseSnapshot);
 	    }
 	    catch (ClassNotFoundException cnfe) {
 	        throw new IOException("Class Loader issues when hydrating ontology history document", cnfe);
@@ -132,6 +147,21 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 	@Override
 	public ChangeHistory readChangeDocument(InputStream in,
 											 OntologyDocumentRevision start, OntologyDocumentRevision end) throws IOException {
+	    RevisionCollector collector = new RevisionCollector();
+	    start = readRevisions(in, start, end, collector);
+	    return collector.toChangeHistory(start, this);
+	}
+	
+	@Override
+	public void readChangeDocument(InputStream in,
+	                               OntologyDocumentRevision start, OntologyDocumentRevision end,
+	                               RevisionVisitor visitor) throws IOException {
+	    readRevisions(in, start, end, visitor);
+	}
+	
+	private OntologyDocumentRevision readRevisions(InputStream in,
+	                                               OntologyDocumentRevision start, OntologyDocumentRevision end,
+	                                               RevisionVisitor visitor) throws IOException {
         ObjectInputStream ois;
         long startTime = System.currentTimeMillis();
 	    try {
@@ -141,7 +171,7 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 			else {
 				ois = new ObjectInputStream(in);
 			}
-			return readChangeDocument(ois, start, end);
+			return readRevisions(ois, start, end, visitor);
 		}
 		catch (IOException ioe) {
 			logger.warn("Exception caught deserializing change document", ioe);
@@ -160,16 +190,19 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 	    }
 	}
 	
+	/*
+	 * Every revision is decoded so that the stream is left at the end of the change document but only the revisions
+	 * in the requested range are passed to the visitor.
+	 */
 	@SuppressWarnings("deprecation")
-	private ChangeHistory readChangeDocument(ObjectInputStream ois,
-	                                         OntologyDocumentRevision start, OntologyDocumentRevision end) throws IOException, ClassNotFoundException  {
+	private OntologyDocumentRevision readRevisions(ObjectInputStream ois,
+	                                               OntologyDocumentRevision start, OntologyDocumentRevision end,
+	                                               RevisionVisitor visitor) throws IOException, ClassNotFoundException  {
 	    OntologyDocumentRevision startRevision = (OntologyDocumentRevision) ois.readObject();
 	    if (start == null) {
 	        start = startRevision;
 	    }
-	    @SuppressWarnings("unchecked")
-	    SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = (SortedMap<OntologyDocumentRevision, ChangeMetaData>) ois.readObject();
-	    List<List<OWLOntologyChange>> changes = new ArrayList<List<OWLOntologyChange>>();
+	    SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = readMetaData(ois);
 	    OWLInputStream owlStream = new OWLInputStream(ois);
 	    int count = ois.readInt();
 	    OntologyDocumentRevision revision = startRevision;
@@ -177,16 +210,42 @@ public class DocumentFactoryImpl implements DocumentFactory, Serializable {
 	        @SuppressWarnings("unchecked")
 	        List<OWLOntologyChange> changeList = (List<OWLOntologyChange>) owlStream.read();
 	        if (revision.compareTo(start) >= 0 && (end == null || revision.compareTo(end) < 0)) {
-	            changes.add(changeList);
+	            visitor.visit(revision, metaData.get(revision), changeList);
 	        }
 	    }
-	    if (end == null) {
-	        end = start.add(changes.size());
+	    return start;
+	}
+	
+	/**
+	 * Reads the metadata of the revisions of a change document without decoding the changes.  The stream is left
+	 * at the start of the change data.
+	 * 
+	 * @param in the input stream positioned at the start of a change document
+	 * @return the metadata of the revisions of the change document
+	 * @throws IOException if the change document cannot be read
+	 */
+	public SortedMap<OntologyDocumentRevision, ChangeMetaData> readChangeMetaData(InputStream in) throws IOException {
+	    ObjectInputStream ois = in instanceof ObjectInputStream ? (ObjectInputStream) in : new ObjectInputStream(in);
+	    try {
+	        ois.readObject();
+	        return readMetaData(ois);
 	    }
-	    if (!metaData.isEmpty()) {
-	        metaData = metaData.tailMap(start).headMap(end);
+	    catch (ClassNotFoundException cnfe) {
+	        throw new IOException(cnfe);
 	    }
-	    return new ChangeHistoryImpl(start, this, changes, metaData); 
+	}
+	
+	/*
+	 * Change documents written before the metadata had its own encoding contain a serialized sorted map.
+	 */
+	private SortedMap<OntologyDocumentRevision, ChangeMetaData> readMetaData(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+	    Object metaData = ois.readObject();
+	    if (metaData instanceof byte[]) {
+	        return ChangeMetaDataBlock.read((byte[]) metaData);
+	    }
+	    @SuppressWarnings("unchecked")
+	    SortedMap<OntologyDocumentRevision, ChangeMetaData> legacyMetaData = (SortedMap<OntologyDocumentRevision, ChangeMetaData>) metaData;
+	    return legacyMetaData;
 	}
 	
 	private void logLongRead(long interval) {
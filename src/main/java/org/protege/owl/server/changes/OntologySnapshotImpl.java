@@ -0,0 +1,181 @@
+package org.protege.owl.server.changes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
+import org.protege.owl.server.changes.format.OWLInputStream;
+import org.protege.owl.server.changes.format.OWLOutputStream;
+import org.protege.owl.server.util.ChangeUtilities;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.SetOntologyID;
+
+/**
+ * A snapshot of an ontology document.  On disk a snapshot is a short header (magic number, format version and revision)
+ * followed by the contents of the ontology in the binary OWL format.  The contents are the changes that add the ontology id,
+ * imports, ontology annotations and axioms of the ontology at the revision of the snapshot to an empty ontology.  Removals
+ * that are left over from normalizing the history are not kept.
+ *
+ * @author tredmond
+ */
+public class OntologySnapshotImpl implements OntologySnapshot, Serializable {
+    private static final long serialVersionUID = 2207546466155458432L;
+    public static final int MAGIC   = 0x4F574C53; // OWLS
+    public static final int VERSION = 1;
+
+    private transient int compressionLimit = -1;
+    private transient OntologyDocumentRevision revision;
+    private transient List<OWLOntologyChange> changes;
+
+    public OntologySnapshotImpl(OntologyDocumentRevision revision, List<OWLOntologyChange> changes) {
+        this.revision = revision;
+        this.changes = changes;
+    }
+
+    /**
+     * Returns the snapshot of the empty ontology at the start revision.  This is the snapshot that is used
+     * when there is no saved snapshot before a revision.
+     *
+     * @return the empty snapshot
+     */
+    public static OntologySnapshotImpl createEmptySnapshot() {
+        return new OntologySnapshotImpl(OntologyDocumentRevision.START_REVISION, Collections.<OWLOntologyChange>emptyList());
+    }
+
+    /**
+     * Creates the snapshot at the end of a change history from an earlier snapshot.
+     *
+     * @param base the earlier snapshot
+     * @param changes the changes from the revision of the earlier snapshot
+     * @return the snapshot at the end revision of the changes
+     */
+    public static OntologySnapshotImpl createSnapshot(OntologySnapshot base, ChangeHistory changes) {
+        if (!base.getRevision().equals(changes.getStartRevision())) {
+            throw new IllegalArgumentException("Changes starting at " + changes.getStartRevision() + " don't follow the snapshot at " + base.getRevision());
+        }
+        OWLOntology fakeOntology = createFakeOntology();
+        List<OWLOntologyChange> allChanges = new ArrayList<OWLOntologyChange>(base.getChanges(fakeOntology));
+        allChanges.addAll(changes.getChanges(fakeOntology));
+        return new OntologySnapshotImpl(changes.getEndRevision(), materialize(ChangeUtilities.normalizeChangeDelta(allChanges)));
+    }
+
+    /*
+     * The normalized history keeps the last change of each axiom, import and annotation, which is a removal for the ones
+     * that were added and later removed.  These are not part of the ontology.
+     */
+    private static List<OWLOntologyChange> materialize(List<OWLOntologyChange> normalizedChanges) {
+        List<OWLOntologyChange> contents = new ArrayList<OWLOntologyChange>(normalizedChanges.size());
+        for (OWLOntologyChange change : normalizedChanges) {
+            if (change instanceof AddAxiom || change instanceof AddImport
+                    || change instanceof AddOntologyAnnotation || change instanceof SetOntologyID) {
+                contents.add(change);
+            }
+        }
+        return contents;
+    }
+
+    @Override
+    public OntologyDocumentRevision getRevision() {
+        return revision;
+    }
+
+    @Override
+    public List<OWLOntologyChange> getChanges(OWLOntology ontology) {
+        return ReplaceChangedOntologyVisitor.mutate(ontology, changes);
+    }
+
+    @Override
+    public void setCompressionLimit(int compressionLimit) {
+        this.compressionLimit = compressionLimit;
+    }
+
+    public static OntologySnapshot read(File snapshotFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unrecognized snapshot format for " + snapshotFile);
+            }
+            OntologyDocumentRevision revision = new OntologyDocumentRevision(in.readInt());
+            return new OntologySnapshotImpl(revision, materialize(readChanges(in)));
+        }
+        catch (RuntimeException re) {
+            throw new IOException("Corrupt snapshot " + snapshotFile, re);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public void write(File snapshotFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION));
+            writeChanges(out);
+        }
+        finally {
+            out.flush();
+            out.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writeChanges(OutputStream out) throws IOException {
+        OWLOutputStream owlStream = new OWLOutputStream(out);
+        owlStream.setCompressionLimit(compressionLimit);
+        owlStream.writeWithCompression(changes);
+    }
+
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    private static List<OWLOntologyChange> readChanges(InputStream in) throws IOException {
+        return (List<OWLOntologyChange>) new OWLInputStream(in).read();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeObject(revision);
+        writeChanges(out);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        revision = (OntologyDocumentRevision) in.readObject();
+        changes = readChanges(in);
+        compressionLimit = -1;
+    }
+
+    private static OWLOntology createFakeOntology() {
+        try {
+            return OWLManager.createOWLOntologyManager().createOntology();
+        }
+        catch (OWLOntologyCreationException e) {
+            throw new RuntimeException("This really shouldn't happen!", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[Snapshot at " + revision + " with " + changes.size() + " changes]";
+    }
+}
@@ -0,0 +1,49 @@
+package org.protege.owl.server.changes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Collects the revisions that it visits into an in memory change history.
+ * 
+ * @author tredmond
+ */
+class RevisionCollector implements RevisionVisitor {
+    private List<List<OWLOntologyChange>> changes = new ArrayList<List<OWLOntologyChange>>();
+    private SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = new TreeMap<OntologyDocumentRevision, ChangeMetaData>();
+
+    @Override
+    public void visit(OntologyDocumentRevision revision, ChangeMetaData revisionMetaData, List<OWLOntologyChange> revisionChanges) {
+        if (revisionMetaData != null) {
+            metaData.put(revision, revisionMetaData);
+        }
+        changes.add(revisionChanges);
+    }
+
+    /**
+     * Adds the revisions collected by another collector.  The revisions of the other collector must follow the
+     * revisions of this collector.
+     *
+     * @param other the other collector
+     */
+    public void addAll(RevisionCollector other) {
+        changes.addAll(other.changes);
+        metaData.putAll(other.metaData);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public ChangeHistoryImpl toChangeHistory(OntologyDocumentRevision start, DocumentFactory factory) {
+        return new ChangeHistoryImpl(start, factory, changes, metaData);
+    }
+}
@@ -0,0 +1,185 @@
+package org.protege.owl.server.changes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.util.ChangeUtilities;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * The revisions of a family of change histories, held in fixed size chunks that are indexed by position.
+ * <p>
+ * A change history is a window on a log.  Cropping a history makes a smaller window on the same log and appending to
+ * a history whose window ends at the end of the log adds the new revisions to the log in place, so neither copies the
+ * revisions that are already there.  Slots of the log are never overwritten once they are filled, so every window
+ * stays immutable.  Only appending to a history that is no longer at the end of its log, because another history
+ * was appended to it first, copies the revisions of the window into a new log.
+ * <p>
+ * Appends are serialized on the log.  A reader only looks at the slots of its own window, which were filled before
+ * the history that holds the window was created, and it sees the chunk table through a volatile field.
+ * <p>
+ * The log also caches the normalized net delta of aligned blocks of slots whose size is a power of two, starting at the
+ * size of a chunk.  The delta of a block is the normalized delta of its two halves, and the net delta of any window is
+ * assembled from the deltas of at most two blocks of each size plus the slots at either end of the window that are not
+ * covered by a whole block.  Normalization keeps the last change of each axiom, import, annotation and ontology id, so
+ * normalizing the concatenated deltas of the blocks gives the same changes as normalizing all the slots of the window.
+ * The slots of a block never change so a cached delta stays valid for every window of the log.  The cache is bounded by
+ * the total number of changes in the cached deltas and drops the least recently used deltas first, so a dropped delta
+ * is simply computed again from its halves or its slots.
+ *
+ * @author tredmond
+ */
+final class RevisionLog {
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE  = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK  = CHUNK_SIZE - 1;
+    public static final int MAX_CACHED_CHANGES = 1 << 20;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int size;
+    private final Map<Long, List<OWLOntologyChange>> blockDeltas = new LinkedHashMap<Long, List<OWLOntologyChange>>(16, 0.75f, true);
+    private volatile int cachedChangeCount;
+    private int maxCachedChanges = MAX_CACHED_CHANGES;
+
+    private static final class Chunk {
+        private final Object[] changes = new Object[CHUNK_SIZE];
+        private final ChangeMetaData[] metaData = new ChangeMetaData[CHUNK_SIZE];
+    }
+
+    public static RevisionLog create(List<List<OWLOntologyChange>> changes, List<ChangeMetaData> metaData) {
+        RevisionLog log = new RevisionLog();
+        for (int i = 0; i < changes.size(); i++) {
+            log.add(changes.get(i), metaData.get(i));
+        }
+        return log;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<OWLOntologyChange> getChanges(int index) {
+        return (List<OWLOntologyChange>) chunks[index >>> CHUNK_SHIFT].changes[index & CHUNK_MASK];
+    }
+
+    public ChangeMetaData getMetaData(int index) {
+        return chunks[index >>> CHUNK_SHIFT].metaData[index & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the normalized net delta of the slots [first, end).  The changes still refer to the ontologies of the
+     * stored changes.
+     *
+     * @param first the first slot
+     * @param end the slot after the last slot
+     * @return the normalized changes
+     */
+    public List<OWLOntologyChange> getNormalizedChanges(int first, int end) {
+        List<OWLOntologyChange> pieces = new ArrayList<OWLOntologyChange>();
+        int slot = first;
+        while (slot < end) {
+            int level = Math.min(Integer.numberOfTrailingZeros(slot), 30);
+            while (level >= CHUNK_SHIFT && end - slot < (1 << level)) {
+                level--;
+            }
+            if (level < CHUNK_SHIFT) {
+                pieces.addAll(getChanges(slot));
+                slot++;
+            }
+            else {
+                pieces.addAll(getBlockDelta(level, slot >>> level));
+                slot += 1 << level;
+            }
+        }
+        return ChangeUtilities.normalizeChangeDelta(pieces);
+    }
+
+    private List<OWLOntologyChange> getBlockDelta(int level, int block) {
+        Long key = ((long) level << 32) | block;
+        synchronized (blockDeltas) {
+            List<OWLOntologyChange> delta = blockDeltas.get(key);
+            if (delta != null) {
+                return delta;
+            }
+        }
+        List<OWLOntologyChange> pieces = new ArrayList<OWLOntologyChange>();
+        if (level == CHUNK_SHIFT) {
+            int first = block << level;
+            for (int slot = first; slot < first + CHUNK_SIZE; slot++) {
+                pieces.addAll(getChanges(slot));
+            }
+        }
+        else {
+            pieces.addAll(getBlockDelta(level - 1, 2 * block));
+            pieces.addAll(getBlockDelta(level - 1, 2 * block + 1));
+        }
+        List<OWLOntologyChange> delta = Collections.unmodifiableList(ChangeUtilities.normalizeChangeDelta(pieces));
+        synchronized (blockDeltas) {
+            List<OWLOntologyChange> previous = blockDeltas.put(key, delta);
+            int count = cachedChangeCount + delta.size() - (previous == null ? 0 : previous.size());
+            Iterator<List<OWLOntologyChange>> eldest = blockDeltas.values().iterator();
+            while (count > maxCachedChanges && blockDeltas.size() > 1) {
+                count -= eldest.next().size();
+                eldest.remove();
+            }
+            cachedChangeCount = count;
+        }
+        return delta;
+    }
+
+    void setMaxCachedChanges(int maxCachedChanges) {
+        synchronized (blockDeltas) {
+            this.maxCachedChanges = maxCachedChanges;
+        }
+    }
+
+    /**
+     * Returns the number of changes held in the cached block deltas of this log.
+     *
+     * @return the number of cached changes
+     */
+    public int getCachedChangeCount() {
+        return cachedChangeCount;
+    }
+
+    /**
+     * Adds revisions after the window [first, end) of this log.
+     *
+     * @param first the first slot of the window
+     * @param end the slot after the last slot of the window
+     * @param changes the changes of the new revisions
+     * @param metaData the metadata of the new revisions
+     * @return this log if the window ended at the end of this log, otherwise a new log that starts with a copy of the window
+     */
+    public synchronized RevisionLog append(int first, int end, List<List<OWLOntologyChange>> changes, List<ChangeMetaData> metaData) {
+        RevisionLog log = this;
+        if (end != size) {
+            log = new RevisionLog();
+            for (int i = first; i < end; i++) {
+                log.add(getChanges(i), getMetaData(i));
+            }
+        }
+        for (int i = 0; i < changes.size(); i++) {
+            log.add(changes.get(i), metaData.get(i));
+        }
+        return log;
+    }
+
+    private void add(List<OWLOntologyChange> revisionChanges, ChangeMetaData revisionMetaData) {
+        Chunk[] current = chunks;
+        int chunk = size >>> CHUNK_SHIFT;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, Math.max(4, 2 * current.length));
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Chunk();
+        }
+        current[chunk].changes[size & CHUNK_MASK] = revisionChanges;
+        current[chunk].metaData[size & CHUNK_MASK] = revisionMetaData;
+        size++;
+        chunks = current;
+    }
+}
@@ -5,10 +5,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.client.RemoteOntologyDocument;
 import org.protege.owl.server.api.client.VersionedOntologyDocument;
 import org.semanticweb.owlapi.model.IRI;
@@ -31,6 +31,11 @@ public class VersionedOntologyDocumentImpl implements VersionedOntologyDocument
         return new File(versionInfoDir, ontologyFile.getName() + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);	    
 	}
 
+	public static File getSnapshotFile(File ontologyFile) {
+	    File versionInfoDir = getVersionInfoDirectory(ontologyFile);
+	    return new File(versionInfoDir, ontologyFile.getName() + OntologySnapshot.SNAPSHOT_EXTENSION);
+	}
+
 	public static File getVersionInfoDirectory(File ontologyFile) {
 		File dir = ontologyFile.getParentFile();
 		return new File(dir, VERSION_DOCUMENT_DIRECTORY);
@@ -49,6 +54,7 @@ public class VersionedOntologyDocumentImpl implements VersionedOntologyDocument
 	private RemoteOntologyDocument serverDocument;
 	private OntologyDocumentRevision revision;
 	private ChangeHistory localHistory;
+	private OntologySnapshot baseSnapshot;
 	private boolean isHistoryDirty = false;
 	
 	
@@ -56,10 +62,22 @@ public class VersionedOntologyDocumentImpl implements VersionedOntologyDocument
 	                                     RemoteOntologyDocument serverDocument,
 	                                     OntologyDocumentRevision revision,
 	                                     ChangeHistory localHistory) {
-		this.ontology = ontology;
-		this.serverDocument = serverDocument;
-		this.revision = revision;
-		this.localHistory = localHistory;
+		this(ontology, serverDocument, revision, localHistory, null);
+	}
+	
+	/*
+	 * A document that was checked out from a snapshot has a local history that starts at the revision of the snapshot.
+	 */
+	public VersionedOntologyDocumentImpl(OWLOntology ontology,
+	                                     RemoteOntologyDocument serverDocument,
+	                                     OntologyDocumentRevision revision,
+	                                     ChangeHistory localHistory,
+	                                     OntologySnapshot baseSnapshot) {
+	    this.ontology = ontology;
+	    this.serverDocument = serverDocument;
+	    this.revision = revision;
+	    this.localHistory = localHistory;
+	    this.baseSnapshot = baseSnapshot;
 	}
 
 	@Override
@@ -78,6 +96,11 @@ public class VersionedOntologyDocumentImpl implements VersionedOntologyDocument
 		return localHistory;
 	}
 	
+	@Override
+	public OntologySnapshot getBaseSnapshot() {
+	    return baseSnapshot;
+	}
+	
 	@Override
 	public void appendLocalHistory(ChangeHistory changes) {
 		localHistory = localHistory.appendChanges(changes);
@@ -124,19 +147,29 @@ public class VersionedOntologyDocumentImpl implements VersionedOntologyDocument
         File historyFile = getHistoryFile(ontologyFile);
 	    if (isHistoryDirty || !historyFile.exists()) {
 	        historyFile.getParentFile().mkdirs();
-	        OutputStream os = new BufferedOutputStream(new FileOutputStream(historyFile));
-	        try {
-	            localHistory.writeChangeDocument(os);
-	        }
-	        finally {
-	            os.flush();
-	            os.close();
-	        }
+	        saveBaseSnapshot(getSnapshotFile(ontologyFile));
+	        new ChangeHistoryFile(localHistory.getDocumentFactory(), historyFile).write(localHistory);
 	        isHistoryDirty = false;
 	    }
         return true;
 	}
 
+	/*
+	 * The snapshot is saved before the history so that a saved history that does not start at revision zero always
+	 * has its snapshot next to it.
+	 */
+	private void saveBaseSnapshot(File snapshotFile) throws IOException {
+	    if (baseSnapshot == null) {
+	        snapshotFile.delete();
+	    }
+	    else if (baseSnapshot instanceof OntologySnapshotImpl) {
+	        ((OntologySnapshotImpl) baseSnapshot).write(snapshotFile);
+	    }
+	    else {
+	        new OntologySnapshotImpl(baseSnapshot.getRevision(), baseSnapshot.getChanges(ontology)).write(snapshotFile);
+	    }
+	}
+
 	@Override
 	public String toString() {
 	    return "[Document " + ontology.getOntologyID() + " from server " + serverDocument.getServerLocation() + " revision " + revision + "]";
@@ -0,0 +1,76 @@
+package org.protege.owl.server.changes.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the frames written by a {@link FrameOutputStream} one at a time from an {@link OWLInputStream}.  The stream ends
+ * at the empty frame so a reader on top of this stream can never read past the end of the framed data.
+ *
+ * @author tredmond
+ */
+class FrameInputStream extends InputStream {
+    private OWLInputStream in;
+    private InputStream frame;
+    private boolean done = false;
+
+    public FrameInputStream(OWLInputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (nextFrame()) {
+            int b = frame.read();
+            if (b >= 0) {
+                return b;
+            }
+            frame = null;
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        while (nextFrame()) {
+            int read = frame.read(bytes, offset, count);
+            if (read > 0) {
+                return read;
+            }
+            frame = null;
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return frame == null ? 0 : frame.available();
+    }
+
+    /**
+     * Skips the rest of the framed data, leaving the underlying stream just after the empty frame.
+     *
+     * @throws IOException if the frames could not be read
+     */
+    public void skipToEnd() throws IOException {
+        while (nextFrame()) {
+            frame = null;
+        }
+    }
+
+    private boolean nextFrame() throws IOException {
+        if (frame == null && !done) {
+            int length = in.readCount();
+            if (length == 0) {
+                done = true;
+            }
+            else {
+                frame = in.readBlock(length);
+            }
+        }
+        return frame != null;
+    }
+}
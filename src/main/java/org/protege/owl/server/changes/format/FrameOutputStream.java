@@ -0,0 +1,62 @@
+package org.protege.owl.server.changes.format;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Splits the bytes written to it into length prefixed frames on an {@link OWLOutputStream}.  A frame is written as soon
+ * as it is full so at most one frame is held in memory.  Closing this stream writes the last frame and an empty frame
+ * that marks the end of the data but leaves the underlying stream open.
+ *
+ * @author tredmond
+ */
+class FrameOutputStream extends OutputStream {
+    private OWLOutputStream out;
+    private byte[] frame;
+    private int length = 0;
+    private boolean closed = false;
+
+    public FrameOutputStream(OWLOutputStream out, int frameSize) {
+        this.out = out;
+        frame = new byte[frameSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == frame.length) {
+            writeFrame();
+        }
+        frame[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        while (count > 0) {
+            if (length == frame.length) {
+                writeFrame();
+            }
+            int copied = Math.min(count, frame.length - length);
+            System.arraycopy(bytes, offset, frame, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (length > 0) {
+                writeFrame();
+            }
+            out.writeCount(0);
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        out.writeCount(length);
+        out.getOutputStream().write(frame, 0, length);
+        length = 0;
+    }
+}
@@ -1,8 +1,10 @@
 package org.protege.owl.server.changes.format;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 
 
@@ -34,6 +36,13 @@ public class IOUtils {
     }
     
     public static int readInt(InputStream is) throws IOException {
+        if (is instanceof ByteBufferInputStream) {
+            ByteBuffer buffer = ((ByteBufferInputStream) is).getBuffer();
+            if (buffer.remaining() < 4) {
+                throw new EOFException();
+            }
+            return buffer.getInt();
+        }
         int i;
         i = is.read();
         i = 256 * i + is.read();
@@ -42,6 +51,36 @@ public class IOUtils {
         return i;
     }
     
+    /**
+     * Writes a non-negative integer in seven bit groups, least significant group first.  The high bit of each byte
+     * is set when more bytes follow, so values below 128 take a single byte.
+     */
+    public static void writeVarInt(OutputStream os, int i) throws IOException {
+        if (i < 0) {
+            throw new IllegalArgumentException("Negative value " + i + " can't be written as a variable length integer");
+        }
+        while ((i & ~0x7F) != 0) {
+            os.write((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        os.write(i);
+    }
+    
+    public static int readVarInt(InputStream is) throws IOException {
+        int i = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = is.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            i |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return i;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+    
     public static void writeString(OutputStream os, String s) throws IOException {
         byte[] bytes = s.getBytes(UTF8);
         writeInt(os, bytes.length);
@@ -56,11 +95,30 @@ public class IOUtils {
     
     public static byte[] readBytes(InputStream is, int count) throws IOException {
         byte[] bytes = new byte[count];
-        int bytesRead = 0;
-        do {
-            bytesRead += is.read(bytes, bytesRead, count - bytesRead);
-        } while (bytesRead < count);
+        readBytes(is, bytes, count);
         return bytes;
     }
+    
+    /**
+     * Reads count bytes into the start of an array so that a buffer can be reused for many reads.
+     */
+    public static void readBytes(InputStream is, byte[] bytes, int count) throws IOException {
+        if (is instanceof ByteBufferInputStream) {
+            ByteBuffer buffer = ((ByteBufferInputStream) is).getBuffer();
+            if (buffer.remaining() < count) {
+                throw new EOFException();
+            }
+            buffer.get(bytes, 0, count);
+            return;
+        }
+        int bytesRead = 0;
+        while (bytesRead < count) {
+            int read = is.read(bytes, bytesRead, count - bytesRead);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            bytesRead += read;
+        }
+    }
 
 }
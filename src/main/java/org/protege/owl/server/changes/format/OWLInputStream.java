@@ -1,13 +1,19 @@
 package org.protege.owl.server.changes.format;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
+import org.protege.owl.server.util.OWLObjectInterner;
 import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAnnotation;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLDataFactory;
@@ -17,15 +23,28 @@ import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 
 /**
+ * A reader is meant to decode a whole document.  The data factory and the placeholder ontology that the decoded
+ * changes refer to are created once per reader and shared with the readers of the compressed blocks inside the document,
+ * and the buffers used for strings and compressed blocks are reused from one object to the next.  When an
+ * {@link OWLObjectInterner} is set, each decoded object other than an axiom is replaced by its canonical instance.
  * 
  * @author redmond
  * @deprecated Replace with Matthew's format
  */
 @Deprecated
 public class OWLInputStream {
+    private static final OWLObjectType[] TYPES = OWLObjectType.values();
+    
     private InputStream inputStream;
     private OWLDataFactory factory;
     private OWLOntology fakeOntology;
+    private int formatVersion = OWLOutputStream.LEGACY_FORMAT_VERSION;
+    private int features = 0;
+    private List<IRI> iriSymbols = new ArrayList<IRI>();
+    private List<String> namespaceSymbols = new ArrayList<String>();
+    private byte[] stringBuffer = new byte[256];
+    private byte[] blockBuffer;
+    private OWLObjectInterner interner;
     
     public OWLInputStream(InputStream inputStream) {
         this.inputStream = inputStream;
@@ -39,6 +58,19 @@ public class OWLInputStream {
         }
     }
     
+    /**
+     * Creates a reader that shares the data factory, the placeholder ontology and the interner of another reader.
+     * 
+     * @param inputStream the stream to read
+     * @param parent the reader whose data factory, placeholder ontology and interner are used
+     */
+    public OWLInputStream(InputStream inputStream, OWLInputStream parent) {
+        this.inputStream = inputStream;
+        fakeOntology = parent.fakeOntology;
+        factory = parent.factory;
+        interner = parent.interner;
+    }
+    
     public InputStream getInputStream() {
         return inputStream;
     }
@@ -51,9 +83,98 @@ public class OWLInputStream {
         return factory;
     }
     
+    public OWLObjectInterner getInterner() {
+        return interner;
+    }
+    
+    public void setInterner(OWLObjectInterner interner) {
+        this.interner = interner;
+    }
+    
+    <X> X intern(X o) {
+        return interner == null ? o : interner.intern(o);
+    }
+    
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+    
+    /**
+     * Forgets the format and the IRI symbols that have been read.  This is needed when the stream is moved to the start
+     * of data that was written by a different {@link OWLOutputStream}.
+     */
+    public void reset() {
+        formatVersion = OWLOutputStream.LEGACY_FORMAT_VERSION;
+        features = 0;
+        iriSymbols.clear();
+        namespaceSymbols.clear();
+    }
+    
+    void setFormat(int formatVersion, int features) throws IOException {
+        if (formatVersion < OWLOutputStream.LEGACY_FORMAT_VERSION || formatVersion > OWLOutputStream.FORMAT_VERSION) {
+            throw new IOException("Unsupported version " + formatVersion + " of the change format");
+        }
+        if ((features & ~OWLOutputStream.SUPPORTED_FEATURES) != 0) {
+            throw new IOException("Unsupported features " + Integer.toHexString(features) + " in the change format");
+        }
+        this.formatVersion = formatVersion;
+        this.features = features;
+    }
+    
+    public int readCount() throws IOException {
+        if ((features & OWLOutputStream.VARINT_COUNTS) != 0) {
+            return IOUtils.readVarInt(inputStream);
+        }
+        return IOUtils.readInt(inputStream);
+    }
+    
+    public String readString() throws IOException {
+        int length = readCount();
+        if (stringBuffer.length < length) {
+            stringBuffer = new byte[Math.max(length, 2 * stringBuffer.length)];
+        }
+        IOUtils.readBytes(inputStream, stringBuffer, length);
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    /*
+     * Returns a stream over the next length bytes.  A memory mapped or in memory record is not copied.
+     */
+    InputStream readBlock(int length) throws IOException {
+        if (inputStream instanceof ByteBufferInputStream) {
+            ByteBuffer buffer = ((ByteBufferInputStream) inputStream).getBuffer();
+            if (buffer.remaining() < length) {
+                throw new EOFException();
+            }
+            ByteBuffer block = buffer.slice();
+            block.limit(length);
+            buffer.position(buffer.position() + length);
+            return new ByteBufferInputStream(block);
+        }
+        if (blockBuffer == null || blockBuffer.length < length) {
+            blockBuffer = new byte[length];
+        }
+        IOUtils.readBytes(inputStream, blockBuffer, length);
+        return new ByteArrayInputStream(blockBuffer, 0, length);
+    }
+    
+    List<IRI> getIRISymbols() {
+        return iriSymbols;
+    }
+    
+    List<String> getNamespaceSymbols() {
+        return namespaceSymbols;
+    }
+    
     public Object read() throws IOException {
         int typeIndex = inputStream.read();
-        OWLObjectType type = OWLObjectType.values()[typeIndex];
+        if (typeIndex < 0) {
+            throw new EOFException();
+        }
+        if (typeIndex >= TYPES.length) {
+            throw new IOException("Unknown type " + typeIndex + " in the change format");
+        }
+        OWLObjectType type = TYPES[typeIndex];
         Object o = type.read(this);
         if (o instanceof OWLAxiom) {
             @SuppressWarnings("unchecked")
@@ -62,15 +183,15 @@ public class OWLInputStream {
                 return ((OWLAxiom) o).getAnnotatedAxiom(annotations);
             }
         }
-        return o;
+        if (type == OWLObjectType.IRI_DEFINITION || type == OWLObjectType.IRI_REFERENCE) {
+            return o; // already interned when it was added to the symbol table
+        }
+        return intern(o);
     }
     
-    /*
-     * Are these bad because they are slow?
-     */
     public <X extends OWLObject> Set<X> readSet(Class<? extends X> javaClass) throws IOException {
-        int count = IOUtils.readInt(inputStream);
-        Set<X> objects = new TreeSet<X>();
+        int count = readCount();
+        Set<X> objects = new LinkedHashSet<X>();
         for (int i = 0; i < count; i++) {
             objects.add(javaClass.cast(read()));
         }
@@ -78,7 +199,7 @@ public class OWLInputStream {
     }
     
     public <X extends OWLObject> List<X> readList(Class<? extends X> javaClass) throws IOException {
-        int count = IOUtils.readInt(inputStream);
+        int count = readCount();
         List<X> objects = new ArrayList<X>();
         for (int i = 0; i < count; i++) {
             objects.add(javaClass.cast(read()));
@@ -1,12 +1,13 @@
 package org.protege.owl.server.changes.format;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.zip.GZIPInputStream;
 
 import org.semanticweb.owlapi.model.*;
@@ -22,11 +23,9 @@ public enum OWLObjectType {
     COMPRESSED {
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int compressedLength = IOUtils.readInt(in.getInputStream());
-            byte[] compressedData = IOUtils.readBytes(in.getInputStream(), compressedLength);
-            ByteArrayInputStream compressedInputStream = new ByteArrayInputStream(compressedData);
-            GZIPInputStream decompressingInputStream = new GZIPInputStream(compressedInputStream);
-            OWLInputStream decompressingOwlInputStream = new OWLInputStream(decompressingInputStream);
+            int compressedLength = in.readCount();
+            GZIPInputStream decompressingInputStream = new GZIPInputStream(in.readBlock(compressedLength));
+            OWLInputStream decompressingOwlInputStream = new OWLInputStream(decompressingInputStream, in);
             try {
                 return decompressingOwlInputStream.read();
             }
@@ -43,7 +42,7 @@ public enum OWLObjectType {
     LIST_OF_CHANGES {
         @Override
         public List<OWLOntologyChange> read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
             for (int i = 0; i < count; i++) {
                 changes.add((OWLOntologyChange) in.read());
@@ -55,7 +54,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             @SuppressWarnings("unchecked")
             List<OWLOntologyChange> changes = (List<OWLOntologyChange>) o;
-            IOUtils.writeInt(out.getOutputStream(), changes.size());
+            out.writeCount(changes.size());
             for (OWLOntologyChange change : changes) {
                 out.write(change);
             }
@@ -172,7 +171,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             if (count == 0) {
                 return new OWLOntologyID();
             }
@@ -199,7 +198,7 @@ public enum OWLObjectType {
             else {
                 count = 2;
             }
-            IOUtils.writeInt(out.getOutputStream(), count);
+            out.writeCount(count);
             if (!id.isAnonymous()) {
                 out.write((OWLObject) id.getOntologyIRI().get());
             }
@@ -214,7 +213,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            String iriString = IOUtils.readString(in.getInputStream());
+            String iriString = in.readString();
             return IRI.create(iriString);
         }
 
@@ -222,7 +221,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             IRI iri = (IRI) o;
             String iriString = iri.toString();
-            IOUtils.writeString(out.getOutputStream(), iriString);
+            out.writeString(iriString);
         }
         
     },
@@ -247,16 +246,16 @@ public enum OWLObjectType {
 
         @Override
         public OWLLiteral read(OWLInputStream in) throws IOException {
-            String literal = IOUtils.readString(in.getInputStream());
-            String lang = IOUtils.readString(in.getInputStream());
+            String literal = in.readString();
+            String lang = in.readString();
             return in.getOWLDataFactory().getOWLLiteral(literal, lang);
         }
 
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLLiteral literal = (OWLLiteral) o;
-            IOUtils.writeString(out.getOutputStream(), literal.getLiteral());
-            IOUtils.writeString(out.getOutputStream(), literal.getLang());
+            out.writeString(literal.getLiteral());
+            out.writeString(literal.getLang());
         }
         
     },
@@ -264,7 +263,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            String lexicalValue = IOUtils.readString(in.getInputStream());
+            String lexicalValue = in.readString();
             OWLDatatype datatype = (OWLDatatype) in.read();
             return in.getOWLDataFactory().getOWLLiteral(lexicalValue, datatype);
         }
@@ -272,7 +271,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLLiteral literal = (OWLLiteral) o;
-            IOUtils.writeString(out.getOutputStream(), literal.getLiteral());
+            out.writeString(literal.getLiteral());
             out.write(literal.getDatatype());
         }
         
@@ -351,14 +350,14 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            String id = IOUtils.readString(in.getInputStream());
+            String id = in.readString();
             return in.getOWLDataFactory().getOWLAnonymousIndividual(id);
         }
 
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLAnonymousIndividual i = (OWLAnonymousIndividual) o;
-            IOUtils.writeString(out.getOutputStream(), i.getID().getID());
+            out.writeString(i.getID().getID());
         }
         
     },
@@ -382,8 +381,8 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLDatatype datatype = (OWLDatatype) in.read();
-            int facetRestrictionCount = IOUtils.readInt(in.getInputStream());
-            Set<OWLFacetRestriction> facetRestrictions = new TreeSet<OWLFacetRestriction>();
+            int facetRestrictionCount = in.readCount();
+            Set<OWLFacetRestriction> facetRestrictions = new LinkedHashSet<OWLFacetRestriction>();
             for (int i = 0; i < facetRestrictionCount; i++) {
                 facetRestrictions.add((OWLFacetRestriction) in.read());
             }
@@ -394,7 +393,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDatatypeRestriction dr =(OWLDatatypeRestriction) o;
             out.write(dr.getDatatype());
-            IOUtils.writeInt(out.getOutputStream(), dr.getFacetRestrictions().size());
+            out.writeCount(dr.getFacetRestrictions().size());
             for (OWLFacetRestriction facetRestriction : dr.getFacetRestrictions()) {
                 out.write(facetRestriction);
             }
@@ -406,7 +405,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int ordinal = IOUtils.readInt(in.getInputStream());
+            int ordinal = in.readCount();
             OWLFacet facet = OWLFacet.values()[ordinal];
             OWLLiteral literal = (OWLLiteral) in.read();
             return in.getOWLDataFactory().getOWLFacetRestriction(facet, literal);
@@ -415,7 +414,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLFacetRestriction facetRestriction = (OWLFacetRestriction) o;
-            IOUtils.writeInt(out.getOutputStream(), facetRestriction.getFacet().ordinal());
+            out.writeCount(facetRestriction.getFacet().ordinal());
             out.write(facetRestriction.getFacetValue());
         }
         
@@ -438,8 +437,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLAnnotation> annotations = new TreeSet<OWLAnnotation>();
+            int count = in.readCount();
+            Set<OWLAnnotation> annotations = new LinkedHashSet<OWLAnnotation>();
             for (int i = 0; i < count; i++) {
                 annotations.add((OWLAnnotation) in.read());
             }
@@ -450,7 +449,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             @SuppressWarnings("unchecked")
             Set<OWLAnnotation> annotations = (Set<OWLAnnotation>) o;
-            IOUtils.writeInt(out.getOutputStream(), annotations.size());
+            out.writeCount(annotations.size());
             for (OWLAnnotation annotation : annotations) {
                 out.write(annotation);
             }
@@ -493,7 +492,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             OWLClassExpression[] classExpressions = new OWLClassExpression[count];
             for (int i = 0; i < count; i++) {
                 classExpressions[i] = (OWLClassExpression) in.read();
@@ -504,7 +503,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLEquivalentClassesAxiom axiom = (OWLEquivalentClassesAxiom) o;
-            IOUtils.writeInt(out.getOutputStream(), axiom.getClassExpressions().size());
+            out.writeCount(axiom.getClassExpressions().size());
             for (OWLClassExpression ce : axiom.getClassExpressions()) {
                 out.write(ce);
             }
@@ -516,8 +515,8 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLClass c = (OWLClass) in.read();
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLClassExpression> classExpressions = new TreeSet<OWLClassExpression>();
+            int count = in.readCount();
+            Set<OWLClassExpression> classExpressions = new LinkedHashSet<OWLClassExpression>();
             for (int i = 0; i < count; i++) {
                 classExpressions.add((OWLClassExpression) in.read());
             }
@@ -529,7 +528,7 @@ public enum OWLObjectType {
             OWLDisjointUnionAxiom axiom = (OWLDisjointUnionAxiom) o;
             out.write(axiom.getOWLClass());
             Set<OWLClassExpression> conjuncts = axiom.getClassExpressions();
-            IOUtils.writeInt(out.getOutputStream(), conjuncts.size());
+            out.writeCount(conjuncts.size());
             for (OWLClassExpression conjunct : conjuncts) {
                 out.write(conjunct);
             }
@@ -558,7 +557,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             OWLClassExpression[] classExpressions = new OWLClassExpression[count];
             for (int i = 0; i < count; i++) {
                 classExpressions[i] = (OWLClassExpression) in.read();
@@ -569,7 +568,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDisjointClassesAxiom axiom = (OWLDisjointClassesAxiom) o;
-            IOUtils.writeInt(out.getOutputStream(), axiom.getClassExpressions().size());
+            out.writeCount(axiom.getClassExpressions().size());
             for (OWLClassExpression ce : axiom.getClassExpressions()) {
                 out.write(ce);
             }
@@ -823,8 +822,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLObjectPropertyExpression> properties = new TreeSet<OWLObjectPropertyExpression>();
+            int count = in.readCount();
+            Set<OWLObjectPropertyExpression> properties = new LinkedHashSet<OWLObjectPropertyExpression>();
             for (int i = 0; i < count; i++) {
                 properties.add((OWLObjectPropertyExpression) in.read());
             }
@@ -835,7 +834,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLEquivalentObjectPropertiesAxiom axiom = (OWLEquivalentObjectPropertiesAxiom) o;
             Set<OWLObjectPropertyExpression> properties = axiom.getProperties();
-            IOUtils.writeInt(out.getOutputStream(), properties.size());
+            out.writeCount(properties.size());
             for (OWLObjectPropertyExpression property : properties) {
                 out.write(property);
             }
@@ -846,8 +845,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLObjectPropertyExpression> properties = new TreeSet<OWLObjectPropertyExpression>();
+            int count = in.readCount();
+            Set<OWLObjectPropertyExpression> properties = new LinkedHashSet<OWLObjectPropertyExpression>();
             for (int i = 0; i < count; i++) {
                 properties.add((OWLObjectPropertyExpression) in.read());
             }
@@ -858,7 +857,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDisjointObjectPropertiesAxiom axiom = (OWLDisjointObjectPropertiesAxiom) o;
             Set<OWLObjectPropertyExpression> pes = axiom.getProperties();
-            IOUtils.writeInt(out.getOutputStream(), pes.size());
+            out.writeCount(pes.size());
             for (OWLObjectPropertyExpression pe : pes) {
                 out.write(pe);
             }
@@ -935,8 +934,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLDataPropertyExpression> properties = new TreeSet<OWLDataPropertyExpression>();
+            int count = in.readCount();
+            Set<OWLDataPropertyExpression> properties = new LinkedHashSet<OWLDataPropertyExpression>();
             for (int i = 0; i < count; i++) {
                 properties.add((OWLDataPropertyExpression) in.read());
             }
@@ -947,7 +946,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLEquivalentDataPropertiesAxiom axiom = (OWLEquivalentDataPropertiesAxiom) o;
             Set<OWLDataPropertyExpression> properties = axiom.getProperties();
-            IOUtils.writeInt(out.getOutputStream(), properties.size());
+            out.writeCount(properties.size());
             for (OWLDataPropertyExpression property : properties) {
                 out.write(property);
             }
@@ -958,8 +957,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
-            Set<OWLDataPropertyExpression> properties = new TreeSet<OWLDataPropertyExpression>();
+            int count = in.readCount();
+            Set<OWLDataPropertyExpression> properties = new LinkedHashSet<OWLDataPropertyExpression>();
             for (int i = 0; i < count; i++) {
                 properties.add((OWLDataPropertyExpression) in.read());
             }
@@ -970,7 +969,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDisjointDataPropertiesAxiom axiom = (OWLDisjointDataPropertiesAxiom) o;
             Set<OWLDataPropertyExpression> pes = axiom.getProperties();
-            IOUtils.writeInt(out.getOutputStream(), pes.size());
+            out.writeCount(pes.size());
             for (OWLDataPropertyExpression pe : pes) {
                 out.write(pe);
             }
@@ -998,7 +997,7 @@ public enum OWLObjectType {
 
         @Override
         public OWLDifferentIndividualsAxiom read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             OWLIndividual[] individuals = new OWLIndividual[count];
             for (int i = 0; i < count; i++) {
                 individuals[i] = (OWLIndividual) in.read();
@@ -1009,7 +1008,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDifferentIndividualsAxiom axiom = (OWLDifferentIndividualsAxiom) o;
-            IOUtils.writeInt(out.getOutputStream(), axiom.getIndividuals().size());
+            out.writeCount(axiom.getIndividuals().size());
             for (OWLIndividual i : axiom.getIndividuals()) {
                 out.write(i);
             }
@@ -1117,7 +1116,7 @@ public enum OWLObjectType {
 
         @Override
         public OWLObjectIntersectionOf read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             OWLClassExpression[] operands = new OWLClassExpression[count];
             for (int i = 0; i < count; i++) {
                 operands[i] = (OWLClassExpression) in.read();
@@ -1128,7 +1127,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectIntersectionOf intersection = (OWLObjectIntersectionOf) o;
-            IOUtils.writeInt(out.getOutputStream(), intersection.getOperands().size());
+            out.writeCount(intersection.getOperands().size());
             for (OWLClassExpression ce : intersection.getOperands()) {
                 out.write(ce);
             }
@@ -1139,7 +1138,7 @@ public enum OWLObjectType {
 
         @Override
         public OWLObjectUnionOf read(OWLInputStream in) throws IOException {
-            int count = IOUtils.readInt(in.getInputStream());
+            int count = in.readCount();
             OWLClassExpression[] operands = new OWLClassExpression[count];
             for (int i = 0; i < count; i++) {
                 operands[i] = (OWLClassExpression) in.read();
@@ -1150,7 +1149,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectUnionOf union = (OWLObjectUnionOf) o;
-            IOUtils.writeInt(out.getOutputStream(), union.getOperands().size());
+            out.writeCount(union.getOperands().size());
             for (OWLClassExpression ce : union.getOperands()) {
                 out.write(ce);
             }
@@ -1210,7 +1209,7 @@ public enum OWLObjectType {
 
         @Override
         public OWLObjectMinCardinality read(OWLInputStream in) throws IOException {
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLObjectPropertyExpression property = (OWLObjectPropertyExpression) in.read();
             OWLClassExpression classExpression = (OWLClassExpression) in.read();
             return in.getOWLDataFactory().getOWLObjectMinCardinality(cardinality, property, classExpression);
@@ -1219,7 +1218,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectMinCardinality ce = (OWLObjectMinCardinality) o;
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getProperty());
             out.write(ce.getFiller());
         }
@@ -1230,7 +1229,7 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLObjectPropertyExpression property = (OWLObjectPropertyExpression) in.read();
             OWLClassExpression classExpression = (OWLClassExpression) in.read();
             return in.getOWLDataFactory().getOWLObjectMaxCardinality(cardinality, property, classExpression);
@@ -1239,7 +1238,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectMaxCardinality ce = (OWLObjectMaxCardinality) o;
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getProperty());
             out.write(ce.getFiller());
         }
@@ -1251,7 +1250,7 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLObjectPropertyExpression p = (OWLObjectPropertyExpression) in.read();
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLClassExpression filler = (OWLClassExpression) in.read();
             return in.getOWLDataFactory().getOWLObjectExactCardinality(cardinality, p, filler);
         }
@@ -1260,7 +1259,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectExactCardinality ce = (OWLObjectExactCardinality) o;
             out.write(ce.getProperty());
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getFiller());
         }
         
@@ -1339,7 +1338,7 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLDataPropertyExpression property = (OWLDataPropertyExpression) in.read();
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLDataRange dataRange = (OWLDataRange) in.read();
             return in.getOWLDataFactory().getOWLDataMinCardinality(cardinality, property, dataRange);
         }
@@ -1348,7 +1347,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDataMinCardinality ce = (OWLDataMinCardinality) o;
             out.write(ce.getProperty());
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getFiller());
         }
         
@@ -1359,7 +1358,7 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLDataPropertyExpression property = (OWLDataPropertyExpression) in.read();
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLDataRange dataRange = (OWLDataRange) in.read();
             return in.getOWLDataFactory().getOWLDataMaxCardinality(cardinality, property, dataRange);
         }
@@ -1368,7 +1367,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDataMaxCardinality ce = (OWLDataMaxCardinality) o;
             out.write(ce.getProperty());
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getFiller());
         }
         
@@ -1379,7 +1378,7 @@ public enum OWLObjectType {
         @Override
         public Object read(OWLInputStream in) throws IOException {
             OWLDataPropertyExpression property = (OWLDataPropertyExpression) in.read();
-            int cardinality = IOUtils.readInt(in.getInputStream());
+            int cardinality = in.readCount();
             OWLDataRange dataRange = (OWLDataRange) in.read();
             return in.getOWLDataFactory().getOWLDataExactCardinality(cardinality, property, dataRange);
         }
@@ -1388,7 +1387,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLDataExactCardinality ce = (OWLDataExactCardinality) o;
             out.write(ce.getProperty());
-            IOUtils.writeInt(out.getOutputStream(), ce.getCardinality());
+            out.writeCount(ce.getCardinality());
             out.write(ce.getFiller());
         }
         
@@ -1416,8 +1415,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            Set<OWLIndividual> individuals = new TreeSet<OWLIndividual>();
-            int count = IOUtils.readInt(in.getInputStream());
+            Set<OWLIndividual> individuals = new LinkedHashSet<OWLIndividual>();
+            int count = in.readCount();
             for (int i = 0; i < count; i++) {
                 individuals.add((OWLIndividual) in.read());
             }
@@ -1427,7 +1426,7 @@ public enum OWLObjectType {
         @Override
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLObjectOneOf ce = (OWLObjectOneOf) o;
-            IOUtils.writeInt(out.getOutputStream(), ce.getIndividuals().size());
+            out.writeCount(ce.getIndividuals().size());
             for (OWLIndividual i : ce.getIndividuals()) {
                 out.write(i);
             }
@@ -1535,8 +1534,8 @@ public enum OWLObjectType {
 
         @Override
         public Object read(OWLInputStream in) throws IOException {
-            Set<OWLIndividual> individuals = new TreeSet<OWLIndividual>();
-            int count = IOUtils.readInt(in.getInputStream());
+            Set<OWLIndividual> individuals = new LinkedHashSet<OWLIndividual>();
+            int count = in.readCount();
             for (int i = 0; i < count; i++) {
                 individuals.add((OWLIndividual) in.read());
             }
@@ -1547,7 +1546,7 @@ public enum OWLObjectType {
         public void write(OWLOutputStream out, Object o) throws IOException {
             OWLSameIndividualAxiom axiom = (OWLSameIndividualAxiom) o;
             Set<OWLIndividual> individuals = axiom.getIndividuals();
-            IOUtils.writeInt(out.getOutputStream(), individuals.size());
+            out.writeCount(individuals.size());
             for (OWLIndividual i : individuals) {
                 out.write(i);
             }
@@ -1749,6 +1748,104 @@ public enum OWLObjectType {
             out.write(literal.getLiteral());
         }
         
+    },
+    
+    IRI_DEFINITION {
+
+        @Override
+        public Object read(OWLInputStream in) throws IOException {
+            List<String> namespaces = in.getNamespaceSymbols();
+            int namespaceSymbol = IOUtils.readVarInt(in.getInputStream());
+            if (namespaceSymbol == namespaces.size()) {
+                namespaces.add(in.readString());
+            }
+            else if (namespaceSymbol > namespaces.size()) {
+                throw new IOException("Undefined namespace symbol " + namespaceSymbol);
+            }
+            String localName = in.readString();
+            IRI iri = in.intern(IRI.create(namespaces.get(namespaceSymbol), localName));
+            in.getIRISymbols().add(iri);
+            return iri;
+        }
+
+        @Override
+        public void write(OWLOutputStream out, Object o) throws IOException {
+            IRI iri = (IRI) o;
+            String namespace = iri.getNamespace();
+            Map<String, Integer> namespaces = out.getNamespaceSymbols();
+            Integer namespaceSymbol = namespaces.get(namespace);
+            if (namespaceSymbol == null) {
+                namespaceSymbol = namespaces.size();
+                namespaces.put(namespace, namespaceSymbol);
+                IOUtils.writeVarInt(out.getOutputStream(), namespaceSymbol);
+                out.writeString(namespace);
+            }
+            else {
+                IOUtils.writeVarInt(out.getOutputStream(), namespaceSymbol);
+            }
+            out.writeString(iri.toString().substring(namespace.length()));
+        }
+        
+    },
+    
+    IRI_REFERENCE {
+
+        @Override
+        public Object read(OWLInputStream in) throws IOException {
+            List<IRI> iris = in.getIRISymbols();
+            int symbol = IOUtils.readVarInt(in.getInputStream());
+            if (symbol >= iris.size()) {
+                throw new IOException("Undefined IRI symbol " + symbol);
+            }
+            return iris.get(symbol);
+        }
+
+        @Override
+        public void write(OWLOutputStream out, Object o) throws IOException {
+            IOUtils.writeVarInt(out.getOutputStream(), (Integer) o);
+        }
+        
+    },
+    
+    CHUNKED_COMPRESSED {
+
+        @Override
+        public Object read(OWLInputStream in) throws IOException {
+            FrameInputStream frames = new FrameInputStream(in);
+            GZIPInputStream decompressingInputStream = new GZIPInputStream(frames);
+            OWLInputStream decompressingOwlInputStream = new OWLInputStream(new BufferedInputStream(decompressingInputStream), in);
+            try {
+                Object o = decompressingOwlInputStream.read();
+                frames.skipToEnd();
+                return o;
+            }
+            finally {
+                decompressingInputStream.close();
+            }
+        }
+
+        @Override
+        public void write(OWLOutputStream out, Object o) throws IOException {
+            throw new IllegalStateException("Programmer should not have called this method");
+        }
+        
+    },
+    
+    FORMAT_HEADER {
+
+        @Override
+        public Object read(OWLInputStream in) throws IOException {
+            int version = IOUtils.readVarInt(in.getInputStream());
+            int features = IOUtils.readVarInt(in.getInputStream());
+            in.setFormat(version, features);
+            return in.read();
+        }
+
+        @Override
+        public void write(OWLOutputStream out, Object o) throws IOException {
+            throw new IllegalStateException("Programmer should not have called this method");
+        }
+        
     }
     
     ;
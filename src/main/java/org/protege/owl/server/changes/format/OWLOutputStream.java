@@ -1,14 +1,18 @@
 package org.protege.owl.server.changes.format;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
 
 import org.protege.owl.server.api.exception.RuntimeIOException;
+import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAnnotation;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLObject;
@@ -16,15 +20,40 @@ import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyID;
 
 /**
+ * A stream starts with a {@link OWLObjectType#FORMAT_HEADER} that holds the version of the format and the optional
+ * features that the stream uses.  Streams written before the header was introduced start directly with an object.
+ * These are read as {@link #LEGACY_FORMAT_VERSION} streams where every count and length is written as a four byte integer.
+ * In later versions counts and lengths are written with {@link IOUtils#writeVarInt(OutputStream, int)}.
+ * <p>
+ * Each stream keeps a symbol table of the IRIs that it has written.  The first occurrence of an IRI defines a symbol for it
+ * and the later occurrences are written as a reference to that symbol.  The namespaces of the IRIs are kept in a
+ * separate table so that an IRI definition only spells out the local name when its namespace has been seen before.
+ * An {@link OWLInputStream} rebuilds the same tables as it reads, so a stream can only be read from its beginning.
  * 
  * @author redmond
  * @deprecated Replace with Matthew's format
  */
 @Deprecated
 public class OWLOutputStream {
+    public static final int LEGACY_FORMAT_VERSION = 1;
+    public static final int FORMAT_VERSION        = 2;
+    
+    public static final int VARINT_COUNTS         = 0x1;
+    public static final int IRI_SYMBOLS           = 0x2;
+    public static final int CHUNKED_COMPRESSION   = 0x4;
+    public static final int SUPPORTED_FEATURES    = VARINT_COUNTS | IRI_SYMBOLS | CHUNKED_COMPRESSION;
+    
+    public static final int DEFAULT_FRAME_SIZE    = 64 * 1024;
+    
     private OutputStream outputStream;
     private int compressionLimit = 1000;
+    private int frameSize = DEFAULT_FRAME_SIZE;
     private SerializingVisitor visitor;
+    private int formatVersion = FORMAT_VERSION;
+    private int features = SUPPORTED_FEATURES;
+    private boolean headerWritten = false;
+    private Map<IRI, Integer> iriSymbols = new HashMap<IRI, Integer>();
+    private Map<String, Integer> namespaceSymbols = new HashMap<String, Integer>();
     
     public OWLOutputStream(OutputStream outputStream) {
         this.outputStream = outputStream;
@@ -43,7 +72,64 @@ public class OWLOutputStream {
         this.compressionLimit = compressionLimit;
     }
     
+    public int getFrameSize() {
+        return frameSize;
+    }
+    
+    /**
+     * Sets the size of the frames that a large list of changes is compressed into.  The compressed data is written to
+     * the underlying stream one frame at a time so this bounds the memory needed to write the list.
+     * 
+     * @param frameSize the frame size in bytes
+     */
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+    
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+    
+    /**
+     * Selects the version of the format that is written.  {@link #LEGACY_FORMAT_VERSION} writes streams that can be read
+     * by servers and clients that predate the format header.
+     * 
+     * @param formatVersion the format version
+     */
+    public void setFormatVersion(int formatVersion) {
+        if (headerWritten) {
+            throw new IllegalStateException("The format version can't be changed after the stream has been started");
+        }
+        if (formatVersion == LEGACY_FORMAT_VERSION) {
+            features = 0;
+        }
+        else if (formatVersion == FORMAT_VERSION) {
+            features = SUPPORTED_FEATURES;
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported format version " + formatVersion);
+        }
+        this.formatVersion = formatVersion;
+    }
+    
+    public void writeCount(int count) throws IOException {
+        writeHeader();
+        if ((features & VARINT_COUNTS) != 0) {
+            IOUtils.writeVarInt(outputStream, count);
+        }
+        else {
+            IOUtils.writeInt(outputStream, count);
+        }
+    }
+    
+    public void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(IOUtils.UTF8);
+        writeCount(bytes.length);
+        outputStream.write(bytes);
+    }
+    
     public void write(OWLObject owlObject) throws IOException {
+        writeHeader();
         try {
             owlObject.accept(visitor);
         }
@@ -53,13 +139,14 @@ public class OWLOutputStream {
     }
     
     public <X extends OWLObject> void write(Collection<X> objects) throws IOException {
-        IOUtils.writeInt(getOutputStream(), objects.size());
+        writeCount(objects.size());
         for (OWLObject object : objects) {
             write(object);
         }
     }
     
     public void write(OWLOntologyChange change) throws IOException {
+        writeHeader();
         try {
             change.accept(visitor);
         }
@@ -69,16 +156,26 @@ public class OWLOutputStream {
     }
     
     public void writeWithCompression(List<OWLOntologyChange> changes) throws IOException {
-        if (compressionLimit > 0 && changes.size() > compressionLimit) {
+        writeHeader();
+        if (compressionLimit > 0 && changes.size() > compressionLimit && (features & CHUNKED_COMPRESSION) != 0) {
+            outputStream.write(OWLObjectType.CHUNKED_COMPRESSED.ordinal());
+            OutputStream compressingOutputStream = new BufferedOutputStream(new GZIPOutputStream(new FrameOutputStream(this, frameSize)));
+            OWLOutputStream compressingOwlOutputStream = new OWLOutputStream(compressingOutputStream);
+            compressingOwlOutputStream.setFormatVersion(formatVersion);
+            compressingOwlOutputStream.write(changes);
+            compressingOutputStream.close();
+        }
+        else if (compressionLimit > 0 && changes.size() > compressionLimit) {
             outputStream.write(OWLObjectType.COMPRESSED.ordinal());
             ByteArrayOutputStream bout = new ByteArrayOutputStream();
             GZIPOutputStream compressingOutputStream = new GZIPOutputStream(bout);
             OWLOutputStream compressingOwlOutputStream = new OWLOutputStream(compressingOutputStream);
+            compressingOwlOutputStream.setFormatVersion(formatVersion);
             compressingOwlOutputStream.write(changes);
             compressingOutputStream.flush();
             compressingOutputStream.close();
             byte[] bytes = bout.toByteArray();
-            IOUtils.writeInt(outputStream, bytes.length);
+            writeCount(bytes.length);
             outputStream.write(bytes);
         }
         else {
@@ -87,17 +184,39 @@ public class OWLOutputStream {
     }
     
     public void write(List<OWLOntologyChange> changes) throws IOException {
+        writeHeader();
         outputStream.write(OWLObjectType.LIST_OF_CHANGES.ordinal());
         OWLObjectType.LIST_OF_CHANGES.write(this, changes);
     }
     
+    void writeIRI(IRI iri) throws RuntimeIOException {
+        if ((features & IRI_SYMBOLS) == 0) {
+            write(OWLObjectType.IRI_TYPE, iri);
+            return;
+        }
+        Integer symbol = iriSymbols.get(iri);
+        if (symbol != null) {
+            write(OWLObjectType.IRI_REFERENCE, symbol);
+        }
+        else {
+            iriSymbols.put(iri, iriSymbols.size());
+            write(OWLObjectType.IRI_DEFINITION, iri);
+        }
+    }
+    
+    Map<String, Integer> getNamespaceSymbols() {
+        return namespaceSymbols;
+    }
+    
     public void write(OWLOntologyID id) throws IOException {
+        writeHeader();
         outputStream.write(OWLObjectType.OWL_ONTOLOGY_ID.ordinal());
         OWLObjectType.OWL_ONTOLOGY_ID.write(this, id);
     }
     
     public void write(OWLObjectType owlType, Object o) throws RuntimeIOException {
         try {
+            writeHeader();
             outputStream.write(owlType.ordinal());
             owlType.write(this, o);
             if (o instanceof OWLAxiom) {
@@ -115,4 +234,14 @@ public class OWLOutputStream {
         }
     }
 
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            if (formatVersion != LEGACY_FORMAT_VERSION) {
+                outputStream.write(OWLObjectType.FORMAT_HEADER.ordinal());
+                IOUtils.writeVarInt(outputStream, formatVersion);
+                IOUtils.writeVarInt(outputStream, features);
+            }
+        }
+    }
 }
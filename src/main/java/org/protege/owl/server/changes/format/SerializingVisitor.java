@@ -476,7 +476,7 @@ public class SerializingVisitor implements OWLObjectVisitor, OWLOntologyChangeVi
 
     @Override
     public void visit(IRI iri) {
-        owlOutputStream.write(OWLObjectType.IRI_TYPE, iri);
+        owlOutputStream.writeIRI(iri);
     }
 
     @Override
@@ -8,6 +8,7 @@ import static org.protege.owl.server.command.P4OWLServerOptions.REVISION_RANGE_O
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
@@ -17,14 +18,18 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.OntologyDocumentRevision;
 import org.protege.owl.server.api.RevisionPointer;
+import org.protege.owl.server.api.RevisionVisitor;
 import org.protege.owl.server.api.client.Client;
 import org.protege.owl.server.api.client.RemoteOntologyDocument;
 import org.protege.owl.server.api.exception.OWLServerException;
+import org.protege.owl.server.changes.format.ReplaceChangedOntologyVisitor;
 import org.protege.owl.server.render.DiffRenderer;
+import org.protege.owl.server.util.ChangeUtilities;
 import org.protege.owl.server.util.ClientRegistry;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 
@@ -109,22 +114,25 @@ public class Log extends ServerCommand {
         }
     }
     
-    private void displayHistory(ChangeHistory history) throws OWLOntologyCreationException {
+    @SuppressWarnings("deprecation")
+    private void displayHistory(ChangeHistory history) throws OWLOntologyCreationException, IOException {
         OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-        OWLOntology ontology = manager.createOntology();
+        final OWLOntology ontology = manager.createOntology();
         System.out.println("Showing logs for " + remoteDoc);
-        DiffRenderer renderer = new DiffRenderer();
-        for (OntologyDocumentRevision revision = history.getStartRevision(); revision.compareTo(history.getEndRevision()) < 0; revision = revision.next()) {
-            ChangeMetaData metaData = history.getMetaData(revision);
-            System.out.println("From revision " + revision + " to revision " + revision.next() + ", User = " + metaData.getUserId());
-            System.out.println("\tCommit Comment:\n");
-            System.out.println(metaData.getCommitComment());
-            if (axiomCount > 0) {
-                System.out.println("\n\tChanges:\n");
-                ChangeHistory oneStepHistory = history.cropChanges(revision, revision.next());
-                renderer.renderDiff(oneStepHistory.getChanges(ontology), client.getDocumentFactory().getOWLRenderer(), new PrintWriter(System.out), axiomCount);
+        final DiffRenderer renderer = new DiffRenderer();
+        history.forEachRevision(null, null, new RevisionVisitor() {
+            @Override
+            public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) {
+                System.out.println("From revision " + revision + " to revision " + revision.next() + ", User = " + metaData.getUserId());
+                System.out.println("\tCommit Comment:\n");
+                System.out.println(metaData.getCommitComment());
+                if (axiomCount > 0) {
+                    System.out.println("\n\tChanges:\n");
+                    List<OWLOntologyChange> revisionChanges = ReplaceChangedOntologyVisitor.mutate(ontology, ChangeUtilities.normalizeChangeDelta(changes));
+                    renderer.renderDiff(revisionChanges, client.getDocumentFactory().getOWLRenderer(), new PrintWriter(System.out), axiomCount);
+                }
             }
-        }
+        });
     }
 
     @Override
@@ -0,0 +1,61 @@
+package org.protege.owl.server.command;
+
+import static org.protege.owl.server.command.P4OWLServerOptions.NEEDS_HELP_OPTION;
+
+import java.io.File;
+
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DamagedHistoryException;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+
+/**
+ * Repairs a server history file with a damaged record.  The server refuses to serve such a document because repairing
+ * it cuts off the revisions from the damaged record on.  This command should be run while the server is stopped.  The
+ * damaged file is copied aside before it is repaired, so the records after the damaged record can still be recovered
+ * from the copy.
+ */
+public class RepairHistory extends ServerCommand {
+    private Options options = new Options();
+    {
+        options.addOption(NEEDS_HELP_OPTION);
+    }
+    private File historyFile;
+
+    @Override
+    public boolean parse(String[] args) throws ParseException {
+        historyFile = parseSingleExistingFile(args, options);
+        return historyFile != null && historyFile.isFile();
+    }
+
+    @Override
+    public void execute() throws Exception {
+        ChangeHistoryFile changeHistoryFile = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile);
+        try {
+            ChangeHistory changes = changeHistoryFile.read();
+            System.out.println("History file " + historyFile + " is not damaged (end revision = " + changes.getEndRevision() + ").");
+        }
+        catch (DamagedHistoryException damage) {
+            ChangeHistory changes = changeHistoryFile.repair(damage);
+            System.out.println("Revision " + damage.getDamagedRevision() + " of " + historyFile + " was damaged.");
+            System.out.println("The history now ends at revision " + changes.getEndRevision() + ".");
+            System.out.println("The damaged file was kept as " + changeHistoryFile.getPreservedDamagedFile() + ".");
+        }
+    }
+
+    @Override
+    public void usage() {
+        usage("RepairHistory <options> history-file", "", options);
+    }
+
+    /**
+     * @param args	args
+     * @throws Exception	Exception
+     */
+    public static void main(String[] args) throws Exception {
+        new RepairHistory().run(args);
+    }
+
+}
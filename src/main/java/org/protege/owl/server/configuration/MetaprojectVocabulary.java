@@ -41,6 +41,13 @@ public class MetaprojectVocabulary {
 	public static final OWLDataProperty HAS_HOST_NAME;
 	public static final OWLDataProperty HAS_REGISTRY_PORT;
 	public static final OWLDataProperty HAS_SERVER_PORT;
+	public static final OWLDataProperty HAS_MEMORY_MAPPED_HISTORY;
+	public static final OWLDataProperty HAS_SNAPSHOT_INTERVAL;
+	public static final OWLDataProperty HAS_GROUP_COMMIT_WINDOW;
+	public static final OWLDataProperty HAS_POOL_MEMORY_BUDGET;
+	public static final OWLDataProperty HAS_WARM_UP_COUNT;
+	public static final OWLDataProperty HAS_LOAD_PARALLELISM;
+	public static final OWLDataProperty HAS_OBJECT_INTERNING;
 	
 	
 	static {
@@ -65,6 +72,13 @@ public class MetaprojectVocabulary {
 		HAS_HOST_NAME          = factory.getOWLDataProperty(IRI.create(NS + "#hasHostName"));
 		HAS_REGISTRY_PORT      = factory.getOWLDataProperty(IRI.create(NS + "#hasRegistryPort"));
 		HAS_SERVER_PORT        = factory.getOWLDataProperty(IRI.create(NS + "#hasServerPort"));
+		HAS_MEMORY_MAPPED_HISTORY = factory.getOWLDataProperty(IRI.create(NS + "#hasMemoryMappedHistory"));
+		HAS_SNAPSHOT_INTERVAL     = factory.getOWLDataProperty(IRI.create(NS + "#hasSnapshotInterval"));
+		HAS_GROUP_COMMIT_WINDOW   = factory.getOWLDataProperty(IRI.create(NS + "#hasGroupCommitWindow"));
+		HAS_POOL_MEMORY_BUDGET    = factory.getOWLDataProperty(IRI.create(NS + "#hasPoolMemoryBudget"));
+		HAS_WARM_UP_COUNT         = factory.getOWLDataProperty(IRI.create(NS + "#hasWarmUpCount"));
+		HAS_LOAD_PARALLELISM      = factory.getOWLDataProperty(IRI.create(NS + "#hasLoadParallelism"));
+		HAS_OBJECT_INTERNING      = factory.getOWLDataProperty(IRI.create(NS + "#hasObjectInterning"));
 	}
 
 	public static void addIRIMapper(OWLOntologyManager manager) {
@@ -1,7 +1,14 @@
 package org.protege.owl.server.configuration.factories;
 
 import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_CONFIGURATION_PATH;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_GROUP_COMMIT_WINDOW;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_LOAD_PARALLELISM;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_MEMORY_MAPPED_HISTORY;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_OBJECT_INTERNING;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_POOL_MEMORY_BUDGET;
 import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_ROOT_PATH;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_SNAPSHOT_INTERVAL;
+import static org.protege.owl.server.configuration.MetaprojectVocabulary.HAS_WARM_UP_COUNT;
 import static org.protege.owl.server.configuration.MetaprojectVocabulary.STANDARD_SERVER;
 
 import java.io.File;
@@ -9,7 +16,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.protege.owl.server.api.server.Server;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.core.ChangeDocumentPool;
 import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.core.SnapshotManager;
+import org.protege.owl.server.util.OWLObjectInterner;
 import org.protege.owl.server.util.ServerComponentFactoryAdapter;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLDataFactory;
@@ -38,7 +49,18 @@ public class CoreServerFactory extends ServerComponentFactoryAdapter {
 
 	@Override
 	public Server createServer(OWLIndividual i) {
-        return new ServerImpl(getRootPath(i), getConfigurationPath(i));
+        ServerImpl server = new ServerImpl(getRootPath(i), getConfigurationPath(i));
+        server.setMemoryMappedHistory(isMemoryMappedHistory(i));
+        server.setLoadParallelism(getLoadParallelism(i));
+        server.setInterningScope(getInterningScope(i));
+        server.setSnapshotInterval(getSnapshotInterval(i));
+        server.setGroupCommitWindow(getGroupCommitWindow(i));
+        server.setPoolMemoryBudget(getPoolMemoryBudget(i));
+        int warmUpCount = getWarmUpCount(i);
+        if (warmUpCount > 0) {
+            server.warmUp(warmUpCount);
+        }
+        return server;
 	}
 	
 	private File getRootPath(OWLIndividual i) {
@@ -56,6 +78,72 @@ public class CoreServerFactory extends ServerComponentFactoryAdapter {
 	        }
 	        return new File("configuration");
 	}
+	
+	private boolean isMemoryMappedHistory(OWLIndividual i) {
+	    for (OWLLiteral mappedLiteral : EntitySearcher.getDataPropertyValues(i, HAS_MEMORY_MAPPED_HISTORY, ontology)) {
+	        if (mappedLiteral.isBoolean()) {
+	            return mappedLiteral.parseBoolean();
+	        }
+	    }
+	    return false;
+	}
+	
+	private int getLoadParallelism(OWLIndividual i) {
+	    for (OWLLiteral parallelismLiteral : EntitySearcher.getDataPropertyValues(i, HAS_LOAD_PARALLELISM, ontology)) {
+	        if (parallelismLiteral.isInteger()) {
+	            return parallelismLiteral.parseInteger();
+	        }
+	    }
+	    return ChangeHistoryFile.DEFAULT_PARALLELISM;
+	}
+	
+	private OWLObjectInterner.Scope getInterningScope(OWLIndividual i) {
+	    for (OWLLiteral scopeLiteral : EntitySearcher.getDataPropertyValues(i, HAS_OBJECT_INTERNING, ontology)) {
+	        try {
+	            return OWLObjectInterner.Scope.valueOf(scopeLiteral.getLiteral().trim().toUpperCase());
+	        }
+	        catch (IllegalArgumentException iae) {
+	            logger.warn("Ignoring unknown object interning scope " + scopeLiteral.getLiteral());
+	        }
+	    }
+	    return OWLObjectInterner.Scope.NONE;
+	}
+	
+	private int getSnapshotInterval(OWLIndividual i) {
+	    for (OWLLiteral intervalLiteral : EntitySearcher.getDataPropertyValues(i, HAS_SNAPSHOT_INTERVAL, ontology)) {
+	        if (intervalLiteral.isInteger()) {
+	            return intervalLiteral.parseInteger();
+	        }
+	    }
+	    return SnapshotManager.DEFAULT_SNAPSHOT_INTERVAL;
+	}
+	
+	private long getGroupCommitWindow(OWLIndividual i) {
+	    for (OWLLiteral windowLiteral : EntitySearcher.getDataPropertyValues(i, HAS_GROUP_COMMIT_WINDOW, ontology)) {
+	        if (windowLiteral.isInteger()) {
+	            return windowLiteral.parseInteger();
+	        }
+	    }
+	    return 0;
+	}
+	
+	private long getPoolMemoryBudget(OWLIndividual i) {
+	    for (OWLLiteral budgetLiteral : EntitySearcher.getDataPropertyValues(i, HAS_POOL_MEMORY_BUDGET, ontology)) {
+	        if (budgetLiteral.isInteger()) {
+	            return budgetLiteral.parseInteger() * 1024L * 1024L;
+	        }
+	    }
+	    return ChangeDocumentPool.getDefaultMemoryBudget();
+	}
+	
+	private int getWarmUpCount(OWLIndividual i) {
+	    for (OWLLiteral countLiteral : EntitySearcher.getDataPropertyValues(i, HAS_WARM_UP_COUNT, ontology)) {
+	        if (countLiteral.isInteger()) {
+	            return countLiteral.parseInteger();
+	        }
+	    }
+	    return 0;
+	}
 
     @Override
     public String toString() {
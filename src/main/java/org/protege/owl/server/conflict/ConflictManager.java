@@ -1,9 +1,8 @@
 package org.protege.owl.server.conflict;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map.Entry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,16 +15,14 @@ import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.ConflictException;
 import org.protege.owl.server.api.exception.OWLServerException;
 import org.protege.owl.server.api.server.Server;
+import org.protege.owl.server.api.server.ServerFilter;
 import org.protege.owl.server.api.server.ServerOntologyDocument;
 import org.protege.owl.server.api.server.ServerTransport;
-import org.protege.owl.server.util.CollectingChangeVisitor;
+import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.util.ChangeUtilities;
 import org.protege.owl.server.util.ServerFilterAdapter;
+import org.protege.owl.server.util.TouchedKeyIndex;
 import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.model.ImportChange;
-import org.semanticweb.owlapi.model.OWLAnnotation;
-import org.semanticweb.owlapi.model.OWLAxiom;
-import org.semanticweb.owlapi.model.OWLAxiomChange;
-import org.semanticweb.owlapi.model.OWLImportsDeclaration;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
@@ -33,6 +30,8 @@ import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 public class ConflictManager extends ServerFilterAdapter {
     private Logger logger = LoggerFactory.getLogger(ConflictManager.class.getCanonicalName());
 
+    private OWLOntology placeholderOntology;
+
     public ConflictManager(Server delegate) {
         super(delegate);
     }
@@ -47,51 +46,56 @@ public class ConflictManager extends ServerFilterAdapter {
         super.commit(u, doc, proposedChanges);
     }
     
+    /*
+     * The conflicts are the changes of the commit that touch an axiom, import, ontology annotation or the ontology id
+     * that a revision after the base revision of the commit also touched.  They are looked up in the touched key index
+     * of the document, which only needs to visit the revisions that were committed since the last check.  The index is
+     * kept by the core server with the document's in-memory history, so it is dropped and rebuilt with the history.
+     */
     private List<OWLOntologyChange> getConflicts(AuthToken u, ServerOntologyDocument doc, ChangeHistory proposedChanges) throws OWLServerException {
-        List<OWLOntologyChange> conflicts = new ArrayList<OWLOntologyChange>();
-        OWLOntology fakeOntology;
-        try {
-            fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
-        }
-        catch (OWLOntologyCreationException ooce) {
-            throw new RuntimeException("Could not create empty ontology", ooce);
-        }
-        List<OWLOntologyChange> clientChanges = proposedChanges.getChanges(fakeOntology);
-        CollectingChangeVisitor collectedClientChanges = CollectingChangeVisitor.collectChanges(clientChanges);
+        List<OWLOntologyChange> clientChanges = ChangeUtilities.normalizeChangeDelta(proposedChanges.getChanges(getPlaceholderOntology()));
         OntologyDocumentRevision head = super.evaluateRevisionPointer(u, doc, RevisionPointer.HEAD_REVISION);
-        ChangeHistory fullServerHistory = getChanges(u, doc, OntologyDocumentRevision.START_REVISION, head);
-        for (OntologyDocumentRevision revision = proposedChanges.getStartRevision();
-                revision.compareTo(head) < 0;
-                revision = revision.next()) {
-            List<OWLOntologyChange> serverChanges = fullServerHistory.cropChanges(revision, revision.next()).getChanges(fakeOntology);
-            CollectingChangeVisitor collectedServerChanges = CollectingChangeVisitor.collectChanges(serverChanges);
-            addConflicts(collectedClientChanges, collectedServerChanges, conflicts);
+        TouchedKeyIndex index = getTouchedKeyIndex(doc);
+        synchronized (index) {
+            if (index.getEndRevision().compareTo(head) > 0) {
+                index.clear();
+            }
+            if (index.getEndRevision().compareTo(head) < 0) {
+                try {
+                    index.update(getChanges(u, doc, index.getEndRevision(), head));
+                }
+                catch (IOException ioe) {
+                    throw new OWLServerException(ioe);
+                }
+            }
+            return index.getConflicts(clientChanges, proposedChanges.getStartRevision());
         }
-        return conflicts;
     }
     
-    private void addConflicts(CollectingChangeVisitor clientChanges, CollectingChangeVisitor serverChanges, List<OWLOntologyChange> conflicts) {
-        if (clientChanges.getLastOntologyIDChange() != null && serverChanges.getLastOntologyIDChange() != null) {
-            conflicts.add(clientChanges.getLastOntologyIDChange());
+    /*
+     * A server that is not backed by the core server has nowhere to keep the index, so its index is built for each commit.
+     */
+    private TouchedKeyIndex getTouchedKeyIndex(ServerOntologyDocument doc) {
+        Server server = getDelegate();
+        while (server instanceof ServerFilter) {
+            server = ((ServerFilter) server).getDelegate();
         }
-        for (Entry<OWLImportsDeclaration, ImportChange> entry : clientChanges.getLastImportChangeMap().entrySet()) {
-            OWLImportsDeclaration decl = entry.getKey();
-            if (serverChanges.getLastImportChangeMap().containsKey(decl)) {
-                conflicts.add(entry.getValue());
-            }
+        if (server instanceof ServerImpl) {
+            return ((ServerImpl) server).getTouchedKeyIndex(doc);
         }
-        for (Entry<OWLAnnotation, OWLOntologyChange> entry : clientChanges.getLastOntologyAnnotationChangeMap().entrySet()) {
-            OWLAnnotation annotation = entry.getKey();
-            if (serverChanges.getLastOntologyAnnotationChangeMap().containsKey(annotation)) {
-                conflicts.add(entry.getValue());
+        return new TouchedKeyIndex();
+    }
+    
+    private synchronized OWLOntology getPlaceholderOntology() {
+        if (placeholderOntology == null) {
+            try {
+                placeholderOntology = OWLManager.createOWLOntologyManager().createOntology();
             }
-        }
-        for (Entry<OWLAxiom, OWLAxiomChange> entry : clientChanges.getLastAxiomChangeMap().entrySet()) {
-            OWLAxiom axiom = entry.getKey();
-            if (serverChanges.getLastAxiomChangeMap().containsKey(axiom)) {
-                conflicts.add(entry.getValue());
+            catch (OWLOntologyCreationException ooce) {
+                throw new RuntimeException("Could not create empty ontology", ooce);
             }
         }
+        return placeholderOntology;
     }
     
     @Override
@@ -94,6 +94,13 @@ public class LocalClient extends AbstractClient {
 	    OntologyDocumentRevision end = server.evaluateRevisionPointer(authToken, serverDoc, endPointer);
 		return server.getChanges(authToken, serverDoc, start, end);
 	}
+	
+	@Override
+	public OntologySnapshot getSnapshot(RemoteOntologyDocument document, RevisionPointer pointer) throws OWLServerException {
+	    ServerOntologyDocument serverDoc = document.createServerDocument();
+	    OntologyDocumentRevision revision = server.evaluateRevisionPointer(authToken, serverDoc, pointer);
+	    return server.getSnapshot(authToken, serverDoc, revision);
+	}
 
 	@Override
 	public void commit(RemoteOntologyDocument document,
@@ -143,6 +143,16 @@ public class RMIClient extends AbstractClient {
 	        throw processException(re);
 	    }
 	}
+	
+	@Override
+	public OntologySnapshot getSnapshot(RemoteOntologyDocument doc, RevisionPointer revision) throws OWLServerException {
+	    try {
+	        return server.getSnapshot(authToken, doc.createServerDocument(), revision);
+	    }
+	    catch (RemoteException re) {
+	        throw processException(re);
+	    }
+	}
 
 	@Override
 	public void commit(RemoteOntologyDocument doc,
@@ -8,6 +8,7 @@ import java.util.Map;
 import org.protege.owl.server.api.AuthToken;
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.server.ServerDirectory;
@@ -27,6 +28,8 @@ public interface RemoteServer  extends Remote {
 	ServerOntologyDocument createOntologyDocument(AuthToken u, IRI serverIRI, Map<String, Object> settings) throws RemoteException;
 	
 	ChangeHistory getChanges(AuthToken u, ServerOntologyDocument doc, RevisionPointer start, RevisionPointer end) throws RemoteException;
+	
+	OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, RevisionPointer revision) throws RemoteException;
 
 	void commit(AuthToken u, ServerOntologyDocument doc, 
 	             SingletonChangeHistory changes) throws RemoteException;
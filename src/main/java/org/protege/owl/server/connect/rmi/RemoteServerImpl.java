@@ -7,6 +7,7 @@ import java.util.Map;
 import org.protege.owl.server.api.AuthToken;
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.OWLServerException;
@@ -117,6 +118,19 @@ public class RemoteServerImpl implements RemoteServer {
 			throw new RemoteException(ioe.getMessage(), ioe);
 		}
 	}
+	
+	@Override
+	public OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, RevisionPointer pointer) throws RemoteException {
+	    try {
+	        OntologyDocumentRevision revision = server.evaluateRevisionPointer(u, doc, pointer);
+	        OntologySnapshot snapshot = server.getSnapshot(u, doc, revision);
+	        snapshot.setCompressionLimit(networkCompressionLimit);
+	        return snapshot;
+	    }
+	    catch (OWLServerException ioe) {
+	        throw new RemoteException(ioe.getMessage(), ioe);
+	    }
+	}
 
 	@Override
 	public void commit(AuthToken u, ServerOntologyDocument doc,
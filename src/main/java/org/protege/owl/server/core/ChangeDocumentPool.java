@@ -1,32 +1,86 @@
 package org.protege.owl.server.core;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.exception.OWLServerException;
 import org.protege.owl.server.api.server.ServerOntologyDocument;
 import org.protege.owl.server.api.server.ServerPath;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.util.OWLObjectInterner;
+import org.protege.owl.server.util.TouchedKeyIndex;
+import org.semanticweb.owlapi.model.OWLOntology;
 
+/**
+ * The change histories of the documents that are in use, kept in memory.
+ * <p>
+ * The pool is bounded by a memory budget.  Each entry has a weight that estimates the heap used by its history
+ * (see {@link ChangeDocumentPoolEntry#getWeight()}).  When the total weight is over the budget, the least recently
+ * used entries are evicted until it fits again.  The entry that was used last is never evicted, so a single history
+ * that is larger than the budget can still be used.  Entries that have not been used for the pool timeout are also
+ * evicted by a cleanup thread.
+ * <p>
+ * The entries are kept in a concurrent map keyed by the server path of the document, so looking up a document does not
+ * wait for the lookups of other documents.  An entry is put in the map before its history has been read and the history is
+ * loaded in the background, so a cold load of one document does not block the lookups of other documents.  An entry
+ * that is being evicted refuses new commits.  A caller that finds such an entry waits for its writes to finish and then
+ * looks the document up again.  The reads and writes of a history file all go through the queue of the file, so the
+ * file is never read, by a new entry or by a read that goes around the pool, while an older entry is still writing it.
+ * <p>
+ * When the pool is disposed it saves the paths of the documents in the order that they were last used, so that
+ * a restarted server can warm up the pool with the documents that are likely to be used first (see {@link #warmUp(Map)}).
+ */
 public class ChangeDocumentPool {
+    public static final int MAX_RECENT_DOCUMENTS = 1000;
+    
     private Logger logger = LoggerFactory.getLogger(ChangeDocumentPool.class.getCanonicalName());
     private ScheduledExecutorService executorService;
     private DocumentFactory docFactory;
     private final long timeout;
-    private Map<ServerOntologyDocument, ChangeDocumentPoolEntry> pool = new TreeMap<ServerOntologyDocument, ChangeDocumentPoolEntry>();
+    private ConcurrentMap<ServerPath, ChangeDocumentPoolEntry> pool = new ConcurrentHashMap<ServerPath, ChangeDocumentPoolEntry>();
+    private final Object evictionLock = new Object();
+    private long memoryBudget = getDefaultMemoryBudget();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
     private int consecutiveCleanupFailures = 0;
+    private boolean memoryMappedHistory = false;
+    private int loadParallelism = ChangeHistoryFile.DEFAULT_PARALLELISM;
+    private OWLObjectInterner.Scope interningScope = OWLObjectInterner.Scope.NONE;
+    private OWLObjectInterner serverInterner = new OWLObjectInterner();
+    private SnapshotManager snapshots = new SnapshotManager();
+    private CommitMetrics commitMetrics = new CommitMetrics();
+    private HistoryIOScheduler ioScheduler = new HistoryIOScheduler(HistoryIOScheduler.DEFAULT_THREAD_COUNT);
+    private long groupCommitWindow = 0;
+    private File recentDocumentsFile;
+    private ConcurrentMap<File, OntologyDocumentRevision> verifiedRevisions = new ConcurrentHashMap<File, OntologyDocumentRevision>();
     
     public ChangeDocumentPool(DocumentFactory docFactory, long timeout) {
         this.docFactory = docFactory;
@@ -48,16 +102,13 @@ public class ChangeDocumentPool {
             @Override
             public void run() {
                 try {
-                    for (Entry<ServerOntologyDocument, ChangeDocumentPoolEntry> entry : new HashSet<Entry<ServerOntologyDocument, ChangeDocumentPoolEntry>>(pool.entrySet())) {
-                        ServerOntologyDocument doc = entry.getKey();
+                    long now = System.currentTimeMillis();
+                    for (Entry<ServerPath, ChangeDocumentPoolEntry> entry : pool.entrySet()) {
                         ChangeDocumentPoolEntry poolEntry = entry.getValue();
-                        synchronized (pool) {
-                            long now = System.currentTimeMillis();
-                            if (poolEntry.getLastTouch() + timeout < now) {
-                                poolEntry.dispose();
-                                pool.remove(doc);
-                                logger.info("Disposed in-memory change history for " + doc);
-                            }
+                        if (poolEntry.getLastTouch() + timeout < now) {
+                            evict(entry.getKey(), poolEntry);
+                            expirations.incrementAndGet();
+                            logger.info("Disposed in-memory change history for " + entry.getKey());
                         }
                     }
                     consecutiveCleanupFailures = 0;
@@ -80,56 +131,608 @@ public class ChangeDocumentPool {
         }, timeout, timeout, TimeUnit.MILLISECONDS);
     }
     
+    public boolean isMemoryMappedHistory() {
+        return memoryMappedHistory;
+    }
+    
+    /**
+     * Determines whether the history files of the documents are read through memory mapped buffers.
+     * 
+     * @param memoryMappedHistory true if the history files should be memory mapped
+     */
+    public void setMemoryMappedHistory(boolean memoryMappedHistory) {
+        this.memoryMappedHistory = memoryMappedHistory;
+    }
+    
+    public int getLoadParallelism() {
+        return loadParallelism;
+    }
+    
+    public void setLoadParallelism(int loadParallelism) {
+        this.loadParallelism = loadParallelism;
+    }
+    
+    public OWLObjectInterner.Scope getInterningScope() {
+        return interningScope;
+    }
+    
+    /**
+     * Determines whether the objects decoded from the history files are canonicalized, and whether the canonical
+     * objects are shared by the documents of the server or only within the history of a single document.
+     * 
+     * @param interningScope the scope of the canonical objects
+     */
+    public void setInterningScope(OWLObjectInterner.Scope interningScope) {
+        this.interningScope = interningScope;
+    }
+    
+    public OWLObjectInterner getServerInterner() {
+        return serverInterner;
+    }
+    
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+    
+    /**
+     * Sets the time that the first commit of a batch waits for other commits before the batch is saved.  Commits
+     * that arrive while a batch is being saved are always grouped into the next batch.
+     * 
+     * @param groupCommitWindow the group commit window in milliseconds
+     */
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+    
+    public CommitMetrics getCommitMetrics() {
+        return commitMetrics;
+    }
+    
+    /**
+     * Returns the default memory budget of the pool, which is half of the maximum heap.
+     * 
+     * @return the default memory budget in bytes
+     */
+    public static long getDefaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+    
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+    
+    /**
+     * Sets the estimated heap that the change histories in the pool may use before the least recently used
+     * histories are evicted.  A budget of zero or less turns off eviction by weight.
+     * 
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+    
+    /**
+     * Returns the estimated heap used by the change histories in the pool.
+     * 
+     * @return the total weight of the pool entries in bytes
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (ChangeDocumentPoolEntry entry : pool.values()) {
+            weight += entry.getWeight();
+        }
+        return weight;
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    /**
+     * Returns the number of entries that were evicted because the pool was over its memory budget.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    /**
+     * Returns the number of entries that were evicted because they were not used for the pool timeout.
+     * 
+     * @return the number of expired entries
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+    
+    public HistoryIOScheduler getIOScheduler() {
+        return ioScheduler;
+    }
+    
+    public SnapshotManager getSnapshotManager() {
+        return snapshots;
+    }
+    
+    public File getRecentDocumentsFile() {
+        return recentDocumentsFile;
+    }
+    
+    /**
+     * Sets the file where the recently used documents are saved when the pool is disposed.
+     * 
+     * @param recentDocumentsFile the recently used documents file or null if the list should not be saved
+     */
+    public void setRecentDocumentsFile(File recentDocumentsFile) {
+        this.recentDocumentsFile = recentDocumentsFile;
+    }
+    
+    /**
+     * Returns the paths of the documents in the pool, most recently used first.
+     * 
+     * @return the recently used documents
+     */
+    public List<ServerPath> getRecentDocuments() {
+        List<Entry<ServerPath, ChangeDocumentPoolEntry>> entries = getEntriesByLastTouch();
+        List<ServerPath> recent = new ArrayList<ServerPath>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            recent.add(entries.get(i).getKey());
+        }
+        return recent;
+    }
+    
+    /**
+     * Reads the recently used documents that were saved when the pool was last disposed.
+     * 
+     * @return the recently used documents, most recently used first, or the empty list if none were saved
+     */
+    public List<ServerPath> readRecentDocuments() {
+        List<ServerPath> recent = new ArrayList<ServerPath>();
+        if (recentDocumentsFile == null || !recentDocumentsFile.exists()) {
+            return recent;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(recentDocumentsFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        recent.add(new ServerPath(line.trim()));
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException ioe) {
+            logger.warn("Could not read the recently used documents from " + recentDocumentsFile, ioe);
+        }
+        return recent;
+    }
+    
+    private void writeRecentDocuments() {
+        List<ServerPath> recent = getRecentDocuments();
+        if (recentDocumentsFile == null || recent.isEmpty()) {
+            return;
+        }
+        try {
+            PrintWriter writer = new PrintWriter(new FileWriter(recentDocumentsFile));
+            try {
+                for (ServerPath path : recent.subList(0, Math.min(recent.size(), MAX_RECENT_DOCUMENTS))) {
+                    writer.println(path.pathAsString());
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException ioe) {
+            logger.warn("Could not save the recently used documents to " + recentDocumentsFile, ioe);
+        }
+    }
+    
+    /**
+     * Loads documents into the pool ahead of their first use.  The documents are loaded in the given order, as many at a time
+     * as there are history I/O threads, until all of them are loaded or the pool reaches its memory budget.  This call
+     * waits for the loads and is expected to be made from a background thread.
+     * 
+     * @param documents the documents to load together with their history files
+     * @return the number of documents that were loaded
+     */
+    public int warmUp(Map<ServerOntologyDocument, File> documents) {
+        List<Entry<ServerOntologyDocument, File>> toLoad = new ArrayList<Entry<ServerOntologyDocument, File>>(documents.entrySet());
+        int loaded = 0;
+        for (int start = 0; start < toLoad.size(); start += HistoryIOScheduler.DEFAULT_THREAD_COUNT) {
+            if (memoryBudget > 0 && getWeight() >= memoryBudget) {
+                logger.info("Stopped warming up the change document pool at the memory budget");
+                break;
+            }
+            List<Future<ChangeHistory>> loads = new ArrayList<Future<ChangeHistory>>();
+            for (Entry<ServerOntologyDocument, File> document : toLoad.subList(start, Math.min(toLoad.size(), start + HistoryIOScheduler.DEFAULT_THREAD_COUNT))) {
+                ChangeDocumentPoolEntry created = new ChangeDocumentPoolEntry(docFactory, openHistoryFile(document.getValue()), ioScheduler, snapshots, commitMetrics, groupCommitWindow);
+                if (pool.putIfAbsent(document.getKey().getServerPath(), created) == null) {
+                    loads.add(created.load());
+                }
+            }
+            for (Future<ChangeHistory> load : loads) {
+                try {
+                    load.get();
+                    loaded++;
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return loaded;
+                }
+                catch (ExecutionException ee) {
+                    logger.warn("Could not warm up a change history", ee.getCause());
+                }
+            }
+        }
+        enforceMemoryBudget(null);
+        return loaded;
+    }
+    
+    /**
+     * Returns the change history of a document including the commits that are not saved yet.  This is the history
+     * that a commit is computed from.
+     * 
+     * @param doc the server document
+     * @param historyFile the history file of the document
+     * @return the change history
+     * @throws OWLServerException if the document could not be read
+     */
     public ChangeHistory getChangeDocument(ServerOntologyDocument doc, File historyFile) throws OWLServerException {
-        ChangeDocumentPoolEntry entry;
-        synchronized (pool) {
-            entry = pool.get(doc);
+        return getChangeDocument(doc, historyFile, false);
+    }
+    
+    /*
+     * Reads are served the saved history unless they are made by a commit, which must see the commits that were made
+     * before it even if they are not saved yet.
+     */
+    private ChangeHistory getReadableChangeDocument(ServerOntologyDocument doc, File historyFile) throws OWLServerException {
+        return getChangeDocument(doc, historyFile, !CommitBatch.isDeferring());
+    }
+    
+    private ChangeHistory getChangeDocument(ServerOntologyDocument doc, File historyFile, boolean durableOnly) throws OWLServerException {
+        ServerPath path = doc.getServerPath();
+        while (true) {
+            ChangeDocumentPoolEntry entry = pool.get(path);
+            boolean checkedOut = false;
             if (entry == null) {
-                entry = new ChangeDocumentPoolEntry(docFactory, historyFile);
-                pool.put(doc, entry);
-                logger.info("Checked out in-memory change history for " + doc);
+                ChangeDocumentPoolEntry created = new ChangeDocumentPoolEntry(docFactory, openHistoryFile(historyFile), ioScheduler, snapshots, commitMetrics, groupCommitWindow);
+                entry = pool.putIfAbsent(path, created);
+                if (entry == null) {
+                    entry = created;
+                    checkedOut = true;
+                    entry.load();
+                    logger.info("Checked out in-memory change history for " + doc);
+                }
+            }
+            if (entry.isDisposed()) {
+                retire(path, entry);
+                continue;
             }
+            (checkedOut ? misses : hits).incrementAndGet();
+            ChangeHistory changes = durableOnly ? entry.getDurableChangeDocument() : entry.getChangeDocument();
+            if (checkedOut) {
+                enforceMemoryBudget(path);
+                snapshots.update(historyFile, changes);
+            }
+            return changes;
         }
-        return entry.getChangeDocument();
     }
     
-    public void setChangeDocument(ServerOntologyDocument doc, File historyFile, ChangeHistory changes) {
-        synchronized (pool) {
-            ChangeDocumentPoolEntry entry = pool.get(doc);
-            if (entry != null) {
-                entry.setChangeDocument(changes);
+    /**
+     * Returns the placeholder ontology that the changes of a document refer to while a commit is computed.  A
+     * document that is not in the pool gets a new placeholder.
+     * 
+     * @param doc the document
+     * @return the placeholder ontology
+     */
+    public OWLOntology getPlaceholderOntology(ServerOntologyDocument doc) {
+        ChangeDocumentPoolEntry entry = pool.get(doc.getServerPath());
+        if (entry == null) {
+            return ChangeDocumentPoolEntry.createPlaceholderOntology();
+        }
+        return entry.getPlaceholderOntology();
+    }
+    
+    /**
+     * Returns the touched key index of a document, which is kept and counted with the change history of the
+     * document.  A document that is not in the pool gets a new empty index.
+     * 
+     * @param doc the document
+     * @return the touched key index
+     */
+    public TouchedKeyIndex getTouchedKeyIndex(ServerOntologyDocument doc) {
+        ChangeDocumentPoolEntry entry = pool.get(doc.getServerPath());
+        if (entry == null) {
+            return new TouchedKeyIndex();
+        }
+        return entry.getTouchedKeyIndex();
+    }
+    
+    /**
+     * Returns the latest snapshot of a document at or before a revision.
+     * 
+     * @param historyFile the history file of the document
+     * @param revision the revision
+     * @return the snapshot
+     */
+    public OntologySnapshot getSnapshot(File historyFile, OntologyDocumentRevision revision) {
+        return snapshots.getSnapshot(historyFile, revision);
+    }
+    
+    /**
+     * Returns the end revision of a document.  Only saved revisions are counted, except for the thread that is making
+     * a commit to the document.  If the document is not in the pool, the end revision is found
+     * from the index of the history file after the checksums of the records have been checked, and the document is not loaded.
+     * 
+     * @param doc the server document
+     * @param historyFile the history file of the document
+     * @return the end revision
+     * @throws OWLServerException if the document could not be read
+     */
+    public OntologyDocumentRevision getEndRevision(ServerOntologyDocument doc, final File historyFile) throws OWLServerException {
+        if (!isPooled(doc)) {
+            try {
+                OntologyDocumentRevision end = readUnpooled(historyFile, new Callable<OntologyDocumentRevision>() {
+                    @Override
+                    public OntologyDocumentRevision call() throws IOException {
+                        if (ChangeHistoryFile.isLegacyFormat(historyFile)) {
+                            return null;
+                        }
+                        return verify(openHistoryFile(historyFile));
+                    }
+                });
+                if (end != null) {
+                    return end;
+                }
+            }
+            catch (IOException ioe) {
+                logger.warn("Could not read the index of " + historyFile + ", loading the full history", ioe);
+            }
+        }
+        return getReadableChangeDocument(doc, historyFile).getEndRevision();
+    }
+    
+    /**
+     * Returns a range of revisions of a document.  Like {@link #getEndRevision(ServerOntologyDocument, File)}, only saved
+     * revisions are returned.  If the document is not in the pool and the range does not start at the
+     * beginning of the history, the revisions are read straight from disk using the index of the history file.  Otherwise
+     * the document is loaded into the pool.
+     * 
+     * @param doc the server document
+     * @param historyFile the history file of the document
+     * @param start the start revision
+     * @param end the end revision
+     * @return the changes between the start and end revisions
+     * @throws OWLServerException if the document could not be read
+     */
+    public ChangeHistory getChanges(ServerOntologyDocument doc, final File historyFile, final OntologyDocumentRevision start, final OntologyDocumentRevision end) throws OWLServerException {
+        if (!isPooled(doc) && start != null && start.compareTo(OntologyDocumentRevision.START_REVISION) > 0) {
+            try {
+                ChangeHistory changes = readUnpooled(historyFile, new Callable<ChangeHistory>() {
+                    @Override
+                    public ChangeHistory call() throws IOException {
+                        if (ChangeHistoryFile.isLegacyFormat(historyFile)) {
+                            return null;
+                        }
+                        ChangeHistoryFile changeHistoryFile = openHistoryFile(historyFile);
+                        verify(changeHistoryFile);
+                        return changeHistoryFile.read(start, end);
+                    }
+                });
+                if (changes != null) {
+                    return changes;
+                }
+            }
+            catch (IOException ioe) {
+                logger.warn("Could not read revisions " + start + " to " + end + " from " + historyFile + ", loading the full history", ioe);
+            }
+        }
+        return getReadableChangeDocument(doc, historyFile).cropChanges(start, end);
+    }
+    
+    /*
+     * A document can be evicted between the lookup in the pool and the read, while its last writes are still queued.
+     * The read is queued on the history file behind them, so it only sees the file once they have finished.
+     * A legacy history file is left to the pool, which migrates it when the history is loaded.
+     */
+    private <X> X readUnpooled(File historyFile, Callable<X> read) throws IOException, OWLServerException {
+        Future<X> result = ioScheduler.getQueue(historyFile).submit(read);
+        try {
+            return result.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new OWLServerException("Interrupted reading " + historyFile, ie);
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            else if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
             }
             else {
-                entry = new ChangeDocumentPoolEntry(docFactory, historyFile, changes);
-                pool.put(doc, entry);
+                throw new RuntimeException(ee);
             }
         }
     }
     
-    public boolean testServerLocation(ServerPath serverPath) {
-        synchronized (pool) {
-            return pool.containsKey(new ServerOntologyDocumentImpl(serverPath));
+    /*
+     * A history with a damaged record is not served from the index either.  The records are checked once, later
+     * reads only check the records that were appended since.  A damaged record makes the caller fall back to loading
+     * the history, which refuses to serve it.
+     */
+    private OntologyDocumentRevision verify(ChangeHistoryFile changeHistoryFile) throws IOException {
+        File historyFile = changeHistoryFile.getHistoryFile().getAbsoluteFile();
+        OntologyDocumentRevision verified = verifiedRevisions.get(historyFile);
+        if (verified != null && verified.compareTo(changeHistoryFile.getEndRevision()) > 0) {
+            verified = null;
         }
+        OntologyDocumentRevision end = changeHistoryFile.verify(verified);
+        verifiedRevisions.put(historyFile, end);
+        return end;
     }
     
-    public void dispose() {
-        synchronized (pool) {
-            for (ChangeDocumentPoolEntry entry : pool.values()) {
-                entry.dispose();
+    private ChangeHistoryFile openHistoryFile(File historyFile) {
+        ChangeHistoryFile changeHistoryFile = new ChangeHistoryFile(docFactory, historyFile);
+        changeHistoryFile.setMemoryMapped(memoryMappedHistory);
+        changeHistoryFile.setParallelism(loadParallelism);
+        switch (interningScope) {
+        case DOCUMENT:
+            changeHistoryFile.setInterner(new OWLObjectInterner());
+            break;
+        case SERVER:
+            changeHistoryFile.setInterner(serverInterner);
+            break;
+        default:
+            break;
+        }
+        return changeHistoryFile;
+    }
+    
+    private boolean isPooled(ServerOntologyDocument doc) {
+        return pool.containsKey(doc.getServerPath());
+    }
+    
+    /**
+     * Replaces the change history of a document.  The new history is saved in the background together with
+     * any other changes to the document that arrive at about the same time.  The history is snapshotted once
+     * it has been saved.
+     * 
+     * @param doc the server document
+     * @param historyFile the history file of the document
+     * @param base the history that the new history was computed from or null to replace the history unconditionally
+     * @param changes the new change history
+     * @return the batch that saves the new history
+     * @throws OWLServerException if the history of the document is no longer the base history
+     */
+    public CommitBatch setChangeDocument(ServerOntologyDocument doc, File historyFile, ChangeHistory base, ChangeHistory changes) throws OWLServerException {
+        ServerPath path = doc.getServerPath();
+        while (true) {
+            ChangeDocumentPoolEntry entry = pool.get(path);
+            if (entry == null) {
+                ChangeDocumentPoolEntry created;
+                if (base == null) {
+                    created = new ChangeDocumentPoolEntry(docFactory, openHistoryFile(historyFile), ioScheduler, snapshots, commitMetrics, groupCommitWindow, changes);
+                }
+                else {
+                    created = new ChangeDocumentPoolEntry(docFactory, openHistoryFile(historyFile), ioScheduler, snapshots, commitMetrics, groupCommitWindow);
+                }
+                entry = pool.putIfAbsent(path, created);
+                if (entry == null) {
+                    entry = created;
+                }
             }
-            pool.clear();
+            CommitBatch batch = entry.setChangeDocument(base, changes);
+            if (batch == null) {
+                retire(path, entry);
+                continue;
+            }
+            enforceMemoryBudget(path);
+            return batch;
+        }
+    }
+    
+    /*
+     * Disposes an entry and removes it from the pool.  The entry stays in the pool until its writes have finished.
+     */
+    private void evict(ServerPath path, ChangeDocumentPoolEntry entry) {
+        entry.dispose();
+        pool.remove(path, entry);
+    }
+    
+    /*
+     * Called when an entry that is being evicted by another thread is found in the pool.
+     */
+    private void retire(ServerPath path, ChangeDocumentPoolEntry entry) {
+        entry.sync();
+        pool.remove(path, entry);
+    }
+    
+    /*
+     * Evicts the least recently used entries, other than the entry for the given document, until the
+     * pool is within its memory budget.
+     */
+    private void enforceMemoryBudget(ServerPath lastUsed) {
+        if (memoryBudget <= 0 || getWeight() <= memoryBudget) {
+            return;
+        }
+        synchronized (evictionLock) {
+            List<Entry<ServerPath, ChangeDocumentPoolEntry>> entries = getEntriesByLastTouch();
+            long weight = getWeight();
+            for (Entry<ServerPath, ChangeDocumentPoolEntry> entry : entries) {
+                if (weight <= memoryBudget) {
+                    break;
+                }
+                ChangeDocumentPoolEntry poolEntry = entry.getValue();
+                if (entry.getKey().equals(lastUsed) || poolEntry.getWeight() == 0) {
+                    continue;
+                }
+                evict(entry.getKey(), poolEntry);
+                weight -= poolEntry.getWeight();
+                evictions.incrementAndGet();
+                logger.info("Evicted in-memory change history for " + entry.getKey() + " (" + (poolEntry.getWeight() / 1024) + " KB) to stay within the pool memory budget");
+            }
+        }
+    }
+    
+    /*
+     * The entries of the pool, least recently used first.
+     */
+    private List<Entry<ServerPath, ChangeDocumentPoolEntry>> getEntriesByLastTouch() {
+        List<Entry<ServerPath, ChangeDocumentPoolEntry>> entries = new ArrayList<Entry<ServerPath, ChangeDocumentPoolEntry>>(pool.entrySet());
+        Collections.sort(entries, new Comparator<Entry<ServerPath, ChangeDocumentPoolEntry>>() {
+            @Override
+            public int compare(Entry<ServerPath, ChangeDocumentPoolEntry> e1, Entry<ServerPath, ChangeDocumentPoolEntry> e2) {
+                return Long.compare(e1.getValue().getLastTouch(), e2.getValue().getLastTouch());
+            }
+        });
+        return entries;
+    }
+    
+    public boolean testServerLocation(ServerPath serverPath) {
+        return pool.containsKey(serverPath);
+    }
+    
+    /**
+     * Saves the pending changes of all the documents and stops the pool.  The pending batches of all the documents are
+     * submitted first so they are written in parallel, and the wait for all of them, together with the shutdown of
+     * the history I/O threads, is bounded by a single drain timeout.
+     */
+    public void dispose() {
+        writeRecentDocuments();
+        long deadline = System.currentTimeMillis() + ioScheduler.getDrainTimeout();
+        for (ChangeDocumentPoolEntry entry : pool.values()) {
+            entry.close();
+        }
+        for (Entry<ServerPath, ChangeDocumentPoolEntry> entry : pool.entrySet()) {
+            entry.getValue().dispose(deadline);
+            pool.remove(entry.getKey(), entry.getValue());
         }
         executorService.shutdown();
+        ioScheduler.shutdown(deadline);
+        snapshots.dispose();
+        if (commitMetrics.getBatchCount() > 0) {
+            logger.info("Group commit: " + commitMetrics);
+        }
+        logger.info("History I/O: " + ioScheduler);
+        logger.info("Change document pool: " + hits + " hits, " + misses + " misses, " + evictions + " evictions, " + expirations + " expired");
     }
     
     public void sync() {
-        List<ChangeDocumentPoolEntry> poolEntries;
-        synchronized (pool) { 
-            poolEntries = new ArrayList<ChangeDocumentPoolEntry>(pool.values());
-        }
-        for (ChangeDocumentPoolEntry poolEntry : poolEntries) {
+        for (ChangeDocumentPoolEntry poolEntry : pool.values()) {
             poolEntry.sync();
         }
+        snapshots.sync();
     }
 
 }
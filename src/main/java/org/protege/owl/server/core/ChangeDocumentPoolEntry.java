@@ -4,11 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,45 +12,120 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
 import org.protege.owl.server.api.exception.OWLServerException;
-import org.protege.owl.server.changes.ChangeHistoryUtilities;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.ChangeHistoryImpl;
+import org.protege.owl.server.changes.DamagedHistoryException;
+import org.protege.owl.server.util.TouchedKeyIndex;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
+/**
+ * The in-memory change history of a document.  The history is read and saved through the queue of the history
+ * file on the shared {@link HistoryIOScheduler}, so the reads and writes of a document happen one at a time, even
+ * across the entries that the pool creates for the document one after another.
+ * <p>
+ * Commits are saved with group commit.  The first commit that changes the history schedules a write after the
+ * group commit window.  Commits that arrive before the write starts join the same batch, and the batch is saved with
+ * a single append and force of the history file.  Commits that arrive while a batch is being written start the next batch.
+ * <p>
+ * The weight of an entry is an estimate of the heap used by its change history.  It is computed from the number
+ * of changes and the length of the history file.  The changes are counted when the history is loaded, after that
+ * the changes of each commit and the bytes of each append are added, so a commit does not visit the whole history.
+ * <p>
+ * A history file with a damaged record is not repaired by the server.  The server is the only copy of the revisions
+ * after the damaged record, so cutting the file back would lose them for good.  Instead the lost range is reported as
+ * an error, the file is left untouched and the document is not served until an operator has repaired it with
+ * {@link org.protege.owl.server.command.RepairHistory}, which keeps a copy of the damaged file.
+ *
+ * @author tredmond
+ */
 public class ChangeDocumentPoolEntry {
+    /*
+     * Rough heap cost of an ontology change together with its share of the axiom and entities, and of each byte
+     * of the history file once it has been decoded.
+     */
+    public static final int BYTES_PER_CHANGE        = 160;
+    public static final int BYTES_PER_HISTORY_BYTE  = 2;
+    public static final int BYTES_PER_TOUCHED_KEY   = 64;
+    public static final int BYTES_PER_CACHED_CHANGE = 16;
     
     private Logger logger = LoggerFactory.getLogger(ChangeDocumentPoolEntry.class.getCanonicalName());
     private DocumentFactory factory;
-    private ChangeHistory changeDocument;
+    private volatile ChangeHistory changeDocument;
+    private ChangeHistory durableChangeDocument;
     private Future<ChangeHistory> readChangeDocumentTask;
     private File historyFile;
-    private long lastTouch;
+    private ChangeHistoryFile changeHistoryFile;
+    private volatile long lastTouch;
+    private CommitMetrics metrics;
+    private SnapshotManager snapshots;
+    private long groupCommitWindow;
+    private CommitBatch pendingBatch;
+    private volatile long weight;
+    private volatile long changeCount;
+    private volatile long historyBytes;
+    private HistoryIOScheduler.SerialQueue queue;
+    private volatile boolean disposed = false;
+    private OWLOntology placeholderOntology;
+    private volatile TouchedKeyIndex touchedKeyIndex;
     
-    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
-       @Override
-        public Thread newThread(Runnable r) {
-           Thread thread = new Thread(r, "Change Document Updates for " + historyFile);
-           return thread;
-        } 
-    });
-    
-    public ChangeDocumentPoolEntry(DocumentFactory factory, final File historyFile) {
+    public ChangeDocumentPoolEntry(DocumentFactory factory, ChangeHistoryFile changeHistoryFile, HistoryIOScheduler scheduler, SnapshotManager snapshots, CommitMetrics metrics, long groupCommitWindow) {
         this.factory = factory;
-        this.historyFile = historyFile;
+        this.historyFile = changeHistoryFile.getHistoryFile();
+        this.changeHistoryFile = changeHistoryFile;
+        this.queue = scheduler.getQueue(historyFile);
+        this.snapshots = snapshots;
+        this.metrics = metrics;
+        this.groupCommitWindow = groupCommitWindow;
         touch();
-        readChangeDocumentTask = executor.submit(new ReadChangeDocument());
     }
     
-    public ChangeDocumentPoolEntry(DocumentFactory factory, File historyFile, ChangeHistory changes) {
+    /*
+     * An entry for a history that is not on disk yet.  The caller is expected to save the history with setChangeDocument.
+     */
+    public ChangeDocumentPoolEntry(DocumentFactory factory, ChangeHistoryFile changeHistoryFile, HistoryIOScheduler scheduler, SnapshotManager snapshots, CommitMetrics metrics, long groupCommitWindow, ChangeHistory changes) {
         this.factory = factory;
-        this.historyFile = historyFile;
+        this.historyFile = changeHistoryFile.getHistoryFile();
+        this.changeHistoryFile = changeHistoryFile;
+        this.queue = scheduler.getQueue(historyFile);
+        this.snapshots = snapshots;
+        this.metrics = metrics;
+        this.groupCommitWindow = groupCommitWindow;
         this.changeDocument = changes;
         touch();
-        executor.submit(new WriteChanges(changes));
+        changeCount = countChanges(changes);
+        updateWeight();
+    }
+    
+    /**
+     * Starts reading the change history in the background if it has not been started yet.
+     * 
+     * @return the task that reads the change history or null if the history was not read from disk
+     */
+    public synchronized Future<ChangeHistory> load() {
+        if (changeDocument == null && readChangeDocumentTask == null) {
+            readChangeDocumentTask = queue.submit(new ReadChangeDocument());
+        }
+        return readChangeDocumentTask;
+    }
+    
+    public boolean isDisposed() {
+        return disposed;
     }
     
     public ChangeHistory getChangeDocument() throws OWLServerException {
         touch();
-        if (changeDocument == null) {
+        Future<ChangeHistory> task;
+        if (changeDocument == null && (task = load()) != null) {
             try {
-                changeDocument = readChangeDocumentTask.get();
+                ChangeHistory changes = task.get();
+                synchronized (this) {
+                    if (changeDocument == null) {
+                        changeDocument = changes;
+                        durableChangeDocument = changes;
+                    }
+                }
             }
             catch (InterruptedException ie) {
                 throw new RuntimeException(ie);
@@ -71,47 +142,222 @@ public class ChangeDocumentPoolEntry {
         return changeDocument;
     }
     
-    public void setChangeDocument(final ChangeHistory newChangeDocument) {
+    /**
+     * Returns the part of the change history that has been saved.  The revisions of a batch that is still being
+     * saved are left out until the batch is on disk, so a reader never sees a revision that a failed write could roll back.
+     * 
+     * @return the saved change history
+     * @throws OWLServerException if the history could not be read
+     */
+    public ChangeHistory getDurableChangeDocument() throws OWLServerException {
+        ChangeHistory changes = getChangeDocument();
+        synchronized (this) {
+            if (durableChangeDocument != null) {
+                return durableChangeDocument;
+            }
+        }
+        OntologyDocumentRevision start = changes.getStartRevision();
+        return changes.cropChanges(start, start);
+    }
+    
+    /**
+     * Replaces the in-memory change history and adds the change to the batch that will be saved next.
+     * <p>
+     * The new history is computed from the history that the caller read from this entry.  If that history is no longer
+     * the current history, because a failed write rolled the history back in the meantime, the new history is rejected.
+     * 
+     * @param baseChangeDocument the history that the new history was computed from or null to replace the history unconditionally
+     * @param newChangeDocument the new change history
+     * @return the batch that saves the new change history or null if this entry has been disposed
+     * @throws OWLServerException if the new history was not computed from the current history
+     */
+    public synchronized CommitBatch setChangeDocument(ChangeHistory baseChangeDocument, final ChangeHistory newChangeDocument) throws OWLServerException {
+        if (disposed) {
+            return null;
+        }
+        if (baseChangeDocument != null && !isCurrent(baseChangeDocument)) {
+            throw new OWLServerException("The history of " + historyFile + " changed while the commit was made - the commit was not applied");
+        }
     	if (logger.isDebugEnabled()) {
     		logger.debug("Setting change document for " + historyFile + " to change doc ending at revision " + newChangeDocument.getEndRevision());
     	}
         touch();
+        changeCount = countChanges(changeDocument, newChangeDocument);
         this.changeDocument = newChangeDocument;
-        executor.submit(new WriteChanges(newChangeDocument));
+        updateWeight();
+        if (pendingBatch == null) {
+            pendingBatch = new CommitBatch();
+            queue.schedule(new WriteChanges(), groupCommitWindow);
+        }
+        pendingBatch.add();
+        return pendingBatch;
+    }
+    
+    /*
+     * The history read from an entry is still current if nothing has replaced it since, or if it is the history that
+     * is saved on disk, which is the case when the entry was evicted and read again while the commit was made.
+     */
+    private boolean isCurrent(ChangeHistory baseChangeDocument) throws OWLServerException {
+        ChangeHistory current = getChangeDocument();
+        if (baseChangeDocument == current) {
+            return true;
+        }
+        return current == durableChangeDocument && pendingBatch == null
+                    && current.getEndRevision().equals(baseChangeDocument.getEndRevision());
+    }
+    
+    /**
+     * Returns the ontology that the changes of this document refer to while a commit is computed.  It is created the
+     * first time it is needed and kept with the entry, so commits do not create an ontology manager each time.
+     * 
+     * @return the placeholder ontology of this document
+     */
+    public synchronized OWLOntology getPlaceholderOntology() {
+        if (placeholderOntology == null) {
+            placeholderOntology = createPlaceholderOntology();
+        }
+        return placeholderOntology;
+    }
+    
+    /**
+     * Returns the index of the keys that the revisions of this document touched.  The index is created empty the
+     * first time it is needed and lives as long as this entry.  The caller brings it up to date.
+     * 
+     * @return the touched key index of this document
+     */
+    public synchronized TouchedKeyIndex getTouchedKeyIndex() {
+        if (touchedKeyIndex == null) {
+            touchedKeyIndex = new TouchedKeyIndex();
+        }
+        return touchedKeyIndex;
+    }
+    
+    static OWLOntology createPlaceholderOntology() {
+        try {
+            return OWLManager.createOWLOntologyManager().createOntology();
+        }
+        catch (OWLOntologyCreationException ooce) {
+            throw new IllegalStateException("Could not create empty ontology", ooce);
+        }
     }
     
     public long getLastTouch() {
         return lastTouch;
     }
     
+    /**
+     * Returns the estimated heap used by the change history of this entry, by the net deltas that the history has
+     * cached and by its touched key index.  The weight is zero until the history has been loaded.
+     * 
+     * @return the estimated size of the change history in bytes
+     */
+    public long getWeight() {
+        long total = weight;
+        ChangeHistory changes = changeDocument;
+        if (changes instanceof ChangeHistoryImpl) {
+            total += (long) ((ChangeHistoryImpl) changes).getCachedChangeCount() * BYTES_PER_CACHED_CHANGE;
+        }
+        TouchedKeyIndex index = touchedKeyIndex;
+        if (index != null) {
+            total += (long) index.size() * BYTES_PER_TOUCHED_KEY;
+        }
+        return total;
+    }
+    
+    private void updateWeight() {
+        weight = changeCount * BYTES_PER_CHANGE + historyBytes * BYTES_PER_HISTORY_BYTE;
+    }
+    
+    private static long countChanges(ChangeHistory changes) {
+        if (changes instanceof ChangeHistoryImpl) {
+            return ((ChangeHistoryImpl) changes).getChangeCount();
+        }
+        else {
+            return changes.getEndRevision().getRevisionDifferenceFrom(changes.getStartRevision());
+        }
+    }
+    
+    /*
+     * A commit extends the current history, so only the changes of the new revisions are counted.
+     */
+    private long countChanges(ChangeHistory oldChanges, ChangeHistory newChanges) {
+        if (oldChanges == null
+                || !newChanges.getStartRevision().equals(oldChanges.getStartRevision())
+                || newChanges.getEndRevision().compareTo(oldChanges.getEndRevision()) < 0) {
+            return countChanges(newChanges);
+        }
+        else if (newChanges instanceof ChangeHistoryImpl) {
+            return changeCount + ((ChangeHistoryImpl) newChanges).getChangeCount(oldChanges.getEndRevision(), newChanges.getEndRevision());
+        }
+        else {
+            return changeCount + newChanges.getEndRevision().getRevisionDifferenceFrom(oldChanges.getEndRevision());
+        }
+    }
+    
+    /**
+     * Saves the pending batch without waiting for the rest of the group commit window and waits for the
+     * reads and writes of this entry to finish.  A disposed entry does not accept any more changes.
+     */
     public void dispose() {
-        executor.shutdown();
+        close();
         sync();
     }
     
-    public void sync() {
-        try {
-            executor.awaitTermination(60, TimeUnit.MINUTES);
-        }
-        catch (InterruptedException ie) {
-            throw new RuntimeException(ie);
+    /**
+     * Like {@link #dispose()} but gives up waiting for the reads and writes at a deadline that is shared with
+     * the other entries that are disposed at the same time.
+     * 
+     * @param deadline the time to give up as reported by <code>System.currentTimeMillis()</code>
+     * @return true if the reads and writes of this entry finished before the deadline
+     */
+    public boolean dispose(long deadline) {
+        close();
+        return queue.drain(deadline);
+    }
+    
+    /**
+     * Stops accepting changes and submits the pending batch without waiting for it.
+     */
+    public synchronized void close() {
+        disposed = true;
+        if (pendingBatch != null) {
+            queue.submit(new WriteChanges());
         }
     }
     
+    public void sync() {
+        queue.drain();
+    }
+    
     private void touch() {
         this.lastTouch = System.currentTimeMillis();
     }
     
     private class ReadChangeDocument implements Callable<ChangeHistory> {
         @Override
-        public ChangeHistory call() throws IOException {
-            File backup = getBackupHistoryFile(historyFile);
+        public ChangeHistory call() throws IOException, OWLServerException {
+            ChangeHistory changes = readChanges();
+            changeCount = countChanges(changes);
+            historyBytes = changeHistoryFile.getLength();
+            updateWeight();
+            return changes;
+        }
+        
+        private ChangeHistory readChanges() throws IOException, OWLServerException {
+            File backup = ChangeHistoryFile.getBackupHistoryFile(historyFile);
             try {
-                return ChangeHistoryUtilities.readChanges(factory, historyFile, OntologyDocumentRevision.START_REVISION, null);
+                return changeHistoryFile.read();
+            }
+            catch (DamagedHistoryException damage) {
+                OntologyDocumentRevision recordedEnd = changeHistoryFile.getRecordedEndRevision(historyFile);
+                String message = "Revisions " + damage.getDamagedRevision() + " to " + recordedEnd + " of " + historyFile
+                                    + " are damaged.  The document will not be served until the history is repaired with the RepairHistory command.";
+                logger.error(message, damage);
+                throw new OWLServerException(message, damage);
             }
             catch (RuntimeException err) {
                 if (backup.exists()) {
-                    return ChangeHistoryUtilities.readChanges(factory, backup, OntologyDocumentRevision.START_REVISION, null);
+                    return recoverFromBackup(err);
                 }
                 else {
                     throw err;
@@ -119,80 +365,113 @@ public class ChangeDocumentPoolEntry {
             }
             catch (IOException ioe) {
                 if (backup.exists()) {
-                    return ChangeHistoryUtilities.readChanges(factory, backup, OntologyDocumentRevision.START_REVISION, null);
+                    return recoverFromBackup(ioe);
                 }
                 else {
                     throw ioe;
                 }
             }
         }
-    }
-    
-    private class WriteChanges implements Callable<Boolean> {
-        private ChangeHistory newChangeDocument;
         
-        public WriteChanges(ChangeHistory newChangeDocument) {
-            this.newChangeDocument = newChangeDocument;
-            if (logger.isDebugEnabled()) {
-            	logger.debug("Created writer for " + historyFile + " and change document ending at " + newChangeDocument.getEndRevision());
+        /*
+         * The backup is only used if it is at least as recent as the history file.  Otherwise both files are left
+         * alone and the document is not served.
+         */
+        private ChangeHistory recoverFromBackup(Exception readFailure) throws IOException {
+            logger.warn("Could not read " + historyFile + ", trying the backup", readFailure);
+            try {
+                return changeHistoryFile.recoverFromBackup();
+            }
+            catch (IOException ioe) {
+                logger.error("Could not recover " + historyFile + " from the backup - the document will not be served", ioe);
+                ioe.addSuppressed(readFailure);
+                throw ioe;
             }
         }
+    }
+    
+    private class WriteChanges implements Callable<Boolean> {
         
         @Override
         public Boolean call() {
+            CommitBatch batch;
+            ChangeHistory newChangeDocument;
+            synchronized (ChangeDocumentPoolEntry.this) {
+                batch = pendingBatch;
+                pendingBatch = null;
+                newChangeDocument = changeDocument;
+            }
+            if (batch == null) {
+                return true;
+            }
+            long startTime = System.nanoTime();
+            Throwable failure = null;
             try {
-                if (changeDocument == newChangeDocument) {
-                    prepareToSave(historyFile);
-                    
-                    long startTime = System.currentTimeMillis();
-                                        
-                    ChangeHistoryUtilities.writeChanges(newChangeDocument, historyFile);
-                    
-                    long interval = System.currentTimeMillis() - startTime;
-                    if (interval > 1000) {
-                        logger.info("Save of " + historyFile + " took " + (interval / 1000) + " seconds.");
-                    }
-                    else if (logger.isDebugEnabled()) {
-                    	logger.debug("Wrote new " + historyFile);
-                    }
+                changeHistoryFile.append(newChangeDocument);
+                synchronized (ChangeDocumentPoolEntry.this) {
+                    durableChangeDocument = newChangeDocument;
+                    historyBytes = changeHistoryFile.getLength();
+                    updateWeight();
+                }
+                updateSnapshots(newChangeDocument);
+                
+                long interval = (System.nanoTime() - startTime) / 1000000;
+                if (interval > 1000) {
+                    logger.info("Save of " + historyFile + " took " + (interval / 1000) + " seconds.");
                 }
                 else if (logger.isDebugEnabled()) {
-                	logger.debug("This is not the latest change document");
-                	logger.debug("Was supposed to save doc with end revision " + newChangeDocument.getEndRevision());
-                	logger.debug("But now have new save doc with end revision " + changeDocument.getEndRevision());
+                	logger.debug("Appended " + batch.size() + " commits to " + historyFile + " up to revision " + newChangeDocument.getEndRevision());
                 }
                 return true;
             }
             catch (Throwable t) {
                 logger.error("Exception caught writing history file", t);
+                failure = t;
+                rollBack(t);
                 return false;
             }
+            finally {
+                long endTime = System.nanoTime();
+                metrics.record(batch.size(), endTime - batch.getCreateTime(), endTime - startTime, failure != null);
+                batch.complete(failure);
+            }
         }
         
-        private void prepareToSave(File historyFile) {
-        	if (logger.isDebugEnabled()) {
-        		logger.debug("Preparing backup for " + historyFile);
-        	}
-            File backup = getBackupHistoryFile(historyFile);
-            if (historyFile.exists() && backup.exists()) {
-                backup.delete();
-                if (logger.isDebugEnabled()) {
-                	logger.debug("Old backup removed");
-                }
+        /*
+         * Only saved histories are snapshotted.  A snapshot that fails does not undo the commit.
+         */
+        private void updateSnapshots(ChangeHistory savedChangeDocument) {
+            try {
+                snapshots.update(historyFile, savedChangeDocument);
             }
-            if (historyFile.exists()) {
-                historyFile.renameTo(backup);
-                if (logger.isDebugEnabled()) {
-                	logger.debug("Moved " + historyFile + " to " + backup);
-                }
+            catch (RuntimeException e) {
+                logger.warn("Could not update the snapshots of " + historyFile, e);
             }
         }
     }
     
-    private File getBackupHistoryFile(File historyFile) {
-        String path = historyFile.getAbsolutePath();
-        return new File(path + ".~");
+    /*
+     * Undoes the commits that were not saved.  The in-memory history goes back to the last history that is on disk,
+     * or is read again from disk if none is known, and the batch that was built on top of the failed batch fails too
+     * because its commits were computed from revisions that are now gone.
+     */
+    private synchronized void rollBack(Throwable failure) {
+        changeDocument = durableChangeDocument;
+        if (changeDocument == null) {
+            readChangeDocumentTask = null;
+            changeCount = 0;
+            historyBytes = 0;
+        }
+        else {
+            changeCount = countChanges(changeDocument);
+        }
+        updateWeight();
+        if (pendingBatch != null) {
+            pendingBatch.complete(failure);
+            pendingBatch = null;
+        }
+        logger.warn("Rolled the history of " + historyFile + " back to revision "
+                        + (changeDocument == null ? "on disk" : changeDocument.getEndRevision().toString()));
     }
-    
         
 }
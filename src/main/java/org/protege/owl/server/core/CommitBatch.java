@@ -0,0 +1,108 @@
+package org.protege.owl.server.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.protege.owl.server.api.exception.OWLServerException;
+
+/**
+ * A group of commits to a single document that are saved to disk with one write and one force of the history file.
+ * <p>
+ * A commit is added to the batch that is waiting to be written when the commit is made in memory.  The commit
+ * should not return to the client until its batch is durable.  When the per-document lock of the {@link SynchronizationFilter}
+ * is held while waiting, the next commit to that document cannot join the batch.  The synchronization filter
+ * therefore opens a deferral scope on the calling thread.  The core server hands its batch to that scope, and the filter
+ * waits for the batch after it has released the document.  When there is no deferral scope the core server waits itself.
+ * Because the document is released before its batch is durable, the readers of the document are only given the
+ * revisions that have been saved, see {@link #isDeferring()}.
+ *
+ * @author tredmond
+ */
+class CommitBatch {
+    private static final ThreadLocal<List<CommitBatch>> deferredBatches = new ThreadLocal<List<CommitBatch>>();
+
+    private final long createTime = System.nanoTime();
+    private final CountDownLatch durable = new CountDownLatch(1);
+    private int size;
+    private Throwable failure;
+
+    public synchronized void add() {
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time that the first commit of this batch was added in nanoseconds as reported by <code>System.nanoTime()</code>.
+     *
+     * @return the creation time of this batch
+     */
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public void complete(Throwable failure) {
+        this.failure = failure;
+        durable.countDown();
+    }
+
+    public void await() throws OWLServerException {
+        try {
+            durable.await();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new OWLServerException("Interrupted waiting for the commit to be saved", ie);
+        }
+        if (failure != null) {
+            throw new OWLServerException("Commit could not be saved to disk", failure);
+        }
+    }
+
+    public static void beginDeferral() {
+        deferredBatches.set(new ArrayList<CommitBatch>());
+    }
+
+    /**
+     * Tells whether the current thread is making a commit whose batches are waited for at the end of the commit.
+     * Such a thread sees the revisions that are not saved yet, the other threads only see the saved revisions.
+     * 
+     * @return true if the current thread has a deferral scope
+     */
+    public static boolean isDeferring() {
+        return deferredBatches.get() != null;
+    }
+
+    /**
+     * Hands a batch to the deferral scope of the current thread.
+     *
+     * @param batch the batch
+     * @return true if the current thread has a deferral scope that will wait for the batch
+     */
+    public static boolean defer(CommitBatch batch) {
+        List<CommitBatch> batches = deferredBatches.get();
+        if (batches == null) {
+            return false;
+        }
+        batches.add(batch);
+        return true;
+    }
+
+    /**
+     * Closes the deferral scope of the current thread and waits for the batches that were handed to it.
+     *
+     * @throws OWLServerException if a batch could not be saved
+     */
+    public static void endDeferral() throws OWLServerException {
+        List<CommitBatch> batches = deferredBatches.get();
+        deferredBatches.remove();
+        if (batches != null) {
+            for (CommitBatch batch : batches) {
+                batch.await();
+            }
+        }
+    }
+}
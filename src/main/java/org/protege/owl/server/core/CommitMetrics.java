@@ -0,0 +1,97 @@
+package org.protege.owl.server.core;
+
+/**
+ * Statistics about the group commit of history files.
+ * <p>
+ * The batch latency is the time from the first commit of a batch until the batch is durable on disk.  This is
+ * the longest time that any commit in the batch waited for the disk.
+ * <p>
+ * The commit latency histogram counts the commits by the time the server took to accept them, from the start of the
+ * commit until the new revision was added to the history and, unless the commit was deferred, saved.  Bucket i counts
+ * the commits that took at least 2^i and less than 2^(i+1) microseconds; the first bucket also counts the faster ones.
+ *
+ * @author tredmond
+ */
+public class CommitMetrics {
+    public static final int LATENCY_BUCKETS = 32;
+
+    private long batches;
+    private long commits;
+    private int maxBatchSize;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private long totalWriteNanos;
+    private long failedBatches;
+    private long[] commitLatencyBuckets = new long[LATENCY_BUCKETS];
+
+    synchronized void record(int batchSize, long latencyNanos, long writeNanos, boolean failed) {
+        batches++;
+        commits += batchSize;
+        maxBatchSize = Math.max(maxBatchSize, batchSize);
+        totalLatencyNanos += latencyNanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+        totalWriteNanos += writeNanos;
+        if (failed) {
+            failedBatches++;
+        }
+    }
+
+    synchronized void recordCommit(long latencyNanos) {
+        long micros = latencyNanos / 1000;
+        int bucket = micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+        commitLatencyBuckets[Math.min(bucket, LATENCY_BUCKETS - 1)]++;
+    }
+
+    public synchronized long getBatchCount() {
+        return batches;
+    }
+
+    public synchronized long getCommitCount() {
+        return commits;
+    }
+
+    public synchronized long getFailedBatchCount() {
+        return failedBatches;
+    }
+
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public synchronized double getAverageBatchSize() {
+        return batches == 0 ? 0 : ((double) commits) / batches;
+    }
+
+    public synchronized double getAverageLatencyMillis() {
+        return batches == 0 ? 0 : totalLatencyNanos / (batches * 1000000.0);
+    }
+
+    public synchronized double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1000000.0;
+    }
+
+    /**
+     * Returns the average time taken to write and force a batch.
+     *
+     * @return the average write time in milliseconds
+     */
+    public synchronized double getAverageWriteMillis() {
+        return batches == 0 ? 0 : totalWriteNanos / (batches * 1000000.0);
+    }
+
+    /**
+     * Returns the histogram of commit latencies.
+     *
+     * @return the number of commits in each power of two bucket of microseconds
+     */
+    public synchronized long[] getCommitLatencyHistogram() {
+        return commitLatencyBuckets.clone();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d commits in %d batches (average size %.2f, max %d), latency average %.2f ms max %.2f ms, write average %.2f ms, %d failed",
+                             commits, batches, getAverageBatchSize(), maxBatchSize,
+                             getAverageLatencyMillis(), getMaxLatencyMillis(), getAverageWriteMillis(), failedBatches);
+    }
+}
@@ -0,0 +1,279 @@
+package org.protege.owl.server.core;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads that read and write the history files of the server.
+ * <p>
+ * A fixed number of threads is shared by all the documents.  Each history file has its own {@link SerialQueue}
+ * so the reads and writes of one document run one at a time and in the order that they were
+ * submitted, while the work of different documents runs in parallel.  A queue holds at most one task in the
+ * thread pool at a time, so a document with a long backlog cannot starve the other documents.
+ *
+ * @author tredmond
+ */
+public class HistoryIOScheduler {
+    public static final int  DEFAULT_THREAD_COUNT  = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    public static final long DEFAULT_DRAIN_TIMEOUT = 60 * 1000;
+
+    private Logger logger = LoggerFactory.getLogger(HistoryIOScheduler.class.getCanonicalName());
+    private ScheduledThreadPoolExecutor executor;
+    private long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private long completed;
+    private final ConcurrentMap<File, SerialQueue> fileQueues = new ConcurrentHashMap<File, SerialQueue>();
+
+    public HistoryIOScheduler(int threadCount) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "History I/O " + threadNumber.incrementAndGet());
+            }
+        });
+    }
+
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Sets the longest time that a shutdown or a sync of a queue waits for the queued work to finish.
+     *
+     * @param drainTimeout the drain timeout in milliseconds
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+    public SerialQueue createQueue(String name) {
+        return new SerialQueue(name);
+    }
+
+    /**
+     * Returns the queue of a history file.  All the work on a file goes through the same queue, so the work of an entry
+     * that has been evicted from the pool, of the entry that replaces it and of the reads that go around the pool runs
+     * one at a time and in order.
+     *
+     * @param historyFile the history file
+     * @return the queue of the history file
+     */
+    public SerialQueue getQueue(File historyFile) {
+        File key = historyFile.getAbsoluteFile();
+        SerialQueue queue = fileQueues.get(key);
+        if (queue == null) {
+            SerialQueue created = new SerialQueue(key.getName());
+            queue = fileQueues.putIfAbsent(key, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Returns the number of tasks that have been submitted to a queue and have not finished.  Tasks that are
+     * scheduled to be submitted later are not counted.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    public synchronized long getCompletedTaskCount() {
+        return completed;
+    }
+
+    /**
+     * Stops the threads after the work that has been submitted has finished.  Work that has not finished after
+     * the drain timeout is abandoned.
+     *
+     * @return true if all the work finished
+     */
+    public boolean shutdown() {
+        return shutdown(System.currentTimeMillis() + drainTimeout);
+    }
+
+    /**
+     * Stops the threads after the work that has been submitted has finished.  Work that has not finished by
+     * the deadline is abandoned.
+     *
+     * @param deadline the time to give up as reported by <code>System.currentTimeMillis()</code>
+     * @return true if all the work finished
+     */
+    public boolean shutdown(long deadline) {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        logger.warn("Abandoning " + queued.get() + " history reads and writes that did not finish in time");
+        executor.shutdownNow();
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d tasks completed, queue depth %d (max %d)", getCompletedTaskCount(), getQueueDepth(), getMaxQueueDepth());
+    }
+
+    private void taskQueued() {
+        int depth = queued.incrementAndGet();
+        int max;
+        while ((max = maxQueued.get()) < depth && !maxQueued.compareAndSet(max, depth)) {
+            ;
+        }
+    }
+
+    private void taskDone() {
+        queued.decrementAndGet();
+        synchronized (this) {
+            completed++;
+        }
+    }
+
+    /**
+     * The work of a single document.
+     */
+    public class SerialQueue {
+        private final String name;
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private boolean running = false;
+        private int scheduled = 0;
+
+        private SerialQueue(String name) {
+            this.name = name;
+        }
+
+        public <X> Future<X> submit(Callable<X> task) {
+            FutureTask<X> future = new FutureTask<X>(task);
+            enqueue(future);
+            return future;
+        }
+
+        /**
+         * Submits a task to this queue after a delay.  The task runs after the tasks that were submitted before
+         * the delay expired.
+         *
+         * @param task the task
+         * @param delay the delay in milliseconds
+         */
+        public void schedule(final Callable<?> task, long delay) {
+            synchronized (this) {
+                scheduled++;
+            }
+            Runnable delayed = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SerialQueue.this) {
+                        scheduled--;
+                    }
+                    submit(task);
+                }
+            };
+            try {
+                executor.schedule(delayed, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException ree) {
+                delayed.run();
+            }
+        }
+
+        /**
+         * Waits until the work submitted to this queue, including the work that is scheduled for later, has finished.
+         *
+         * @return true if the work finished within the drain timeout
+         */
+        public boolean drain() {
+            return drain(System.currentTimeMillis() + drainTimeout);
+        }
+
+        /**
+         * Waits until the work submitted to this queue, including the work that is scheduled for later, has finished
+         * or the deadline has passed.  Queues that are drained one after another against the same deadline wait
+         * no longer in total than the time left until the deadline.
+         *
+         * @param deadline the time to give up as reported by <code>System.currentTimeMillis()</code>
+         * @return true if the work finished before the deadline
+         */
+        public synchronized boolean drain(long deadline) {
+            try {
+                while (running || !tasks.isEmpty() || scheduled > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        logger.warn("Gave up waiting for the history reads and writes of " + name);
+                        return false;
+                    }
+                    wait(remaining);
+                }
+                return true;
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private synchronized void enqueue(Runnable task) {
+            taskQueued();
+            tasks.add(task);
+            if (!running) {
+                runNext();
+            }
+        }
+
+        private synchronized void runNext() {
+            final Runnable task = tasks.poll();
+            if (task == null) {
+                running = false;
+                notifyAll();
+                return;
+            }
+            running = true;
+            Runnable worker = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    }
+                    finally {
+                        taskDone();
+                        runNext();
+                    }
+                }
+            };
+            try {
+                executor.execute(worker);
+            }
+            catch (RejectedExecutionException ree) {
+                logger.warn("History I/O threads have been shut down, running work for " + name + " on a separate thread");
+                new Thread(worker, "History I/O for " + name).start();
+            }
+        }
+    }
+}
@@ -11,6 +11,8 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -21,6 +23,7 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.DocumentAlreadyExistsException;
@@ -35,10 +38,10 @@ import org.protege.owl.server.api.server.ServerPath;
 import org.protege.owl.server.api.server.ServerTransport;
 import org.protege.owl.server.changes.DocumentFactoryImpl;
 import org.protege.owl.server.util.ChangeUtilities;
-import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.protege.owl.server.util.OWLObjectInterner;
+import org.protege.owl.server.util.TouchedKeyIndex;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
-import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
 
 /*
@@ -56,6 +59,7 @@ import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
 public class ServerImpl implements Server {
     public static final int POOL_TIMEOUT = 60 * 1000;
+    public static final String RECENT_DOCUMENTS_FILE = "recent-documents.txt";
 	
 	public enum ServerObjectStatus {
 		OBJECT_NOT_FOUND {
@@ -115,6 +119,146 @@ public class ServerImpl implements Server {
 		this.root = root;
 		this.configurationDir = configurationDir;
 		this.pool = new ChangeDocumentPool(factory, POOL_TIMEOUT);
+		if (configurationDir != null && configurationDir.isDirectory()) {
+		    pool.setRecentDocumentsFile(new File(configurationDir, RECENT_DOCUMENTS_FILE));
+		}
+	}
+	
+	/**
+	 * Determines whether the history files are read through memory mapped buffers.  This is set from
+	 * the server configuration and is off by default.
+	 * 
+	 * @param memoryMappedHistory true if the history files should be memory mapped
+	 */
+	public void setMemoryMappedHistory(boolean memoryMappedHistory) {
+	    pool.setMemoryMappedHistory(memoryMappedHistory);
+	}
+	
+	/**
+	 * Sets the largest number of threads that decode a single history file when it is loaded into the pool.
+	 * 
+	 * @param loadParallelism the number of threads or 1 to decode each history file on a single thread
+	 */
+	public void setLoadParallelism(int loadParallelism) {
+	    pool.setLoadParallelism(loadParallelism);
+	}
+	
+	/**
+	 * Determines whether the objects decoded from the history files are canonicalized and how widely the
+	 * canonical objects are shared.
+	 * 
+	 * @param interningScope the scope of the canonical objects
+	 */
+	public void setInterningScope(OWLObjectInterner.Scope interningScope) {
+	    pool.setInterningScope(interningScope);
+	}
+	
+	/**
+	 * Sets the number of revisions between the snapshots of each document.  This is set from the server
+	 * configuration and a value of zero or less turns off snapshots.
+	 * 
+	 * @param snapshotInterval the number of revisions between snapshots
+	 */
+	public void setSnapshotInterval(int snapshotInterval) {
+	    pool.getSnapshotManager().setSnapshotInterval(snapshotInterval);
+	}
+	
+	/**
+	 * Sets the time that a commit waits for other commits to the same document so that they can be saved together.
+	 * This is set from the server configuration.
+	 * 
+	 * @param groupCommitWindow the group commit window in milliseconds
+	 */
+	public void setGroupCommitWindow(long groupCommitWindow) {
+	    pool.setGroupCommitWindow(groupCommitWindow);
+	}
+	
+	/**
+	 * Sets the estimated heap that the in-memory change histories may use before the least recently used
+	 * histories are evicted.  This is set from the server configuration.
+	 * 
+	 * @param memoryBudget the memory budget in bytes
+	 */
+	public void setPoolMemoryBudget(long memoryBudget) {
+	    pool.setMemoryBudget(memoryBudget);
+	}
+	
+	/**
+	 * Starts loading the documents that are likely to be used first into memory.  The documents that were used last before the
+	 * previous shutdown are loaded first, followed by the most recently modified documents.  The documents are loaded
+	 * in a background thread so the server can accept requests while the warm up runs.
+	 * 
+	 * @param count the largest number of documents to load
+	 */
+	public void warmUp(final int count) {
+	    Thread warmUpThread = new Thread(new Runnable() {
+	        @Override
+	        public void run() {
+	            long startTime = System.currentTimeMillis();
+	            int loaded = pool.warmUp(getWarmUpDocuments(count));
+	            logger.info("Warmed up " + loaded + " documents in " + (System.currentTimeMillis() - startTime) + " ms");
+	        }
+	    }, "Change Document Warm-up");
+	    warmUpThread.setDaemon(true);
+	    warmUpThread.start();
+	}
+	
+	private Map<ServerOntologyDocument, File> getWarmUpDocuments(int count) {
+	    Map<ServerOntologyDocument, File> documents = new LinkedHashMap<ServerOntologyDocument, File>();
+	    for (ServerPath path : pool.readRecentDocuments()) {
+	        File historyFile = new File(root, path.pathAsString());
+	        if (documents.size() < count && historyFile.isFile()) {
+	            documents.put(new ServerOntologyDocumentImpl(path), historyFile);
+	        }
+	    }
+	    if (documents.size() < count) {
+	        List<File> historyFiles = new ArrayList<File>();
+	        collectHistoryFiles(root, historyFiles);
+	        Collections.sort(historyFiles, new Comparator<File>() {
+	            @Override
+	            public int compare(File f1, File f2) {
+	                return Long.compare(f2.lastModified(), f1.lastModified());
+	            }
+	        });
+	        URI rootURI = root.toURI();
+	        for (File historyFile : historyFiles) {
+	            ServerOntologyDocument doc = new ServerOntologyDocumentImpl(new ServerPath(rootURI.relativize(historyFile.toURI()).getPath()));
+	            if (documents.size() < count && !documents.containsKey(doc)) {
+	                documents.put(doc, historyFile);
+	            }
+	        }
+	    }
+	    return documents;
+	}
+	
+	private void collectHistoryFiles(File dir, List<File> historyFiles) {
+	    File[] children = dir.listFiles();
+	    if (children == null) {
+	        return;
+	    }
+	    for (File child : children) {
+	        if (child.isDirectory()) {
+	            collectHistoryFiles(child, historyFiles);
+	        }
+	        else if (child.getName().endsWith(ChangeHistory.CHANGE_DOCUMENT_EXTENSION)) {
+	            historyFiles.add(child);
+	        }
+	    }
+	}
+	
+	public CommitMetrics getCommitMetrics() {
+	    return pool.getCommitMetrics();
+	}
+	
+	/**
+	 * Returns the index of the keys touched by the revisions of a document.  The index is kept with the in-memory
+	 * change history of the document and is empty after the history has been loaded; the caller brings it up to date.
+	 * 
+	 * @param doc the document
+	 * @return the touched key index of the document
+	 */
+	public TouchedKeyIndex getTouchedKeyIndex(ServerOntologyDocument doc) {
+	    return pool.getTouchedKeyIndex(doc);
 	}
 	
 	@Override
@@ -127,7 +271,7 @@ public class ServerImpl implements Server {
 	        if (historyFile == null) {
 	            throw new IllegalStateException("Expected to find ontology document at the location " + doc.getServerPath());
 	        }
-	        return pool.getChangeDocument(doc, historyFile).getEndRevision();
+	        return pool.getEndRevision(doc, historyFile);
 	    default:
 	        throw new IllegalStateException("Programmer missed a case.");
 	    }
@@ -178,7 +322,7 @@ public class ServerImpl implements Server {
 			throw new IllegalArgumentException("Server side IRI's must have the " + ChangeHistory.CHANGE_DOCUMENT_EXTENSION + " extension");
 		}
 		ServerOntologyDocument doc = new ServerOntologyDocumentImpl(serverPath);
-		pool.setChangeDocument(doc, historyFile, factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION));
+		pool.setChangeDocument(doc, historyFile, null, factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION)).await();
 		return doc;
 	}
 
@@ -199,33 +343,51 @@ public class ServerImpl implements Server {
 		if (historyFile == null) {
 			throw new IllegalStateException("Expected to find ontology document at the location " + doc.getServerPath());
 		}
-		return pool.getChangeDocument(doc, historyFile).cropChanges(start, end);
+		return pool.getChanges(doc, historyFile, start, end);
+	}
+	
+	@Override
+	public OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision revision) throws OWLServerException {
+	    File historyFile = parseServerIRI(doc.getServerPath(), ServerObjectStatus.OBJECT_IS_ONTOLOGY_DOCUMENT);
+	    if (historyFile == null) {
+	        throw new IllegalStateException("Expected to find ontology document at the location " + doc.getServerPath());
+	    }
+	    return pool.getSnapshot(historyFile, revision);
 	}
 	
 
 
+	/*
+	 * The cost of a commit depends on the size of the commit and on the revisions that were committed after the
+	 * revision of the client, but not on the length of the history.  The history is taken from the pool as it is,
+	 * only the revisions after the client's revision are normalized, which is cheap because the history caches the
+	 * net deltas of blocks of revisions, and the new revision is appended without copying the history.  The changes
+	 * refer to a placeholder ontology that is cached with the document.
+	 */
 	@Override
 	public void commit(AuthToken u, ServerOntologyDocument doc,
 	                    SingletonChangeHistory changesFromClient) throws OWLServerException {
+	    long startTime = System.nanoTime();
 	    changesFromClient.getMetaData(changesFromClient.getStartRevision()).setUser(u);
-		OWLOntology fakeOntology;
-		try {
-			fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
-		}
-		catch (OWLOntologyCreationException e) {
-			throw new IllegalStateException("Why me?", e);
+	    File historyFile = parseServerIRI(doc.getServerPath(), ServerObjectStatus.OBJECT_IS_ONTOLOGY_DOCUMENT);
+	    if (historyFile == null) {
+	        throw new IllegalStateException("Expected to find ontology document at the location " + doc.getServerPath());
+	    }
+	    ChangeHistory fullHistory = pool.getChangeDocument(doc, historyFile);
+	    OWLOntology placeholder = pool.getPlaceholderOntology(doc);
+		ChangeHistory fullHistoryAfterCommit = getChangesAfterCommit(fullHistory, changesFromClient, placeholder);
+		CommitBatch batch = pool.setChangeDocument(doc, historyFile, fullHistory, fullHistoryAfterCommit);
+		if (!CommitBatch.defer(batch)) {
+		    batch.await();
 		}
-
-		ChangeHistory fullHistoryAfterCommit = getChangesAfterCommit(u, doc, changesFromClient, fakeOntology);
-		pool.setChangeDocument(doc, parseServerIRI(doc.getServerPath(), ServerObjectStatus.OBJECT_IS_ONTOLOGY_DOCUMENT), fullHistoryAfterCommit);
+		pool.getCommitMetrics().recordCommit(System.nanoTime() - startTime);
 	}
 	
-	private ChangeHistory getChangesAfterCommit(AuthToken u, ServerOntologyDocument doc, SingletonChangeHistory changesFromClient, OWLOntology fakeOntology) throws OWLServerException {
+	private ChangeHistory getChangesAfterCommit(ChangeHistory fullHistory, SingletonChangeHistory changesFromClient, OWLOntology placeholder) {
 	    ChangeMetaData metaData = changesFromClient.getMetaData(changesFromClient.getStartRevision());
-	    OntologyDocumentRevision head = evaluateRevisionPointer(u, doc, RevisionPointer.HEAD_REVISION);
-	    List<OWLOntologyChange> clientChanges = changesFromClient.getChanges(fakeOntology);
-	    List<OWLOntologyChange> serverChanges =  getChanges(u, doc, changesFromClient.getStartRevision(), head).getChanges(fakeOntology);
-	    ChangeHistory fullHistory = getChanges(u, doc, OntologyDocumentRevision.START_REVISION, head);
+	    OntologyDocumentRevision head = fullHistory.getEndRevision();
+	    List<OWLOntologyChange> clientChanges = changesFromClient.getChanges(placeholder);
+	    List<OWLOntologyChange> serverChanges = fullHistory.cropChanges(changesFromClient.getStartRevision(), head).getChanges(placeholder);
 
 	    List<OWLOntologyChange> changesToCommit = ChangeUtilities.swapOrderOfChangeLists(clientChanges, serverChanges);
 	    ChangeHistory fullHistoryAfterCommit;
@@ -0,0 +1,214 @@
+package org.protege.owl.server.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
+import org.protege.owl.server.changes.OntologySnapshotImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the snapshots of the ontology documents on the server.
+ * <p>
+ * The snapshots of a document are kept next to its history file.  The snapshot at revision <i>r</i> of
+ * <code>X.history</code> is saved in <code>X.history.r.snapshot</code>.  A snapshot is written every
+ * time the history of a document passes a multiple of the snapshot interval.  Snapshots are built in a
+ * background thread from the previous snapshot and the changes that follow it, so commits do not wait for them.
+ * When a history is first seen, snapshots that are past its end revision (for instance because the last
+ * revisions of the history were lost) are deleted and any missing snapshot is rebuilt.
+ *
+ * @author tredmond
+ */
+public class SnapshotManager {
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100;
+
+    private Logger logger = LoggerFactory.getLogger(SnapshotManager.class.getCanonicalName());
+    private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+    private Map<File, OntologyDocumentRevision> latestSnapshots = new TreeMap<File, OntologyDocumentRevision>();
+    private ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread th = new Thread(r, "Snapshot Writer");
+            th.setDaemon(true);
+            return th;
+        }
+    });
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Sets the number of revisions between snapshots.  A snapshot interval that is zero or negative
+     * turns off the writing of snapshots.
+     *
+     * @param snapshotInterval the number of revisions between snapshots
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public static File getSnapshotFile(File historyFile, OntologyDocumentRevision revision) {
+        return new File(historyFile.getAbsolutePath() + "." + revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION)
+                                + OntologySnapshot.SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Returns the latest saved snapshot of a document at or before a revision.  If there is no such snapshot, the snapshot
+     * of the empty ontology at the start revision is returned.
+     *
+     * @param historyFile the history file of the document
+     * @param revision the revision
+     * @return the snapshot
+     */
+    public OntologySnapshot getSnapshot(File historyFile, OntologyDocumentRevision revision) {
+        int last = revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION);
+        int[] revisions = getSavedRevisions(historyFile);
+        for (int i = revisions.length - 1; i >= 0; i--) {
+            if (revisions[i] > last) {
+                continue;
+            }
+            File snapshotFile = getSnapshotFile(historyFile, new OntologyDocumentRevision(revisions[i]));
+            try {
+                return OntologySnapshotImpl.read(snapshotFile);
+            }
+            catch (IOException ioe) {
+                logger.warn("Could not read snapshot " + snapshotFile + ", deleting it", ioe);
+                snapshotFile.delete();
+                synchronized (latestSnapshots) {
+                    latestSnapshots.remove(historyFile);
+                }
+            }
+        }
+        return OntologySnapshotImpl.createEmptySnapshot();
+    }
+
+    /**
+     * Called when the history of a document is loaded or changed.  If the history has passed a multiple of the snapshot interval
+     * since the last saved snapshot, a new snapshot is built in the background.
+     *
+     * @param historyFile the history file of the document
+     * @param history the full history of the document
+     */
+    public void update(final File historyFile, final ChangeHistory history) {
+        if (snapshotInterval <= 0) {
+            return;
+        }
+        int end = history.getEndRevision().getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION);
+        final OntologyDocumentRevision target = new OntologyDocumentRevision(end - end % snapshotInterval);
+        synchronized (latestSnapshots) {
+            OntologyDocumentRevision latest = latestSnapshots.get(historyFile);
+            if (latest == null) {
+                latest = removeStaleSnapshots(historyFile, history.getEndRevision());
+            }
+            if (target.compareTo(latest) <= 0) {
+                latestSnapshots.put(historyFile, latest);
+                return;
+            }
+            latestSnapshots.put(historyFile, target);
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(historyFile, history, target);
+                }
+                catch (Throwable t) {
+                    logger.warn("Could not write snapshot of " + historyFile + " at revision " + target, t);
+                    synchronized (latestSnapshots) {
+                        latestSnapshots.remove(historyFile);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the snapshots that are being built to be written.
+     */
+    public void sync() {
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ;
+                }
+            }).get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee) {
+            logger.warn("Unexpected exception waiting for snapshots", ee);
+        }
+    }
+
+    public void dispose() {
+        executor.shutdown();
+    }
+
+    private void writeSnapshot(File historyFile, ChangeHistory history, OntologyDocumentRevision target) throws IOException {
+        long startTime = System.currentTimeMillis();
+        OntologySnapshot base = getSnapshot(historyFile, target.add(-1));
+        OntologySnapshotImpl snapshot = OntologySnapshotImpl.createSnapshot(base, history.cropChanges(base.getRevision(), target));
+        File snapshotFile = getSnapshotFile(historyFile, target);
+        File tmp = new File(snapshotFile.getAbsolutePath() + ".tmp");
+        snapshot.write(tmp);
+        snapshotFile.delete();
+        if (!tmp.renameTo(snapshotFile)) {
+            throw new IOException("Could not move " + tmp + " to " + snapshotFile);
+        }
+        logger.info("Wrote snapshot of " + historyFile.getName() + " at revision " + target + " (" + (System.currentTimeMillis() - startTime) + " ms)");
+    }
+
+    private OntologyDocumentRevision removeStaleSnapshots(File historyFile, OntologyDocumentRevision end) {
+        int last = end.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION);
+        OntologyDocumentRevision latest = OntologyDocumentRevision.START_REVISION;
+        for (int revision : getSavedRevisions(historyFile)) {
+            OntologyDocumentRevision snapshotRevision = new OntologyDocumentRevision(revision);
+            if (revision > last) {
+                logger.warn("Deleting snapshot at revision " + revision + " past the end of " + historyFile);
+                getSnapshotFile(historyFile, snapshotRevision).delete();
+            }
+            else {
+                latest = snapshotRevision;
+            }
+        }
+        return latest;
+    }
+
+    private int[] getSavedRevisions(File historyFile) {
+        String prefix = historyFile.getName() + ".";
+        File dir = historyFile.getAbsoluteFile().getParentFile();
+        String[] names = dir == null ? null : dir.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] revisions = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(OntologySnapshot.SNAPSHOT_EXTENSION)) {
+                try {
+                    revisions[count] = Integer.parseInt(name.substring(prefix.length(), name.length() - OntologySnapshot.SNAPSHOT_EXTENSION.length()));
+                    count++;
+                }
+                catch (NumberFormatException nfe) {
+                    ;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(revisions, count);
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -39,6 +39,10 @@ import org.protege.owl.server.util.ServerFilterAdapter;
  * For these, I am not sure what the synchronization issues are but I think that this is an edge case.
  * <p>
  * This may enforce a more stringent synchronization policy in the future.
+ * <p>
+ * A commit does not hold the document while its changes are being saved to disk.  The commit waits for its
+ * group commit batch (see {@link CommitBatch}) after it has released the document, so that later commits to the
+ * same document can join the batch.
  * 
  * @author tredmond
  *
@@ -65,14 +69,36 @@ public class SynchronizationFilter extends ServerFilterAdapter {
             }
             writers.add(doc);
         }
+        CommitBatch.beginDeferral();
+        Throwable failure = null;
         try {
             super.commit(u, doc, changes);
         }
+        catch (OWLServerException | RuntimeException | Error t) {
+            failure = t;
+            throw t;
+        }
         finally {
             synchronized (writers) {
                 writers.remove(doc);
                 writers.notifyAll();
             }
+            endDeferral(failure);
+        }
+    }
+    
+    /*
+     * A failure to save the deferred batch must not hide the exception that ended the commit.
+     */
+    private static void endDeferral(Throwable failure) throws OWLServerException {
+        try {
+            CommitBatch.endDeferral();
+        }
+        catch (OWLServerException | RuntimeException e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
         }
     }
 
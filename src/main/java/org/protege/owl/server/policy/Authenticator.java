@@ -20,6 +20,7 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.AuthenticationFailedException;
@@ -168,6 +169,12 @@ public class Authenticator extends ServerFilterAdapter {
         return getDelegate().getChanges(u, doc, start, end);
     }
 
+    @Override
+    public OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision revision) throws OWLServerException {
+        ensureUserIdCorrect(u);
+        return getDelegate().getSnapshot(u, doc, revision);
+    }
+
     @Override
     public void commit(AuthToken u, 
                                   ServerOntologyDocument doc, 
@@ -11,6 +11,7 @@ import org.antlr.runtime.RecognitionException;
 import org.protege.owl.server.api.AuthToken;
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.AuthorizationFailedException;
@@ -92,6 +93,14 @@ public class PolicyFilter extends ServerFilterAdapter {
         return super.getChanges(u, doc, start, end);
     }
     
+    @Override
+    public OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision revision) throws OWLServerException {
+        if (!policy.checkPermission(userDb, u.getUserId(), doc.getServerPath(), Operation.READ)) {
+            throw new AuthorizationFailedException("Attempted read not allowed");
+        }
+        return super.getSnapshot(u, doc, revision);
+    }
+    
     @Override
     public void commit(AuthToken u, ServerOntologyDocument doc, SingletonChangeHistory changes) throws OWLServerException {
         if (!policy.checkPermission(userDb, u.getUserId(), doc.getServerPath(), Operation.WRITE)) {
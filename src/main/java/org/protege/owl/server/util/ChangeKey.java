@@ -0,0 +1,125 @@
+package org.protege.owl.server.util;
+
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeVisitorEx;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.semanticweb.owlapi.model.RemoveImport;
+import org.semanticweb.owlapi.model.RemoveOntologyAnnotation;
+import org.semanticweb.owlapi.model.SetOntologyID;
+
+/**
+ * The part of an ontology that a change writes to: an axiom, an import declaration, an ontology annotation or the
+ * ontology id, together with the ontology that is changed.  Two changes have equal keys exactly when the
+ * {@link OverlapVisitor} finds that they overlap, so a set of keys answers overlap questions in constant time.
+ *
+ * @author tredmond
+ */
+public final class ChangeKey {
+    /**
+     * The target of the changes that set the ontology id.  All of them write to the same slot.
+     */
+    public static final Object ONTOLOGY_ID = new Object() {
+        @Override
+        public String toString() {
+            return "ontology id";
+        }
+    };
+
+    private static final TargetVisitor targetVisitor = new TargetVisitor();
+
+    private final OWLOntology ontology;
+    private final Object target;
+    private final int hashCode;
+
+    private ChangeKey(OWLOntology ontology, Object target) {
+        this.ontology = ontology;
+        this.target = target;
+        this.hashCode = 31 * ontology.hashCode() + target.hashCode();
+    }
+
+    public static ChangeKey of(OWLOntologyChange change) {
+        return new ChangeKey(change.getOntology(), getTarget(change));
+    }
+
+    /**
+     * Returns the part of the ontology that a change writes to without the ontology.
+     *
+     * @param change the change
+     * @return the axiom, import declaration or annotation of the change, or {@link #ONTOLOGY_ID}
+     */
+    public static Object getTarget(OWLOntologyChange change) {
+        return change.accept(targetVisitor);
+    }
+
+    public OWLOntology getOntology() {
+        return ontology;
+    }
+
+    public Object getTarget() {
+        return target;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof ChangeKey)) {
+            return false;
+        }
+        ChangeKey other = (ChangeKey) obj;
+        return hashCode == other.hashCode && target.equals(other.target) && ontology.equals(other.ontology);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "<" + target + " in " + ontology.getOntologyID() + ">";
+    }
+
+    private static class TargetVisitor implements OWLOntologyChangeVisitorEx<Object> {
+
+        @Override
+        public Object visit(AddAxiom change) {
+            return change.getAxiom();
+        }
+
+        @Override
+        public Object visit(RemoveAxiom change) {
+            return change.getAxiom();
+        }
+
+        @Override
+        public Object visit(SetOntologyID change) {
+            return ONTOLOGY_ID;
+        }
+
+        @Override
+        public Object visit(AddImport change) {
+            return change.getImportDeclaration();
+        }
+
+        @Override
+        public Object visit(RemoveImport change) {
+            return change.getImportDeclaration();
+        }
+
+        @Override
+        public Object visit(AddOntologyAnnotation change) {
+            return change.getAnnotation();
+        }
+
+        @Override
+        public Object visit(RemoveOntologyAnnotation change) {
+            return change.getAnnotation();
+        }
+    }
+}
@@ -68,8 +68,9 @@ public class ChangeUtilities {
      * </center>
      * where composition goes from left to right.
      * <p>
-     * ToDo - this routine is quadratic time when it should be linear time.
-     * I suspect that this is rarely a problem.
+     * A change of the first list is dropped when a change of the second list overlaps it.  The overlap test is
+     * a lookup of the {@link ChangeKey} of the change in a hash set of the keys of the second list, so the routine
+     * runs in time linear in the length of the two lists.
      * <p>
      * @param firstChanges	firstChanges
      * @param secondChanges	secondChanges
@@ -77,15 +78,18 @@ public class ChangeUtilities {
      *      we had first made the changes <i>firstChanges</i> and then made the changes <i>secondChanges</i>
      */
     public static List<OWLOntologyChange> swapOrderOfChangeLists(List<OWLOntologyChange> firstChanges, List<OWLOntologyChange> secondChanges) {
-    	List<OWLOntologyChange> result = normalizeChangeDelta(firstChanges);
-    	secondChanges = normalizeChangeDelta(secondChanges);
-    	List<OWLOntologyChange> toRemove = new ArrayList<OWLOntologyChange>();
-    	for (OWLOntologyChange firstChange : result) {
-			if (overlappingChange(firstChange, secondChanges)) {
-				toRemove.add(firstChange);
-			}
+    	List<OWLOntologyChange> normalizedFirstChanges = normalizeChangeDelta(firstChanges);
+    	List<OWLOntologyChange> normalizedSecondChanges = normalizeChangeDelta(secondChanges);
+    	Set<ChangeKey> secondKeys = new HashSet<ChangeKey>(2 * normalizedSecondChanges.size());
+    	for (OWLOntologyChange secondChange : normalizedSecondChanges) {
+    	    secondKeys.add(ChangeKey.of(secondChange));
+    	}
+    	List<OWLOntologyChange> result = new ArrayList<OWLOntologyChange>(normalizedFirstChanges.size());
+    	for (OWLOntologyChange firstChange : normalizedFirstChanges) {
+    	    if (!secondKeys.contains(ChangeKey.of(firstChange))) {
+    	        result.add(firstChange);
+    	    }
     	}
-    	result.removeAll(toRemove);
     	return result;
     }
 
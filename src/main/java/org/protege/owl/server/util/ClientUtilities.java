@@ -10,6 +10,7 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.UserId;
 import org.protege.owl.server.api.client.Client;
@@ -64,12 +65,24 @@ public class ClientUtilities {
 	
 	public static VersionedOntologyDocument loadOntology(Client client, OWLOntologyManager manager, RemoteOntologyDocument doc, RevisionPointer revision) throws OWLOntologyCreationException, OWLServerException {
 	    DocumentFactory factory = client.getDocumentFactory();
-		ChangeHistory changes = client.getChanges(doc, OntologyDocumentRevision.START_REVISION.asPointer(), revision);
+	    OntologySnapshot snapshot = client.getSnapshot(doc, revision);
+		ChangeHistory changes = client.getChanges(doc, snapshot.getRevision().asPointer(), revision);
 		OWLOntology ontology = manager.createOntology();
-		List<OWLOntologyChange> changesAsChangeList = changes.getChanges(ontology);
+		List<OWLOntologyChange> changesAsChangeList = new ArrayList<OWLOntologyChange>(snapshot.getChanges(ontology));
+		changesAsChangeList.addAll(changes.getChanges(ontology));
 		manager.applyChanges(changesAsChangeList);
 		adjustImports(ontology, changesAsChangeList);
-		VersionedOntologyDocument versionedOntology = factory.createVersionedOntology(ontology, doc, changes.getEndRevision());
+		/*
+		 * When the ontology was built from a snapshot the local history starts at the snapshot, and the snapshot
+		 * stands in for the history before it.
+		 */
+		VersionedOntologyDocument versionedOntology;
+		if (snapshot.getRevision().equals(OntologyDocumentRevision.START_REVISION)) {
+		    versionedOntology = factory.createVersionedOntology(ontology, doc, changes.getEndRevision());
+		}
+		else {
+		    versionedOntology = factory.createVersionedOntology(ontology, doc, changes.getEndRevision(), snapshot);
+		}
 		versionedOntology.appendLocalHistory(changes);
 		return versionedOntology;
 	}
@@ -86,12 +99,25 @@ public class ClientUtilities {
 	
 	public static List<OWLOntologyChange> getUncommittedChanges(Client client, VersionedOntologyDocument ontologyDoc) throws OWLServerException {
 	    OntologyDocumentRevision revision = ontologyDoc.getRevision();
-	    ChangeHistory historyToClientRevision = getChanges(client, ontologyDoc, OntologyDocumentRevision.START_REVISION.asPointer(), revision.asPointer());
-	    OWLOntology ontology = ontologyDoc.getOntology();
-	    List<OWLOntologyChange> baselineHistory = historyToClientRevision.getChanges(ontology);
+	    List<OWLOntologyChange> baselineHistory = getChangesFromStart(client, ontologyDoc, revision);
 	    return getUncommittedChanges(ontologyDoc.getOntology(), baselineHistory);
 	}
 	
+	/*
+	 * The changes from the start revision to a revision, built from the base snapshot of the document and the local
+	 * history when the revision is not before the snapshot.
+	 */
+	private static List<OWLOntologyChange> getChangesFromStart(Client client, VersionedOntologyDocument ontologyDoc, OntologyDocumentRevision revision) throws OWLServerException {
+	    OWLOntology ontology = ontologyDoc.getOntology();
+	    OntologySnapshot snapshot = ontologyDoc.getBaseSnapshot();
+	    if (snapshot == null || revision.compareTo(snapshot.getRevision()) < 0) {
+	        return getChanges(client, ontologyDoc, OntologyDocumentRevision.START_REVISION.asPointer(), revision.asPointer()).getChanges(ontology);
+	    }
+	    List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>(snapshot.getChanges(ontology));
+	    changes.addAll(getChanges(client, ontologyDoc, snapshot.getRevision().asPointer(), revision.asPointer()).getChanges(ontology));
+	    return ChangeUtilities.normalizeChangeDelta(changes);
+	}
+	
 	private static List<OWLOntologyChange> getUncommittedChanges(OWLOntology ontology, List<OWLOntologyChange> toBaseline) {
 	    List<OWLOntologyChange> reversedList = new ArrayList<OWLOntologyChange>(toBaseline);
 	    Collections.reverse(reversedList); 
@@ -122,9 +148,9 @@ public class ClientUtilities {
 		    adjustImports(localOntology, updatesAsChangeList);
 		}
 		else { // invert the changes
-		    ChangeHistory baseline = getChanges(client, openOntology, OntologyDocumentRevision.START_REVISION.asPointer(), targetRevisionPointer);
+		    List<OWLOntologyChange> baseline = getChangesFromStart(client, openOntology, targetRevision);
             ChangeHistory updates = getChanges(client, openOntology, targetRevisionPointer, currentRevision.asPointer());
-            List<OWLOntologyChange> updatesAsChangeList = ChangeUtilities.invertChanges(baseline.getChanges(localOntology), updates.getChanges(localOntology));
+            List<OWLOntologyChange> updatesAsChangeList = ChangeUtilities.invertChanges(baseline, updates.getChanges(localOntology));
             manager.applyChanges(updatesAsChangeList);
             adjustImports(localOntology, updatesAsChangeList);
 		}
@@ -134,6 +160,10 @@ public class ClientUtilities {
 	public static ChangeHistory getChanges(Client client, VersionedOntologyDocument ontologyDoc, RevisionPointer start, RevisionPointer end) throws OWLServerException {
 	    OntologyDocumentRevision realStart = client.evaluateRevisionPointer(ontologyDoc.getServerDocument(), start);
 	    OntologyDocumentRevision realEnd   = client.evaluateRevisionPointer(ontologyDoc.getServerDocument(), end);
+	    if (realStart.compareTo(ontologyDoc.getLocalHistory().getStartRevision()) < 0) {
+	        // the local history starts at a snapshot after the start of the range
+	        return client.getChanges(ontologyDoc.getServerDocument(), realStart.asPointer(), realEnd.asPointer());
+	    }
 		if (realEnd.compareTo(ontologyDoc.getLocalHistory().getEndRevision()) > 0) {
 	          ChangeHistory newChanges = client.getChanges(ontologyDoc.getServerDocument(), ontologyDoc.getLocalHistory().getEndRevision().asPointer(), realEnd.asPointer());
 	          ontologyDoc.appendLocalHistory(newChanges);
@@ -0,0 +1,81 @@
+package org.protege.owl.server.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLObject;
+
+/**
+ * Canonicalizes decoded OWL objects so that equal IRIs, entities, literals, annotations and class expressions that
+ * are decoded from different revisions share a single instance.
+ * <p>
+ * The canonical instances are held through weak references so an interner can be shared by all the documents of a
+ * server without keeping objects alive after the histories that use them have been dropped.  Axioms are not
+ * interned because they are rarely repeated in a history; the objects that they are built from are.  Each canonical
+ * object costs a map entry and a weak reference for as long as it is alive, so an interner shared by the whole server
+ * only pays for itself when the documents have much of their vocabulary in common.
+ *
+ * @author tredmond
+ */
+public class OWLObjectInterner {
+    /**
+     * How long a set of canonical objects is kept.
+     */
+    public enum Scope {
+        /** Decoded objects are not interned. */
+        NONE,
+        /** Each load of a history file uses its own interner. */
+        DOCUMENT,
+        /** All the history files loaded by a server share one interner. */
+        SERVER
+    }
+
+    private final Map<OWLObject, WeakReference<OWLObject>> canonical = new WeakHashMap<OWLObject, WeakReference<OWLObject>>();
+    private long lookups;
+    private long hits;
+
+    /**
+     * Returns the canonical instance of an object.  The object itself becomes the canonical instance if no equal
+     * object has been seen before.
+     *
+     * @param o the object
+     * @return an object equal to o
+     */
+    public <X> X intern(X o) {
+        if (!(o instanceof OWLObject) || o instanceof OWLAxiom) {
+            return o;
+        }
+        synchronized (this) {
+            lookups++;
+            WeakReference<OWLObject> ref = canonical.get(o);
+            OWLObject existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                hits++;
+                @SuppressWarnings("unchecked")
+                X result = (X) existing;
+                return result;
+            }
+            canonical.put((OWLObject) o, new WeakReference<OWLObject>((OWLObject) o));
+            return o;
+        }
+    }
+
+    public synchronized int size() {
+        return canonical.size();
+    }
+
+    public synchronized long getLookupCount() {
+        return lookups;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d canonical objects, %d of %d lookups found an existing object", size(), getHitCount(), getLookupCount());
+    }
+}
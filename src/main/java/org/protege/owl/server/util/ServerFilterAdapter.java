@@ -9,6 +9,7 @@ import org.protege.owl.server.api.AuthToken;
 import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
 import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.exception.OWLServerException;
@@ -57,6 +58,11 @@ public class ServerFilterAdapter extends ServerFilter {
         return getDelegate().getChanges(u, doc, start, end);
     }
 
+    @Override
+    public OntologySnapshot getSnapshot(AuthToken u, ServerOntologyDocument doc, OntologyDocumentRevision revision) throws OWLServerException {
+        return getDelegate().getSnapshot(u, doc, revision);
+    }
+
     @Override
     public void commit(AuthToken u, ServerOntologyDocument doc, 
                         SingletonChangeHistory changes) throws OWLServerException {
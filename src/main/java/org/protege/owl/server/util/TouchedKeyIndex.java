@@ -0,0 +1,101 @@
+package org.protege.owl.server.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * An index of the axioms, import declarations, ontology annotations and ontology id that the revisions of a document
+ * touched.
+ * <p>
+ * The conflict check only asks whether a key was touched by any revision from the base revision of a commit up to the
+ * head of the document, so for each key the index records the last revision that touched it.  A key conflicts
+ * exactly when that revision is at or after the base revision, so a commit is checked with one lookup per change of the
+ * commit, however far the client is behind.  The index is brought up to the head by visiting the revisions that were
+ * committed since it was last updated, so each revision is visited once.
+ * <p>
+ * The keys are the {@link ChangeKey#getTarget(OWLOntologyChange) targets} of the changes, which are shared with the
+ * change history, so there are no false conflicts from colliding hashes.  Conflicts do not depend on the ontology that
+ * the changes refer to.
+ * <p>
+ * The index of a document is kept with the document's change history in the change document pool, so it is
+ * dropped when the history is evicted and built again from the history the next time it is needed.
+ * <p>
+ * The callers synchronize on the index.
+ *
+ * @author tredmond
+ */
+public class TouchedKeyIndex {
+    private OntologyDocumentRevision endRevision = OntologyDocumentRevision.START_REVISION;
+    private Map<Object, Integer> lastTouched = new HashMap<Object, Integer>();
+    private volatile int size;
+
+    public OntologyDocumentRevision getEndRevision() {
+        return endRevision;
+    }
+
+    /**
+     * Returns the number of keys in this index.  This method can be called without synchronizing on the index.
+     * 
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        endRevision = OntologyDocumentRevision.START_REVISION;
+        lastTouched = new HashMap<Object, Integer>();
+        size = 0;
+    }
+
+    /**
+     * Adds the revisions of a history from the end of this index to the end of the history.
+     *
+     * @param changes a history that holds the revisions after the end of this index
+     * @throws IOException if the revisions could not be read
+     */
+    public void update(ChangeHistory changes) throws IOException {
+        changes.forEachRevision(endRevision, changes.getEndRevision(), new RevisionVisitor() {
+            @Override
+            public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> revisionChanges) {
+                Integer position = revision.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION);
+                for (OWLOntologyChange change : revisionChanges) {
+                    lastTouched.put(ChangeKey.getTarget(change), position);
+                }
+            }
+        });
+        if (changes.getEndRevision().compareTo(endRevision) > 0) {
+            endRevision = changes.getEndRevision();
+        }
+        size = lastTouched.size();
+    }
+
+    /**
+     * Returns the changes that touch a key that was also touched by a revision from the start revision to the end of
+     * this index.
+     *
+     * @param changes the normalized changes of a commit
+     * @param start the revision that the changes were made against
+     * @return the conflicting changes
+     */
+    public List<OWLOntologyChange> getConflicts(List<OWLOntologyChange> changes, OntologyDocumentRevision start) {
+        int startPosition = start.getRevisionDifferenceFrom(OntologyDocumentRevision.START_REVISION);
+        List<OWLOntologyChange> conflicts = new ArrayList<OWLOntologyChange>();
+        for (OWLOntologyChange change : changes) {
+            Integer position = lastTouched.get(ChangeKey.getTarget(change));
+            if (position != null && position >= startPosition) {
+                conflicts.add(change);
+            }
+        }
+        return conflicts;
+    }
+}
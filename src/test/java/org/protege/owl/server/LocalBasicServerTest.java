@@ -1,15 +1,32 @@
 package org.protege.owl.server;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.protege.owl.server.api.AuthToken;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionPointer;
 import org.protege.owl.server.api.UserId;
 import org.protege.owl.server.api.client.Client;
+import org.protege.owl.server.api.client.RemoteOntologyDocument;
+import org.protege.owl.server.api.client.VersionedOntologyDocument;
 import org.protege.owl.server.api.exception.OWLServerException;
-import org.protege.owl.server.api.server.Server;
 import org.protege.owl.server.connect.local.LocalClient;
 import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.util.ClientUtilities;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
 
 public class LocalBasicServerTest extends AbstractBasicServerTest {
-	private Server server;
+	private ServerImpl server;
 
 	@Override
 	public void startServer() {
@@ -29,7 +46,11 @@ public class LocalBasicServerTest extends AbstractBasicServerTest {
 	
 	@Override
 	public Client createClient() {
-		return new LocalClient(new AuthToken() {
+		return new LocalClient(createAuthToken(), server);
+	}
+	
+	private AuthToken createAuthToken() {
+	    return new AuthToken() {
             
             @Override
             public int compareTo(AuthToken o) {
@@ -40,8 +61,52 @@ public class LocalBasicServerTest extends AbstractBasicServerTest {
             public UserId getUserId() {
                 return new UserId("redmond");
             }
-        }, server);
+        };
 	}
 	
-	
+	@Test
+	public void testCommitAfterSnapshotCheckout() throws OWLServerException, OWLOntologyCreationException, InterruptedException {
+	    server.setSnapshotInterval(2);
+	    Client founder = createClient();
+	    IRI location = IRI.create(getServerRoot() + "SnapshotCheckout" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+	    OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+	    ontology.getOWLOntologyManager().addAxiom(ontology, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION);
+	    VersionedOntologyDocument original = ClientUtilities.createAndGetServerOntology(founder, location, new ChangeMetaData("first"), ontology);
+	    ontology.getOWLOntologyManager().removeAxiom(ontology, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION);
+	    ontology.getOWLOntologyManager().addAxiom(ontology, PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION);
+	    ClientUtilities.commit(founder, new ChangeMetaData("second"), original);
+	    RemoteOntologyDocument doc = original.getServerDocument();
+	    OntologyDocumentRevision snapshotRevision = new OntologyDocumentRevision(2);
+	    for (int i = 0; i < 100 && !founder.getSnapshot(doc, RevisionPointer.HEAD_REVISION).getRevision().equals(snapshotRevision); i++) {
+	        Thread.sleep(100);
+	    }
+	    Assert.assertEquals(founder.getSnapshot(doc, RevisionPointer.HEAD_REVISION).getRevision(), snapshotRevision);
+
+	    final List<OntologyDocumentRevision> fetchedFrom = new ArrayList<OntologyDocumentRevision>();
+	    Client client = new LocalClient(createAuthToken(), server) {
+	        @Override
+	        public ChangeHistory getChanges(RemoteOntologyDocument document, RevisionPointer start, RevisionPointer end) throws OWLServerException {
+	            fetchedFrom.add(evaluateRevisionPointer(document, start));
+	            return super.getChanges(document, start, end);
+	        }
+	    };
+	    VersionedOntologyDocument checkout = ClientUtilities.loadOntology(client, OWLManager.createOWLOntologyManager(), doc);
+	    Assert.assertEquals(checkout.getLocalHistory().getStartRevision(), snapshotRevision);
+	    Assert.assertEquals(checkout.getBaseSnapshot().getRevision(), snapshotRevision);
+	    OWLOntology checkedOut = checkout.getOntology();
+	    Assert.assertTrue(checkedOut.containsAxiom(PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION));
+
+	    checkedOut.getOWLOntologyManager().addAxiom(checkedOut, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION);
+	    Assert.assertEquals(ClientUtilities.getUncommittedChanges(client, checkout),
+	                        Collections.singletonList(new AddAxiom(checkedOut, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION)));
+	    ClientUtilities.commit(client, new ChangeMetaData("third"), checkout);
+	    Assert.assertEquals(checkout.getRevision(), new OntologyDocumentRevision(3));
+	    for (OntologyDocumentRevision start : fetchedFrom) {
+	        Assert.assertTrue(start.compareTo(snapshotRevision) >= 0, "History fetched from revision " + start);
+	    }
+
+	    ClientUtilities.update(founder, original);
+	    Assert.assertTrue(ontology.containsAxiom(PizzaVocabulary.CHEESEY_PIZZA_DEFINITION));
+	    Assert.assertTrue(ontology.containsAxiom(PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION));
+	}
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -17,7 +18,9 @@ import org.osgi.framework.BundleException;
 import org.osgi.framework.launch.Framework;
 import org.protege.osgi.framework.Launcher;
 import org.protege.owl.server.api.AuthToken;
+import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
 import org.protege.owl.server.api.SingletonChangeHistory;
 import org.protege.owl.server.api.UserId;
@@ -118,6 +121,19 @@ public class TestUtilities {
     }
 	
 	
+    /**
+     * Appends a revision with a single change to a change history.  The commit comment names the new revision.
+     * 
+     * @param factory the document factory
+     * @param history the change history
+     * @param change the change of the new revision
+     * @return the change history with the new revision
+     */
+    public static ChangeHistory commit(DocumentFactory factory, ChangeHistory history, OWLOntologyChange change) {
+        ChangeMetaData metaData = new ChangeMetaData("Commit of revision " + history.getEndRevision());
+        return history.appendChanges(factory.createChangeDocument(Collections.singletonList(change), metaData, history.getEndRevision()));
+    }
+	
     public static void rawCommit(Client client, RemoteOntologyDocument doc, OntologyDocumentRevision revision, OWLOntologyChange... changes) throws OWLServerException {
         List<OWLOntologyChange> changeList = new ArrayList<OWLOntologyChange>();
         for (OWLOntologyChange change : changes) {
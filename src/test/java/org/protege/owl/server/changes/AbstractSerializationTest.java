@@ -1,5 +1,7 @@
 package org.protege.owl.server.changes;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -10,6 +12,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +23,8 @@ import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.ChangeMetaData;
 import org.protege.owl.server.api.DocumentFactory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.UserId;
+import org.protege.owl.server.changes.format.OWLOutputStream;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.AddAxiom;
 import org.semanticweb.owlapi.model.AddImport;
@@ -179,6 +185,57 @@ public abstract class AbstractSerializationTest {
 	    testRollingCropped(factory, 100);
 	}
 	
+	@Test
+	public void testMetaData() throws OWLOntologyCreationException, IOException {
+	    DocumentFactory factory = createDocumentFactory();
+	    ChangeHistory doc = factory.createEmptyChangeDocument(new OntologyDocumentRevision(7));
+	    String[] users = { "redmond", "vendetti", "redmond" };
+	    for (int i = 0; i < users.length; i++) {
+	        List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+	        changes.add(new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+	        ChangeMetaData metaData = new ChangeMetaData(new Date(1000L * i), "Commit \u00e9 " + i, new UserId(users[i]));
+	        doc = doc.appendChanges(factory.createChangeDocument(changes, metaData, doc.getEndRevision()));
+	    }
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    doc.writeChangeDocument(out);
+
+	    ChangeHistory doc2 = factory.readChangeDocument(new ByteArrayInputStream(out.toByteArray()), null, null);
+	    Assert.assertEquals(doc2, doc);
+	    SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = new DocumentFactoryImpl().readChangeMetaData(new ByteArrayInputStream(out.toByteArray()));
+	    Assert.assertEquals(metaData.size(), users.length);
+	    for (OntologyDocumentRevision revision = doc.getStartRevision(); revision.compareTo(doc.getEndRevision()) < 0; revision = revision.next()) {
+	        Assert.assertEquals(metaData.get(revision), doc.getMetaData(revision));
+	        Assert.assertEquals(doc2.getMetaData(revision).getUserId(), doc.getMetaData(revision).getUserId());
+	    }
+	}
+	
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testLegacyMetaData() throws OWLOntologyCreationException, IOException {
+	    DocumentFactory factory = createDocumentFactory();
+	    ChangeHistory doc = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+	    SortedMap<OntologyDocumentRevision, ChangeMetaData> metaData = new TreeMap<OntologyDocumentRevision, ChangeMetaData>();
+	    for (int i = 0; i < 3; i++) {
+	        List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+	        changes.add(new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+	        metaData.put(doc.getEndRevision(), new ChangeMetaData("Commit " + i));
+	        doc = doc.appendChanges(factory.createChangeDocument(changes, metaData.get(doc.getEndRevision()), doc.getEndRevision()));
+	    }
+	    ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    ObjectOutputStream oos = new ObjectOutputStream(out);
+	    oos.writeObject(doc.getStartRevision());
+	    oos.writeObject(metaData);
+	    oos.writeInt(3);
+	    OWLOutputStream owlStream = new OWLOutputStream(oos);
+	    for (OntologyDocumentRevision revision = doc.getStartRevision(); revision.compareTo(doc.getEndRevision()) < 0; revision = revision.next()) {
+	        owlStream.writeWithCompression(doc.cropChanges(revision, revision.next()).getChanges(ontology));
+	    }
+	    oos.flush();
+
+	    Assert.assertEquals(factory.readChangeDocument(new ByteArrayInputStream(out.toByteArray()), null, null), doc);
+	    Assert.assertEquals(new DocumentFactoryImpl().readChangeMetaData(new ByteArrayInputStream(out.toByteArray())), metaData);
+	}
+	
 	private void verifyRoundTrip(List<OWLOntologyChange> changes) throws IOException, ClassNotFoundException, OWLOntologyCreationException {
 		DocumentFactory docFactory = createDocumentFactory();
 		ChangeHistory doc = docFactory.createChangeDocument(changes, null, new OntologyDocumentRevision(r.nextInt(500)));
@@ -0,0 +1,357 @@
+package org.protege.owl.server.changes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.protege.owl.server.TestUtilities;
+import org.protege.owl.server.TestVocabulary;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.protege.owl.server.util.OWLObjectInterner;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = {"unit.test" })
+public class ChangeHistoryFileTest {
+    private DocumentFactory factory = new DocumentFactoryImpl();
+    private OWLOntology ontology;
+    private File historyFile;
+
+    @BeforeMethod
+    public void setup() throws OWLOntologyCreationException, IOException {
+        ontology = OWLManager.createOWLOntologyManager().createOntology();
+        historyFile = File.createTempFile("ChangeHistoryFileTest", ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        historyFile.delete();
+        ChangeHistoryFile.getBackupHistoryFile(historyFile).delete();
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.append(history);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        file.append(history);
+        long length = historyFile.length();
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        file.append(history);
+        Assert.assertTrue(historyFile.length() > length);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testMigration() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        ChangeHistoryUtilities.writeChanges(history, historyFile);
+        Assert.assertTrue(ChangeHistoryFile.isLegacyFormat(historyFile));
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        Assert.assertEquals(file.read(), history);
+        Assert.assertFalse(ChangeHistoryFile.isLegacyFormat(historyFile));
+        Assert.assertTrue(ChangeHistoryFile.isLegacyFormat(ChangeHistoryFile.getBackupHistoryFile(historyFile)));
+
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM2));
+        file.append(history);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testIncompleteAppend() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        new ChangeHistoryFile(factory, historyFile).append(history);
+        long length = historyFile.length();
+        ChangeHistory longerHistory = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.read();
+        file.append(longerHistory);
+        truncate(historyFile, length + 7);
+
+        file = new ChangeHistoryFile(factory, historyFile);
+        Assert.assertEquals(file.read(), history);
+        file.append(longerHistory);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), longerHistory);
+    }
+
+    @Test
+    public void testIndexedRead() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 10; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).append(history);
+        OntologyDocumentRevision start = new OntologyDocumentRevision(3);
+        OntologyDocumentRevision end = new OntologyDocumentRevision(7);
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        Assert.assertEquals(file.getEndRevision(), history.getEndRevision());
+        Assert.assertEquals(file.read(start, end), history.cropChanges(start, end));
+
+        Assert.assertTrue(ChangeHistoryIndex.getIndexFile(historyFile).delete());
+        file = new ChangeHistoryFile(factory, historyFile);
+        Assert.assertEquals(file.read(start, end), history.cropChanges(start, end));
+        Assert.assertEquals(file.read(end, null), history.cropChanges(end, null));
+    }
+
+    @Test
+    public void testMemoryMappedRead() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 6; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).write(history);
+        OntologyDocumentRevision start = new OntologyDocumentRevision(2);
+        OntologyDocumentRevision end = new OntologyDocumentRevision(5);
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.setMemoryMapped(true);
+        Assert.assertEquals(file.read(), history);
+        Assert.assertEquals(file.read(start, end), history.cropChanges(start, end));
+    }
+
+    @Test
+    public void testParallelRead() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 11; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).write(history);
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.setParallelism(4);
+        file.setParallelReadThreshold(0);
+        Assert.assertEquals(file.read(), history);
+        Assert.assertEquals(file.getEndRevision(), history.getEndRevision());
+
+        file = new ChangeHistoryFile(factory, historyFile);
+        file.setParallelism(20);
+        file.setParallelReadThreshold(0);
+        Assert.assertEquals(file.read(), history);
+    }
+
+    @Test
+    public void testInternedRead() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 4; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).write(history);
+
+        OWLObjectInterner interner = new OWLObjectInterner();
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.setInterner(interner);
+        ChangeHistory read = file.read();
+        Assert.assertEquals(read, history);
+        Map<IRI, OWLClass> canonical = new HashMap<IRI, OWLClass>();
+        for (OWLOntologyChange change : read.getChanges(ontology)) {
+            for (OWLClass cls : change.getAxiom().getClassesInSignature()) {
+                if (!canonical.containsKey(cls.getIRI())) {
+                    canonical.put(cls.getIRI(), cls);
+                }
+                Assert.assertSame(cls, canonical.get(cls.getIRI()));
+            }
+        }
+        Assert.assertEquals(canonical.size(), 3);
+        Assert.assertTrue(interner.getHitCount() > 0);
+    }
+
+    @Test
+    public void testCompressionDictionary() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 20; i++) {
+            OWLClass cls = ontology.getOWLOntologyManager().getOWLDataFactory().getOWLClass(IRI.create(TestVocabulary.NS + "#Class" + i));
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, ontology.getOWLOntologyManager().getOWLDataFactory().getOWLSubClassOfAxiom(cls, TestVocabulary.A)));
+        }
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.write(history);
+        Assert.assertTrue(new String(file.getDictionary(), "UTF-8").contains(TestVocabulary.NS));
+
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        file.append(history);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+        file = new ChangeHistoryFile(factory, historyFile);
+        file.setMemoryMapped(true);
+        Assert.assertEquals(file.read(), history);
+
+        file.compact();
+        Assert.assertTrue(file.getDictionary().length > 0);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testDamagedRecord() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 6; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).write(history);
+        OntologyDocumentRevision damaged = new OntologyDocumentRevision(3);
+        ChangeHistoryIndex index = new ChangeHistoryFile(factory, historyFile).getIndex();
+        flipByte(historyFile, index.getRecordOffset(damaged) + index.getRecordLength(damaged) / 2);
+
+        for (int parallelism : new int[] { 1, 3 }) {
+            ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+            file.setParallelism(parallelism);
+            file.setParallelReadThreshold(0);
+            try {
+                file.read();
+                Assert.fail("The damaged record was not detected");
+            }
+            catch (DamagedHistoryException damage) {
+                Assert.assertEquals(damage.getDamagedRevision(), damaged);
+                Assert.assertEquals(damage.getValidHistory(), history.cropChanges(history.getStartRevision(), damaged));
+            }
+        }
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        try {
+            file.read();
+            Assert.fail("The damaged record was not detected");
+        }
+        catch (DamagedHistoryException damage) {
+            Assert.assertEquals(file.repair(damage), history.cropChanges(history.getStartRevision(), damaged));
+        }
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history.cropChanges(history.getStartRevision(), damaged));
+        file.append(history);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testRepairFromBackup() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 4; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        ChangeHistoryUtilities.writeChanges(history, historyFile);
+        new ChangeHistoryFile(factory, historyFile).read();
+        OntologyDocumentRevision damaged = new OntologyDocumentRevision(2);
+        ChangeHistoryIndex index = new ChangeHistoryFile(factory, historyFile).getIndex();
+        flipByte(historyFile, index.getRecordOffset(damaged) + 4);
+
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        try {
+            file.read();
+            Assert.fail("The damaged record was not detected");
+        }
+        catch (DamagedHistoryException damage) {
+            Assert.assertEquals(damage.getDamagedRevision(), damaged);
+            Assert.assertEquals(file.repair(damage), history);
+        }
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testRecoverFromBackup() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        ChangeHistoryUtilities.writeChanges(history, historyFile);
+        new ChangeHistoryFile(factory, historyFile).read();
+        flipByte(historyFile, 0);
+
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).recoverFromBackup(), history);
+        Assert.assertEquals(new ChangeHistoryFile(factory, historyFile).read(), history);
+    }
+
+    @Test
+    public void testStaleBackupIsNotRestored() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        ChangeHistoryUtilities.writeChanges(history, historyFile);
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.read();
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        file.append(history);
+        flipByte(historyFile, 0);
+        byte[] damaged = Files.readAllBytes(historyFile.toPath());
+
+        try {
+            new ChangeHistoryFile(factory, historyFile).recoverFromBackup();
+            Assert.fail("The history file was replaced by a backup that is missing its last revision");
+        }
+        catch (IOException expected) {
+            ;
+        }
+        Assert.assertEquals(Files.readAllBytes(historyFile.toPath()), damaged);
+        Assert.assertTrue(ChangeHistoryFile.isLegacyFormat(ChangeHistoryFile.getBackupHistoryFile(historyFile)));
+    }
+
+    @Test
+    public void testForEachRevision() throws IOException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 6; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        new ChangeHistoryFile(factory, historyFile).write(history);
+        OntologyDocumentRevision start = new OntologyDocumentRevision(2);
+        OntologyDocumentRevision end = new OntologyDocumentRevision(5);
+
+        RevisionCollector fromFile = new RevisionCollector();
+        new ChangeHistoryFile(factory, historyFile).forEachRevision(start, end, fromFile);
+        Assert.assertEquals(fromFile.toChangeHistory(start, factory), history.cropChanges(start, end));
+
+        RevisionCollector fromMemory = new RevisionCollector();
+        history.forEachRevision(start, end, fromMemory);
+        Assert.assertEquals(fromMemory.toChangeHistory(start, factory), history.cropChanges(start, end));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        history.writeChangeDocument(out);
+        final List<OntologyDocumentRevision> visited = new ArrayList<OntologyDocumentRevision>();
+        factory.readChangeDocument(new ByteArrayInputStream(out.toByteArray()), start, end, new RevisionVisitor() {
+            @Override
+            public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) {
+                Assert.assertEquals(metaData.getCommitComment(), "Commit of revision " + revision);
+                Assert.assertEquals(changes.size(), 1);
+                visited.add(revision);
+            }
+        });
+        Assert.assertEquals(visited, Arrays.asList(start, start.next(), start.next().next()));
+    }
+
+
+    private static void flipByte(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        }
+        finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.protege.owl.server.changes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.protege.owl.server.TestUtilities;
+import org.protege.owl.server.TestVocabulary;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionVisitor;
+import org.protege.owl.server.util.ChangeUtilities;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = {"unit.test" })
+public class ChangeHistoryImplTest {
+    private DocumentFactory factory = new DocumentFactoryImpl();
+    private OWLOntology ontology;
+
+    @BeforeMethod
+    public void setup() throws OWLOntologyCreationException {
+        ontology = OWLManager.createOWLOntologyManager().createOntology();
+    }
+
+    @Test
+    public void testAppendKeepsEarlierHistories() {
+        ChangeHistory empty = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        ChangeHistory one = TestUtilities.commit(factory, empty, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        ChangeHistory two = TestUtilities.commit(factory, one, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        ChangeHistory branch = TestUtilities.commit(factory, one, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+
+        Assert.assertEquals(empty.getEndRevision(), OntologyDocumentRevision.START_REVISION);
+        Assert.assertEquals(one.getEndRevision(), new OntologyDocumentRevision(1));
+        Assert.assertEquals(one.getChanges(ontology), Collections.singletonList(new AddAxiom(ontology, TestVocabulary.AXIOM1)));
+        Assert.assertTrue(two.getChanges(ontology).contains(new AddAxiom(ontology, TestVocabulary.AXIOM2)));
+        Assert.assertEquals(branch.getChanges(ontology), Collections.singletonList(new RemoveAxiom(ontology, TestVocabulary.AXIOM1)));
+        Assert.assertEquals(two.getMetaData(new OntologyDocumentRevision(1)).getCommitComment(), "Commit of revision 1");
+        Assert.assertNull(one.getMetaData(new OntologyDocumentRevision(1)));
+
+        ChangeHistory three = TestUtilities.commit(factory, two, new RemoveAxiom(ontology, TestVocabulary.AXIOM2));
+        Assert.assertEquals(two.getEndRevision(), new OntologyDocumentRevision(2));
+        Assert.assertEquals(three.cropChanges(null, two.getEndRevision()), two);
+        Assert.assertEquals(branch.cropChanges(null, one.getEndRevision()), one);
+    }
+
+    @Test
+    public void testAppendToCroppedHistory() {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 200; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        OntologyDocumentRevision start = new OntologyDocumentRevision(70);
+        OntologyDocumentRevision end = new OntologyDocumentRevision(130);
+        ChangeHistory cropped = history.cropChanges(start, end);
+        Assert.assertEquals(cropped.getStartRevision(), start);
+        Assert.assertEquals(cropped.getEndRevision(), end);
+        Assert.assertEquals(cropped.getMetaData(start), history.getMetaData(start));
+        Assert.assertNull(cropped.getMetaData(end));
+
+        ChangeHistory appended = TestUtilities.commit(factory, cropped, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        Assert.assertEquals(appended.cropChanges(start, end), history.cropChanges(start, end));
+        Assert.assertEquals(appended.getEndRevision(), end.next());
+        Assert.assertFalse(history.cropChanges(end, end.next()).getChanges(ontology).equals(appended.cropChanges(end, null).getChanges(ontology)));
+    }
+
+    @Test
+    public void testChangeCount() {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 200; i++) {
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, i % 2 == 0 ? TestVocabulary.AXIOM1 : TestVocabulary.AXIOM2));
+        }
+        ChangeHistoryImpl cropped = (ChangeHistoryImpl) history.cropChanges(new OntologyDocumentRevision(70), new OntologyDocumentRevision(130));
+        Assert.assertEquals(((ChangeHistoryImpl) history).getChangeCount(), 200);
+        Assert.assertEquals(cropped.getChangeCount(), 60);
+        Assert.assertEquals(cropped.getChangeCount(new OntologyDocumentRevision(100), new OntologyDocumentRevision(130)), 30);
+        Assert.assertEquals(cropped.getChangeCount(OntologyDocumentRevision.START_REVISION, new OntologyDocumentRevision(200)), 60);
+    }
+
+    @Test
+    public void testNetDeltaOfRanges() throws IOException {
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        Random random = new Random(42);
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < 300; i++) {
+            OWLAxiom axiom = dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(IRI.create(TestVocabulary.NS + "#C" + random.nextInt(20))), TestVocabulary.A);
+            history = TestUtilities.commit(factory, history, random.nextBoolean() ? new AddAxiom(ontology, axiom) : new RemoveAxiom(ontology, axiom));
+        }
+        int[][] ranges = { { 0, 300 }, { 0, 64 }, { 64, 192 }, { 1, 299 }, { 63, 129 }, { 100, 101 }, { 128, 256 }, { 5, 260 } };
+        for (int pass = 0; pass < 2; pass++) {
+            for (int[] range : ranges) {
+                OntologyDocumentRevision start = new OntologyDocumentRevision(range[0]);
+                OntologyDocumentRevision end = new OntologyDocumentRevision(range[1]);
+                final List<OWLOntologyChange> allChanges = new ArrayList<OWLOntologyChange>();
+                history.forEachRevision(start, end, new RevisionVisitor() {
+                    @Override
+                    public void visit(OntologyDocumentRevision revision, ChangeMetaData metaData, List<OWLOntologyChange> changes) {
+                        allChanges.addAll(changes);
+                    }
+                });
+                Set<OWLOntologyChange> expected = new HashSet<OWLOntologyChange>(ReplaceChangedOntologyVisitor.mutate(ontology, ChangeUtilities.normalizeChangeDelta(allChanges)));
+                List<OWLOntologyChange> delta = history.cropChanges(start, end).getChanges(ontology);
+                Assert.assertEquals(delta.size(), expected.size());
+                Assert.assertEquals(new HashSet<OWLOntologyChange>(delta), expected);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockDeltaCacheIsBounded() {
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        List<List<OWLOntologyChange>> changes = new ArrayList<List<OWLOntologyChange>>();
+        List<ChangeMetaData> metaData = new ArrayList<ChangeMetaData>();
+        for (int i = 0; i < 1024; i++) {
+            OWLAxiom axiom = dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(IRI.create(TestVocabulary.NS + "#C" + i)), TestVocabulary.A);
+            changes.add(Collections.<OWLOntologyChange>singletonList(new AddAxiom(ontology, axiom)));
+            metaData.add(new ChangeMetaData("Commit of revision " + i));
+        }
+        RevisionLog log = RevisionLog.create(changes, metaData);
+        log.setMaxCachedChanges(300);
+
+        Assert.assertEquals(log.getNormalizedChanges(0, 1024).size(), 1024);
+        Assert.assertEquals(log.getCachedChangeCount(), 1024);
+        Assert.assertEquals(log.getNormalizedChanges(64, 128).size(), 64);
+        Assert.assertEquals(log.getCachedChangeCount(), 64);
+        Assert.assertEquals(log.getNormalizedChanges(0, 1024).size(), 1024);
+    }
+
+}
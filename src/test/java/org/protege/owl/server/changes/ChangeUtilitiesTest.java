@@ -12,10 +12,20 @@ import junit.framework.Assert;
 import org.protege.owl.server.util.ChangeUtilities;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
 import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.semanticweb.owlapi.model.RemoveImport;
+import org.semanticweb.owlapi.model.RemoveOntologyAnnotation;
+import org.semanticweb.owlapi.model.SetOntologyID;
 import org.testng.annotations.Test;
 
 @Test(groups = { "unit.test" })
@@ -57,5 +67,59 @@ public class ChangeUtilitiesTest {
         Assert.assertEquals(Collections.singletonList(removeAxiom), changes);
 
     }
+    
+    @Test
+    public void testSwapOrderOfChangeLists() throws OWLOntologyCreationException {
+        OWLOntology fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory factory = fakeOntology.getOWLOntologyManager().getOWLDataFactory();
+        OWLImportsDeclaration decl1 = factory.getOWLImportsDeclaration(IRI.create("http://example.org/one.owl"));
+        OWLImportsDeclaration decl2 = factory.getOWLImportsDeclaration(IRI.create("http://example.org/two.owl"));
+        OWLAnnotation annotation1 = factory.getOWLAnnotation(factory.getRDFSComment(), factory.getOWLLiteral("one"));
+        OWLAnnotation annotation2 = factory.getOWLAnnotation(factory.getRDFSComment(), factory.getOWLLiteral("two"));
+        
+        List<OWLOntologyChange> firstChanges = new ArrayList<OWLOntologyChange>();
+        firstChanges.add(new AddAxiom(fakeOntology, CHEESEY_PIZZA_DEFINITION));
+        firstChanges.add(new AddAxiom(fakeOntology, NOT_CHEESEY_PIZZA_DEFINITION));
+        firstChanges.add(new AddImport(fakeOntology, decl1));
+        firstChanges.add(new AddImport(fakeOntology, decl2));
+        firstChanges.add(new AddOntologyAnnotation(fakeOntology, annotation1));
+        firstChanges.add(new AddOntologyAnnotation(fakeOntology, annotation2));
+        
+        List<OWLOntologyChange> secondChanges = new ArrayList<OWLOntologyChange>();
+        secondChanges.add(new RemoveAxiom(fakeOntology, CHEESEY_PIZZA_DEFINITION));
+        secondChanges.add(new RemoveImport(fakeOntology, decl1));
+        secondChanges.add(new RemoveOntologyAnnotation(fakeOntology, annotation1));
+        
+        List<OWLOntologyChange> expected = new ArrayList<OWLOntologyChange>();
+        expected.add(new AddAxiom(fakeOntology, NOT_CHEESEY_PIZZA_DEFINITION));
+        expected.add(new AddImport(fakeOntology, decl2));
+        expected.add(new AddOntologyAnnotation(fakeOntology, annotation2));
+        
+        List<OWLOntologyChange> swapped = ChangeUtilities.swapOrderOfChangeLists(firstChanges, secondChanges);
+        Assert.assertEquals(expected.size(), swapped.size());
+        Assert.assertTrue(swapped.containsAll(expected));
+        for (OWLOntologyChange change : swapped) {
+            Assert.assertFalse(ChangeUtilities.overlappingChange(change, secondChanges));
+        }
+    }
+    
+    @Test
+    public void testSwapKeepsOtherOntologies() throws OWLOntologyCreationException {
+        OWLOntology ontology1 = OWLManager.createOWLOntologyManager().createOntology();
+        OWLOntology ontology2 = OWLManager.createOWLOntologyManager().createOntology();
+        OWLOntologyChange addAxiom = new AddAxiom(ontology1, CHEESEY_PIZZA_DEFINITION);
+        OWLOntologyChange removeAxiom = new RemoveAxiom(ontology2, CHEESEY_PIZZA_DEFINITION);
+        List<OWLOntologyChange> swapped = ChangeUtilities.swapOrderOfChangeLists(Collections.singletonList(addAxiom), Collections.singletonList(removeAxiom));
+        Assert.assertEquals(Collections.singletonList(addAxiom), swapped);
+    }
+    
+    @Test
+    public void testSwapOntologyId() throws OWLOntologyCreationException {
+        OWLOntology fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLOntologyChange setId1 = new SetOntologyID(fakeOntology, new OWLOntologyID(IRI.create("http://example.org/one.owl")));
+        OWLOntologyChange setId2 = new SetOntologyID(fakeOntology, new OWLOntologyID(IRI.create("http://example.org/two.owl")));
+        List<OWLOntologyChange> swapped = ChangeUtilities.swapOrderOfChangeLists(Collections.singletonList(setId1), Collections.singletonList(setId2));
+        Assert.assertTrue(swapped.isEmpty());
+    }
 
 }
@@ -64,6 +64,60 @@ public class FormatTest {
         Assert.assertEquals(changes, changes2);
     }
     
+    @Test
+    public void testSmallFrameSerialization() throws IOException {
+        File serializedFile = File.createTempFile("FormatTest", ".ser");
+        List<OWLOntologyChange> changes = getChanges();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(serializedFile));
+        OWLOutputStream owlOut = new OWLOutputStream(os);
+        owlOut.setCompressionLimit(1);
+        owlOut.setFrameSize(64);
+        owlOut.writeWithCompression(changes);
+        owlOut.write(changes);
+        os.flush();
+        os.close();
+        InputStream is = new BufferedInputStream(new FileInputStream(serializedFile));
+        OWLInputStream owlIn = new OWLInputStream(is);
+        Assert.assertEquals(changes, adjust(owlIn.read()));
+        Assert.assertEquals(changes, adjust(owlIn.read()));
+        is.close();
+    }
+    
+    @Test
+    public void testLegacyCompressedSerialization() throws IOException {
+        File serializedFile = File.createTempFile("FormatTest", ".ser");
+        List<OWLOntologyChange> changes = getChanges();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(serializedFile));
+        OWLOutputStream owlOut = new OWLOutputStream(os);
+        owlOut.setFormatVersion(OWLOutputStream.LEGACY_FORMAT_VERSION);
+        owlOut.setCompressionLimit(1);
+        owlOut.writeWithCompression(changes);
+        os.flush();
+        os.close();
+        Assert.assertEquals(changes, readChanges(serializedFile));
+    }
+    
+    @Test
+    public void testLegacySerialization() throws IOException {
+        File serializedFile = File.createTempFile("FormatTest", ".ser");
+        List<OWLOntologyChange> changes = getChanges();
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(serializedFile));
+        OWLOutputStream owlOut = new OWLOutputStream(os);
+        owlOut.setFormatVersion(OWLOutputStream.LEGACY_FORMAT_VERSION);
+        owlOut.write(changes);
+        os.flush();
+        os.close();
+        List<OWLOntologyChange> changes2 = readChanges(serializedFile);
+        Assert.assertEquals(changes, changes2);
+        Assert.assertTrue(serializedFile.length() > writeAndMeasure(changes));
+    }
+    
+    private long writeAndMeasure(List<OWLOntologyChange> changes) throws IOException {
+        File serializedFile = File.createTempFile("FormatTest", ".ser");
+        writeChanges(changes, serializedFile);
+        return serializedFile.length();
+    }
+    
     private List<OWLOntologyChange> getChanges() {
         List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
         changes.add(new SetOntologyID(ontology, ontology.getOntologyID()));
@@ -104,6 +158,12 @@ public class FormatTest {
         List<OWLOntologyChange> changes = (List<OWLOntologyChange>) new OWLInputStream(is).read();
         is.close();
         logger.debug("Read of history file took " + ((System.currentTimeMillis() - startTime)/1000) + " seconds.");
+        return adjust(changes);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<OWLOntologyChange> adjust(Object o) {
+        List<OWLOntologyChange> changes = (List<OWLOntologyChange>) o;
         ReplaceChangedOntologyVisitor visitor = new ReplaceChangedOntologyVisitor(ontology);
         List<OWLOntologyChange> adjustedChanges = new ArrayList<OWLOntologyChange>();
         for (OWLOntologyChange change : changes) {
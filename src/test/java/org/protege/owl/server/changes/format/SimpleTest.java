@@ -1,5 +1,7 @@
 package org.protege.owl.server.changes.format;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -7,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.semanticweb.owlapi.model.IRI;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -28,4 +31,70 @@ public class SimpleTest {
         Assert.assertEquals(j, i);
 
     }
+    
+    @Test
+    public static void testVarInt() throws IOException {
+        int[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE };
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (int i : values) {
+            IOUtils.writeVarInt(os, i);
+        }
+        Assert.assertEquals(os.size(), 1 + 1 + 1 + 2 + 2 + 2 + 3 + 5);
+        InputStream is = new ByteArrayInputStream(os.toByteArray());
+        for (int i : values) {
+            Assert.assertEquals(IOUtils.readVarInt(is), i);
+        }
+    }
+    
+    @Test
+    public static void testIRISymbols() throws IOException {
+        IRI a = IRI.create("http://example.org/ontology#A");
+        IRI b = IRI.create("http://example.org/ontology#B");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        OWLOutputStream out = new OWLOutputStream(os);
+        out.write(a);
+        int definitionSize = os.size();
+        out.write(b);
+        Assert.assertTrue(os.size() - definitionSize < definitionSize);
+        int beforeReference = os.size();
+        out.write(a);
+        Assert.assertEquals(os.size() - beforeReference, 2);
+        
+        OWLInputStream in = new OWLInputStream(new ByteArrayInputStream(os.toByteArray()));
+        Assert.assertEquals(in.read(), a);
+        Assert.assertEquals(in.read(), b);
+        Assert.assertEquals(in.read(), a);
+    }
+    
+    @Test
+    public static void testFormatHeader() throws IOException {
+        IRI a = IRI.create("http://example.org/ontology#A");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new OWLOutputStream(os).write(a);
+        byte[] bytes = os.toByteArray();
+        Assert.assertEquals(bytes[0], OWLObjectType.FORMAT_HEADER.ordinal());
+        Assert.assertEquals(bytes[1], OWLOutputStream.FORMAT_VERSION);
+        OWLInputStream in = new OWLInputStream(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(in.read(), a);
+        Assert.assertEquals(in.getFormatVersion(), OWLOutputStream.FORMAT_VERSION);
+        
+        bytes[1] = OWLOutputStream.FORMAT_VERSION + 1;
+        try {
+            new OWLInputStream(new ByteArrayInputStream(bytes)).read();
+            Assert.fail("Read a stream with an unsupported format version");
+        }
+        catch (IOException expected) {
+            ;
+        }
+    }
+    
+    @Test
+    public static void testReadOldIRIFormat() throws IOException {
+        IRI a = IRI.create("http://example.org/ontology#A");
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(OWLObjectType.IRI_TYPE.ordinal());
+        IOUtils.writeString(os, a.toString());
+        OWLInputStream in = new OWLInputStream(new ByteArrayInputStream(os.toByteArray()));
+        Assert.assertEquals(in.read(), a);
+    }
 }
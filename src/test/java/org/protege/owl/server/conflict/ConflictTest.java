@@ -3,6 +3,7 @@ package org.protege.owl.server.conflict;
 import static org.protege.owl.server.PizzaVocabulary.CHEESEY_PIZZA_DEFINITION;
 import static org.protege.owl.server.PizzaVocabulary.HAS_TOPPING_DOMAIN;
 import static org.protege.owl.server.PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION;
+import static org.protege.owl.server.PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION;
 import static org.protege.owl.server.TestUtilities.REDMOND;
 import static org.protege.owl.server.TestUtilities.VENDETTI;
 import static org.protege.owl.server.TestUtilities.PASSWORD_MAP;
@@ -35,6 +36,7 @@ import org.semanticweb.owlapi.model.AddAxiom;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.RemoveAxiom;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -84,6 +86,37 @@ public class ConflictTest {
         Assert.assertTrue(foundConflict);
     }
     
+    @Test
+    public void testConflictSeveralRevisionsBehind() throws OWLOntologyCreationException, OWLServerException {
+        setupClient1();
+        setupClient2();
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), HAS_TOPPING_DOMAIN));
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), CHEESEY_PIZZA_DEFINITION));
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), VEGI_CHEESEY_PIZZA_DEFINITION));
+        boolean foundConflict = false;
+        try {
+            TestUtilities.commit(client2, vont2, new AddAxiom(vont2.getOntology(), CHEESEY_PIZZA_DEFINITION));
+        }
+        catch (ConflictException ce) {
+            foundConflict = true;
+        }
+        Assert.assertTrue(foundConflict);
+    }
+    
+    @Test
+    public void testNoConflictBeforeBaseRevision() throws OWLOntologyCreationException, OWLServerException {
+        setupClient1();
+        setupClient2();
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), CHEESEY_PIZZA_DEFINITION));
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), HAS_TOPPING_DOMAIN));
+        ClientUtilities.update(client2, vont2);
+        TestUtilities.commit(client2, vont2, new RemoveAxiom(vont2.getOntology(), CHEESEY_PIZZA_DEFINITION));
+        TestUtilities.commit(client1, vont1, new AddAxiom(vont1.getOntology(), NOT_CHEESEY_PIZZA_DEFINITION));
+        ClientUtilities.update(client1, vont1);
+        Assert.assertFalse(vont1.getOntology().containsAxiom(CHEESEY_PIZZA_DEFINITION));
+        Assert.assertTrue(vont1.getOntology().containsAxiom(NOT_CHEESEY_PIZZA_DEFINITION));
+    }
+    
     private void setupClient1() throws OWLOntologyCreationException, OWLServerException {
         client1 = getClient(REDMOND.getUserName(), PASSWORD_MAP.get(REDMOND));
         OWLOntology ontology1 = OWLManager.createOWLOntologyManager().createOntology();
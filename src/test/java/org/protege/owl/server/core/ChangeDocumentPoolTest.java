@@ -0,0 +1,216 @@
+package org.protege.owl.server.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.protege.owl.server.TestUtilities;
+import org.protege.owl.server.TestVocabulary;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.exception.OWLServerException;
+import org.protege.owl.server.api.server.ServerOntologyDocument;
+import org.protege.owl.server.api.server.ServerPath;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = {"unit.test" })
+public class ChangeDocumentPoolTest {
+    private DocumentFactory factory = new DocumentFactoryImpl();
+    private File dir;
+    private ChangeDocumentPool pool;
+
+    @BeforeMethod
+    public void setup() throws IOException, OWLOntologyCreationException {
+        dir = File.createTempFile("ChangeDocumentPoolTest", "");
+        dir.delete();
+        dir.mkdir();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        for (String name : new String[] { "a", "b" }) {
+            ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+            history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+            new ChangeHistoryFile(factory, getHistoryFile(name)).write(history);
+        }
+        pool = new ChangeDocumentPool(factory, 60 * 1000);
+        pool.getSnapshotManager().setSnapshotInterval(0);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        pool.dispose();
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        long weight = pool.getWeight();
+        Assert.assertTrue(weight > 0);
+        pool.setMemoryBudget(weight * 3 / 2);
+
+        pool.getChangeDocument(getDocument("b"), getHistoryFile("b"));
+        Assert.assertFalse(pool.testServerLocation(getDocument("a").getServerPath()));
+        Assert.assertTrue(pool.testServerLocation(getDocument("b").getServerPath()));
+        Assert.assertEquals(pool.getEvictionCount(), 1);
+
+        pool.getChangeDocument(getDocument("b"), getHistoryFile("b"));
+        ChangeHistory a = pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        Assert.assertEquals(a.getEndRevision(), new OntologyDocumentRevision(2));
+        Assert.assertTrue(pool.testServerLocation(getDocument("a").getServerPath()));
+        Assert.assertFalse(pool.testServerLocation(getDocument("b").getServerPath()));
+        Assert.assertEquals(pool.getHitCount(), 1);
+        Assert.assertEquals(pool.getMissCount(), 3);
+        Assert.assertEquals(pool.getEvictionCount(), 2);
+    }
+
+    @Test
+    public void testNoBudget() throws Exception {
+        pool.setMemoryBudget(0);
+        pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        pool.getChangeDocument(getDocument("b"), getHistoryFile("b"));
+        Assert.assertTrue(pool.testServerLocation(getDocument("a").getServerPath()));
+        Assert.assertTrue(pool.testServerLocation(getDocument("b").getServerPath()));
+        Assert.assertEquals(pool.getEvictionCount(), 0);
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        File recentDocuments = new File(dir, "recent-documents.txt");
+        pool.setRecentDocumentsFile(recentDocuments);
+        pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        pool.getChangeDocument(getDocument("b"), getHistoryFile("b"));
+        pool.dispose();
+
+        pool = new ChangeDocumentPool(factory, 60 * 1000);
+        pool.setRecentDocumentsFile(recentDocuments);
+        Assert.assertEquals(new HashSet<ServerPath>(pool.readRecentDocuments()),
+                            new HashSet<ServerPath>(Arrays.asList(getDocument("a").getServerPath(), getDocument("b").getServerPath())));
+        Map<ServerOntologyDocument, File> documents = new LinkedHashMap<ServerOntologyDocument, File>();
+        for (ServerPath path : pool.readRecentDocuments()) {
+            documents.put(new ServerOntologyDocumentImpl(path), new File(dir, path.pathAsString()));
+        }
+        Assert.assertEquals(pool.warmUp(documents), 2);
+        Assert.assertTrue(pool.testServerLocation(getDocument("a").getServerPath()));
+        Assert.assertTrue(pool.testServerLocation(getDocument("b").getServerPath()));
+    }
+
+    @Test
+    public void testFailedWriteIsRolledBack() throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory saved = pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        Assert.assertTrue(getHistoryFile("a").delete());
+        Assert.assertTrue(getHistoryFile("a").mkdir());
+
+        ChangeHistory failed = TestUtilities.commit(factory, saved, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        try {
+            pool.setChangeDocument(getDocument("a"), getHistoryFile("a"), saved, failed).await();
+            Assert.fail("The history file can't be written");
+        }
+        catch (OWLServerException expected) {
+            ;
+        }
+        ChangeHistory current = pool.getChangeDocument(getDocument("a"), getHistoryFile("a"));
+        Assert.assertSame(current, saved);
+        try {
+            pool.setChangeDocument(getDocument("a"), getHistoryFile("a"), failed, TestUtilities.commit(factory, failed, new AddAxiom(ontology, TestVocabulary.AXIOM1)));
+            Assert.fail("A commit computed from the unsaved revision must be rejected");
+        }
+        catch (OWLServerException expected) {
+            ;
+        }
+        Assert.assertEquals(pool.getChangeDocument(getDocument("a"), getHistoryFile("a")).getEndRevision(), new OntologyDocumentRevision(2));
+        getHistoryFile("a").delete();
+    }
+
+    @Test
+    public void testReadersOnlySeeSavedRevisions() throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        final ServerOntologyDocument doc = getDocument("a");
+        final File historyFile = getHistoryFile("a");
+        final OntologyDocumentRevision saved = new OntologyDocumentRevision(2);
+        ChangeHistory history = pool.getChangeDocument(doc, historyFile);
+        pool.setGroupCommitWindow(2000);
+        CommitBatch batch = pool.setChangeDocument(doc, historyFile, history, TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM1)));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 20; i++) {
+                OntologyDocumentRevision head = reader.submit(new Callable<OntologyDocumentRevision>() {
+                    @Override
+                    public OntologyDocumentRevision call() throws OWLServerException {
+                        return pool.getEndRevision(doc, historyFile);
+                    }
+                }).get();
+                Assert.assertEquals(head, saved);
+                ChangeHistory changes = reader.submit(new Callable<ChangeHistory>() {
+                    @Override
+                    public ChangeHistory call() throws OWLServerException {
+                        return pool.getChanges(doc, historyFile, OntologyDocumentRevision.START_REVISION, null);
+                    }
+                }).get();
+                Assert.assertEquals(changes.getEndRevision(), saved);
+            }
+        }
+        finally {
+            reader.shutdown();
+        }
+        CommitBatch.beginDeferral();
+        try {
+            Assert.assertEquals(pool.getEndRevision(doc, historyFile), saved.next());
+        }
+        finally {
+            CommitBatch.endDeferral();
+        }
+
+        batch.await();
+        Assert.assertEquals(pool.getEndRevision(doc, historyFile), saved.next());
+    }
+
+    @Test
+    public void testDamagedHistoryIsNotServedFromTheIndex() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(getHistoryFile("a"), "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xff);
+        }
+        finally {
+            raf.close();
+        }
+        try {
+            pool.getEndRevision(getDocument("a"), getHistoryFile("a"));
+            Assert.fail("The last revision of the history is damaged");
+        }
+        catch (OWLServerException expected) {
+            ;
+        }
+        Assert.assertEquals(pool.getEndRevision(getDocument("b"), getHistoryFile("b")), new OntologyDocumentRevision(2));
+    }
+
+    private File getHistoryFile(String name) {
+        return new File(dir, name + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+    }
+
+    private ServerOntologyDocument getDocument(String name) {
+        return new ServerOntologyDocumentImpl(new ServerPath("/" + name + ChangeHistory.CHANGE_DOCUMENT_EXTENSION));
+    }
+
+}
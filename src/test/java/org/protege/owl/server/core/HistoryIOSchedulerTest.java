@@ -0,0 +1,117 @@
+package org.protege.owl.server.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = {"unit.test" })
+public class HistoryIOSchedulerTest {
+    private HistoryIOScheduler scheduler;
+
+    @BeforeMethod
+    public void setup() {
+        scheduler = new HistoryIOScheduler(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        Assert.assertTrue(scheduler.shutdown());
+    }
+
+    @Test
+    public void testSerialOrder() {
+        HistoryIOScheduler.SerialQueue queue = scheduler.createQueue("test");
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            expected.add(i);
+            queue.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return order.add(task);
+                }
+            });
+        }
+        Assert.assertTrue(queue.drain());
+        Assert.assertEquals(order, expected);
+        Assert.assertEquals(scheduler.getQueueDepth(), 0);
+        Assert.assertEquals(scheduler.getCompletedTaskCount(), 100);
+    }
+
+    @Test
+    public void testQueuesRunInParallel() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Boolean> blocked = scheduler.createQueue("first").submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                return started.await(10, TimeUnit.SECONDS);
+            }
+        });
+        scheduler.createQueue("second").submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                started.countDown();
+                return true;
+            }
+        });
+        Assert.assertTrue(blocked.get());
+    }
+
+    @Test
+    public void testDrainsShareOneDeadline() {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<HistoryIOScheduler.SerialQueue> queues = new ArrayList<HistoryIOScheduler.SerialQueue>();
+        for (int i = 0; i < 2; i++) {
+            HistoryIOScheduler.SerialQueue queue = scheduler.createQueue("blocked " + i);
+            queue.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws InterruptedException {
+                    return release.await(10, TimeUnit.SECONDS);
+                }
+            });
+            queues.add(queue);
+        }
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + 200;
+        for (HistoryIOScheduler.SerialQueue queue : queues) {
+            Assert.assertFalse(queue.drain(deadline));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 2 * 200);
+        release.countDown();
+        for (HistoryIOScheduler.SerialQueue queue : queues) {
+            Assert.assertTrue(queue.drain());
+        }
+    }
+
+    @Test
+    public void testOneQueuePerFile() {
+        File history = new File("test.history");
+        Assert.assertSame(scheduler.getQueue(history), scheduler.getQueue(history.getAbsoluteFile()));
+        Assert.assertNotSame(scheduler.getQueue(history), scheduler.getQueue(new File("other.history")));
+    }
+
+    @Test
+    public void testDrainWaitsForScheduledWork() {
+        HistoryIOScheduler.SerialQueue queue = scheduler.createQueue("test");
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        queue.schedule(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return done.add(1);
+            }
+        }, 50);
+        Assert.assertTrue(queue.drain());
+        Assert.assertEquals(done.size(), 1);
+    }
+}
@@ -9,6 +9,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.Collections;
 
 import junit.framework.Assert;
@@ -16,6 +17,7 @@ import junit.framework.Assert;
 import org.protege.owl.server.PizzaVocabulary;
 import org.protege.owl.server.TestUtilities;
 import org.protege.owl.server.api.AuthToken;
+import org.protege.owl.server.api.ChangeHistory;
 import org.protege.owl.server.api.OntologyDocumentRevision;
 import org.protege.owl.server.api.client.Client;
 import org.protege.owl.server.api.client.RemoteOntologyDocument;
@@ -23,6 +25,9 @@ import org.protege.owl.server.api.client.VersionedOntologyDocument;
 import org.protege.owl.server.api.exception.OWLServerException;
 import org.protege.owl.server.api.server.Server;
 import org.protege.owl.server.api.server.ServerTransport;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DamagedHistoryException;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
 import org.protege.owl.server.changes.VersionedOntologyDocumentImpl;
 import org.protege.owl.server.connect.local.LocalClient;
 import org.protege.owl.server.connect.local.LocalTransport;
@@ -50,6 +55,7 @@ public class RobustnessTest {
     public static final IRI TEST_SERVER_IRI = IRI.create(LocalClient.SCHEME + "://localhost/" + TEST_FILE);
     private Server server;
     private LocalTransport transport;
+    private long lengthAfterFirstSave;
 
     @AfterMethod
     @BeforeMethod
@@ -103,8 +109,50 @@ public class RobustnessTest {
     public void corruptedSaveTest() throws OWLOntologyCreationException, IOException, OWLServerException {
         twoForcedSaves();
 
-        /* this simulates pulling the plug while the save was in progress */
-        corruptTestHistory();
+        /* this simulates pulling the plug while the second save was in progress */
+        truncateLastSave();
+
+        startServer();
+        try {
+            Client client = createClient();
+            OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+            RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(TEST_SERVER_IRI);
+            VersionedOntologyDocument vont = ClientUtilities.loadOntology(client, manager, doc);
+            Assert.assertEquals(new OntologyDocumentRevision(1), vont.getRevision());
+            Assert.assertTrue(vont.getOntology().containsAxiom(PizzaVocabulary.CHEESEY_PIZZA_DEFINITION));
+            Assert.assertFalse(vont.getOntology().containsAxiom(PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION));
+        }
+        finally {
+            stopServer();
+        }
+    }
+
+    /**
+     * Test that the server does not serve a history with a damaged record, and that after the operator has repaired
+     * the history only the revisions from the damaged record on are missing.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void damagedRecordKeepsEarlierRevisions() throws OWLOntologyCreationException, IOException, OWLServerException {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        twoForcedSaves();
+        File historyFile = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+        flipByte(historyFile, lengthAfterFirstSave + 8);
+        long damagedLength = historyFile.length();
+
+        startServer();
+        try {
+            Assert.assertFalse(canLoad());
+        }
+        finally {
+            stopServer();
+        }
+        Assert.assertEquals(damagedLength, historyFile.length());
+        
+        repair(historyFile);
 
         startServer();
         try {
@@ -115,12 +163,202 @@ public class RobustnessTest {
             Assert.assertEquals(new OntologyDocumentRevision(1), vont.getRevision());
             Assert.assertTrue(vont.getOntology().containsAxiom(PizzaVocabulary.CHEESEY_PIZZA_DEFINITION));
             Assert.assertFalse(vont.getOntology().containsAxiom(PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION));
+            TestUtilities.rawCommit(client, doc, OntologyDocumentRevision.START_REVISION.next(), new AddAxiom(ontology, PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION));
+        }
+        finally {
+            stopServer();
+        }
+        ChangeHistory onDisk = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile).read();
+        Assert.assertEquals(new OntologyDocumentRevision(2), onDisk.getEndRevision());
+        Assert.assertTrue(onDisk.getChanges(ontology).contains(new AddAxiom(ontology, PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION)));
+    }
+    
+    /**
+     * Test that the records after a damaged record in the middle of the history can be recovered from the copy of the
+     * damaged file that the repair keeps.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void damagedMiddleRecordIsPreserved() throws OWLOntologyCreationException, IOException, OWLServerException {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        twoForcedSaves();
+        startServer();
+        try {
+            Client client = createClient();
+            RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(TEST_SERVER_IRI);
+            TestUtilities.rawCommit(client, doc, new OntologyDocumentRevision(2), new AddAxiom(ontology, PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION));
+        }
+        finally {
+            stopServer();
+        }
+        File historyFile = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+        flipByte(historyFile, lengthAfterFirstSave + 8);
+
+        startServer();
+        try {
+            Assert.assertFalse(canLoad());
+        }
+        finally {
+            stopServer();
+        }
+        
+        File preserved = repair(historyFile);
+        Assert.assertEquals(new OntologyDocumentRevision(1), new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile).read().getEndRevision());
+        Assert.assertTrue(preserved.exists());
+        ChangeHistory later = new ChangeHistoryFile(new DocumentFactoryImpl(), preserved).read(new OntologyDocumentRevision(2), null);
+        Assert.assertEquals(new OntologyDocumentRevision(2), later.getStartRevision());
+        Assert.assertEquals(new OntologyDocumentRevision(3), later.getEndRevision());
+        Assert.assertTrue(later.getChanges(ontology).contains(new AddAxiom(ontology, PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION)));
+    }
+    
+    /**
+     * Test that a history file that is cut off at any offset reads as the revisions that were complete before the cut.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void truncationAtEveryOffset() throws OWLOntologyCreationException, IOException, OWLServerException {
+        twoForcedSaves();
+        File historyFile = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+        ChangeHistory history = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile).read();
+        byte[] contents = readFully(historyFile);
+        File damagedFile = new File(TestUtilities.ROOT_DIRECTORY, "damaged.history");
+        OntologyDocumentRevision lastEnd = null;
+        for (int length = contents.length; length >= lengthAfterFirstSave; length--) {
+            writeDamagedCopy(damagedFile, contents, length, -1);
+            ChangeHistory truncated = new ChangeHistoryFile(new DocumentFactoryImpl(), damagedFile).read();
+            assertPrefix(history, truncated);
+            if (lastEnd != null) {
+                Assert.assertTrue(truncated.getEndRevision().compareTo(lastEnd) <= 0);
+            }
+            lastEnd = truncated.getEndRevision();
+        }
+        Assert.assertEquals(new OntologyDocumentRevision(1), lastEnd);
+        for (int length = (int) lengthAfterFirstSave; length >= 0; length--) {
+            writeDamagedCopy(damagedFile, contents, length, -1);
+            try {
+                assertPrefix(history, new ChangeHistoryFile(new DocumentFactoryImpl(), damagedFile).read());
+            }
+            catch (IOException ioe) {
+                // a file cut off inside its header has no revisions to recover
+                ;
+            }
+        }
+    }
+    
+    /**
+     * Test that a damaged byte at any offset of the history file is either detected or only loses the revisions from the
+     * damaged record on, and that the repaired file can be appended to.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void damageAtEveryOffset() throws OWLOntologyCreationException, IOException, OWLServerException {
+        twoForcedSaves();
+        File historyFile = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+        ChangeHistory history = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile).read();
+        byte[] contents = readFully(historyFile);
+        File damagedFile = new File(TestUtilities.ROOT_DIRECTORY, "damaged.history");
+        for (int offset = 0; offset < contents.length; offset++) {
+            writeDamagedCopy(damagedFile, contents, contents.length, offset);
+            ChangeHistoryFile file = new ChangeHistoryFile(new DocumentFactoryImpl(), damagedFile);
+            ChangeHistory recovered;
+            try {
+                recovered = file.read();
+            }
+            catch (DamagedHistoryException damage) {
+                recovered = file.repair(damage);
+                Assert.assertTrue(file.getPreservedDamagedFile().delete());
+            }
+            catch (IOException ioe) {
+                // a damaged header is reported as a plain error
+                Assert.assertTrue(offset < lengthAfterFirstSave);
+                continue;
+            }
+            if (offset >= lengthAfterFirstSave) {
+                Assert.assertEquals(new OntologyDocumentRevision(1), recovered.getEndRevision());
+            }
+            assertPrefix(history, recovered);
+            if (recovered.getStartRevision().equals(history.getStartRevision())) {
+                file.append(history);
+                Assert.assertEquals(history, new ChangeHistoryFile(new DocumentFactoryImpl(), damagedFile).read());
+            }
+        }
+    }
+    
+    /**
+     * Test that a commit is on disk as soon as it is acknowledged.  The history file is read while the server is still
+     * running, which is what a restart after a crash would see.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void acknowledgedCommitIsDurable() throws OWLOntologyCreationException, IOException, OWLServerException {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        startServer();
+        try {
+            Client client = createClient();
+            RemoteOntologyDocument testDoc = client.createRemoteOntology(TEST_SERVER_IRI);
+            TestUtilities.rawCommit(client, testDoc, OntologyDocumentRevision.START_REVISION, new AddAxiom(ontology, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION));
+
+            File historyFile = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+            ChangeHistory onDisk = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile).read();
+            Assert.assertEquals(new OntologyDocumentRevision(1), onDisk.getEndRevision());
+            Assert.assertTrue(onDisk.getChanges(ontology).contains(new AddAxiom(ontology, PizzaVocabulary.CHEESEY_PIZZA_DEFINITION)));
         }
         finally {
             stopServer();
         }
     }
+    
+    /**
+     * Test that the server keeps committing after it has recovered from a save that was interrupted.
+     * 
+     * @throws OWLOntologyCreationException	OWLOntologyCreationException
+     * @throws IOException	IOException
+     * @throws OWLServerException	OWLServerException
+     */
+    @Test
+    public void commitAfterCorruptedSave() throws OWLOntologyCreationException, IOException, OWLServerException {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        twoForcedSaves();
+        truncateLastSave();
+
+        startServer();
+        try {
+            Client client = createClient();
+            RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(TEST_SERVER_IRI);
+            TestUtilities.rawCommit(client, doc, OntologyDocumentRevision.START_REVISION.next(), new AddAxiom(ontology, PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION));
+        }
+        finally {
+            stopServer();
+        }
 
+        startServer();
+        try {
+            Client client = createClient();
+            OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+            RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(TEST_SERVER_IRI);
+            VersionedOntologyDocument vont = ClientUtilities.loadOntology(client, manager, doc);
+            Assert.assertEquals(new OntologyDocumentRevision(2), vont.getRevision());
+            Assert.assertTrue(vont.getOntology().containsAxiom(PizzaVocabulary.CHEESEY_PIZZA_DEFINITION));
+            Assert.assertFalse(vont.getOntology().containsAxiom(PizzaVocabulary.NOT_CHEESEY_PIZZA_DEFINITION));
+            Assert.assertTrue(vont.getOntology().containsAxiom(PizzaVocabulary.VEGI_CHEESEY_PIZZA_DEFINITION));
+        }
+        finally {
+            stopServer();
+        }
+    }
+    
     /**
      * Test that the state of a server can be recovered from a client history.
      * <p>
@@ -180,8 +418,8 @@ public class RobustnessTest {
      * This call will put the test history on the server in a known state.
      * <p>
      * The test history contains three revisions 0,1,2. The delta from 0->1 contains one 
-     * added axiom and the delta from 1->2 contains another.  The backup file only contains the 
-     * revisions 0 and 1.
+     * added axiom and the delta from 1->2 contains another.  The delta from 1->2 is appended 
+     * to the history file by the second save.
      * 
      * @throws IOException	IOException
      * @throws OWLServerException	OWLServerException
@@ -199,6 +437,7 @@ public class RobustnessTest {
         finally {
             stopServer();
         }
+        lengthAfterFirstSave = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE).length();
         startServer();
         try {
             Client client1 = createClient();
@@ -217,6 +456,108 @@ public class RobustnessTest {
         writer.close();
     }
     
+    private void truncateLastSave() throws IOException {
+        File toCorrupt = new File(TestUtilities.ROOT_DIRECTORY, TEST_FILE);
+        long lengthAfterSecondSave = toCorrupt.length();
+        Assert.assertTrue(lengthAfterSecondSave > lengthAfterFirstSave);
+        RandomAccessFile raf = new RandomAccessFile(toCorrupt, "rw");
+        try {
+            raf.setLength((lengthAfterFirstSave + lengthAfterSecondSave) / 2);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    private boolean canLoad() throws OWLServerException {
+        Client client = createClient();
+        RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(TEST_SERVER_IRI);
+        try {
+            ClientUtilities.loadOntology(client, OWLManager.createOWLOntologyManager(), doc);
+            return true;
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+        catch (OWLServerException e) {
+            return false;
+        }
+        catch (OWLOntologyCreationException e) {
+            return false;
+        }
+    }
+    
+    /*
+     * Does what the operator does with the RepairHistory command and returns the copy of the damaged file.
+     */
+    private static File repair(File historyFile) throws IOException {
+        ChangeHistoryFile file = new ChangeHistoryFile(new DocumentFactoryImpl(), historyFile);
+        try {
+            file.read();
+            Assert.fail("The damage was not detected");
+        }
+        catch (DamagedHistoryException damage) {
+            file.repair(damage);
+        }
+        return file.getPreservedDamagedFile();
+    }
+    
+    private static void assertPrefix(ChangeHistory history, ChangeHistory prefix) {
+        if (prefix.getStartRevision().equals(history.getStartRevision())) {
+            Assert.assertEquals(history.cropChanges(history.getStartRevision(), prefix.getEndRevision()), prefix);
+        }
+        else {
+            Assert.assertEquals(prefix.getStartRevision(), prefix.getEndRevision());
+        }
+    }
+    
+    private static void flipByte(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    private static byte[] readFully(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            return contents;
+        }
+        finally {
+            raf.close();
+        }
+    }
+    
+    /*
+     * Writes the first length bytes of the contents with the byte at damagedOffset flipped, if it is not negative.
+     * The index of an earlier copy is removed so that it is rebuilt from the damaged copy.
+     */
+    private static void writeDamagedCopy(File file, byte[] contents, int length, int damagedOffset) throws IOException {
+        new File(file.getAbsolutePath() + ".index").delete();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (damagedOffset >= 0 && damagedOffset < length) {
+                out.write(contents, 0, damagedOffset);
+                out.write(contents[damagedOffset] ^ 0xff);
+                out.write(contents, damagedOffset + 1, length - damagedOffset - 1);
+            }
+            else {
+                out.write(contents, 0, length);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+    
     private void copy(File input, File output) throws IOException {
         InputStream is = new FileInputStream(input);
         OutputStream out = new FileOutputStream(output);
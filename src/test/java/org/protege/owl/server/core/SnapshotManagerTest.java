@@ -0,0 +1,113 @@
+package org.protege.owl.server.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.protege.owl.server.TestUtilities;
+import org.protege.owl.server.TestVocabulary;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.OntologySnapshot;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.changes.OntologySnapshotImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = {"unit.test" })
+public class SnapshotManagerTest {
+    private DocumentFactory factory = new DocumentFactoryImpl();
+    private OWLOntology ontology;
+    private File historyFile;
+    private SnapshotManager snapshots;
+
+    @BeforeMethod
+    public void setup() throws OWLOntologyCreationException, IOException {
+        ontology = OWLManager.createOWLOntologyManager().createOntology();
+        File dir = File.createTempFile("SnapshotManagerTest", "");
+        dir.delete();
+        dir.mkdir();
+        historyFile = new File(dir, "test" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        snapshots = new SnapshotManager();
+        snapshots.setSnapshotInterval(2);
+    }
+
+    @Test
+    public void testSnapshots() throws OWLOntologyCreationException {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        snapshots.update(historyFile, history);
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        snapshots.update(historyFile, history);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM2));
+        snapshots.update(historyFile, history);
+        snapshots.sync();
+
+        Assert.assertTrue(SnapshotManager.getSnapshotFile(historyFile, new OntologyDocumentRevision(2)).exists());
+        Assert.assertTrue(SnapshotManager.getSnapshotFile(historyFile, new OntologyDocumentRevision(4)).exists());
+        for (int i = 0; i <= 5; i++) {
+            OntologyDocumentRevision revision = new OntologyDocumentRevision(i);
+            OntologySnapshot snapshot = snapshots.getSnapshot(historyFile, revision);
+            Assert.assertEquals(snapshot.getRevision(), new OntologyDocumentRevision(i - i % 2));
+            Assert.assertEquals(checkout(snapshot, history.cropChanges(snapshot.getRevision(), revision)),
+                                checkout(history.cropChanges(OntologyDocumentRevision.START_REVISION, revision)));
+        }
+    }
+
+    @Test
+    public void testSnapshotHoldsNoRemovals() {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        history = TestUtilities.commit(factory, history, new RemoveAxiom(ontology, TestVocabulary.AXIOM1));
+        OntologySnapshot snapshot = OntologySnapshotImpl.createSnapshot(OntologySnapshotImpl.createEmptySnapshot(), history);
+        Assert.assertEquals(snapshot.getRevision(), new OntologyDocumentRevision(3));
+        Assert.assertEquals(snapshot.getChanges(ontology), Collections.singletonList(new AddAxiom(ontology, TestVocabulary.AXIOM2)));
+    }
+
+    @Test
+    public void testStaleSnapshots() {
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM1));
+        history = TestUtilities.commit(factory, history, new AddAxiom(ontology, TestVocabulary.AXIOM2));
+        snapshots.update(historyFile, history);
+        snapshots.sync();
+        File snapshotFile = SnapshotManager.getSnapshotFile(historyFile, new OntologyDocumentRevision(2));
+        Assert.assertTrue(snapshotFile.exists());
+
+        SnapshotManager restarted = new SnapshotManager();
+        restarted.setSnapshotInterval(2);
+        restarted.update(historyFile, history.cropChanges(OntologyDocumentRevision.START_REVISION, new OntologyDocumentRevision(1)));
+        restarted.sync();
+        Assert.assertFalse(snapshotFile.exists());
+        Assert.assertEquals(restarted.getSnapshot(historyFile, new OntologyDocumentRevision(2)).getRevision(), OntologyDocumentRevision.START_REVISION);
+    }
+
+
+    private HashSet<Object> checkout(OntologySnapshot snapshot, ChangeHistory delta) throws OWLOntologyCreationException {
+        OWLOntology target = OWLManager.createOWLOntologyManager().createOntology();
+        List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>(snapshot.getChanges(target));
+        changes.addAll(delta.getChanges(target));
+        target.getOWLOntologyManager().applyChanges(changes);
+        return new HashSet<Object>(target.getAxioms());
+    }
+
+    private HashSet<Object> checkout(ChangeHistory history) throws OWLOntologyCreationException {
+        OWLOntology target = OWLManager.createOWLOntologyManager().createOntology();
+        target.getOWLOntologyManager().applyChanges(history.getChanges(target));
+        return new HashSet<Object>(target.getAxioms());
+    }
+}
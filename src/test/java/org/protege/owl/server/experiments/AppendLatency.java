@@ -0,0 +1,69 @@
+package org.protege.owl.server.experiments;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Measures the time and the bytes allocated to append a one axiom commit to change histories of increasing length,
+ * which is the in-memory part of every commit on the server.  The allocation is measured with the per thread
+ * allocation counter of the HotSpot thread management bean.
+ * <p>
+ * Usage: AppendLatency [commits measured] [history length]...
+ */
+public class AppendLatency {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/append.owl";
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int[] lengths = { 1000, 10000, 100000 };
+        if (args.length > 1) {
+            lengths = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                lengths[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        DocumentFactory factory = new DocumentFactoryImpl();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int length : lengths) {
+                ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+                for (int i = 0; i < length; i++) {
+                    history = commit(factory, ontology, history, i);
+                }
+                long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                long startTime = System.nanoTime();
+                for (int i = 0; i < commits; i++) {
+                    history = commit(factory, ontology, history, length + i);
+                }
+                long elapsed = System.nanoTime() - startTime;
+                long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+                if (pass == 1) {
+                    System.out.println(String.format("history of %7d revisions: %8d ns/commit, %8d bytes/commit",
+                                                     length, elapsed / commits, allocated / commits));
+                }
+            }
+        }
+    }
+
+    private static ChangeHistory commit(DocumentFactory factory, OWLOntology ontology, ChangeHistory history, int i) {
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        OWLOntologyChange change = new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(IRI.create(NS + "#C" + i)),
+                                                                                       dataFactory.getOWLThing()));
+        ChangeMetaData metaData = new ChangeMetaData("Commit " + i);
+        return history.appendChanges(factory.createChangeDocument(Collections.singletonList(change), metaData, history.getEndRevision()));
+    }
+}
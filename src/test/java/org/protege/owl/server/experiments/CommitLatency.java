@@ -0,0 +1,134 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.protege.owl.server.api.AuthToken;
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionPointer;
+import org.protege.owl.server.api.server.ServerOntologyDocument;
+import org.protege.owl.server.api.server.ServerPath;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.core.CommitMetrics;
+import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.policy.UnauthorizedToken;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Prints histograms of the latency of one axiom commits to documents with histories of increasing length.  The
+ * client commits against the head revision less a few revisions, so each commit is also swapped past the latest
+ * revisions of the server.  The latencies are taken from the commit metrics of the server.
+ * <p>
+ * Usage: CommitLatency [commits measured] [revisions behind head] [history length]...
+ */
+public class CommitLatency {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/commitlatency.owl";
+    public static final String DOCUMENT = "/latency" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION;
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int behind = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int[] lengths = { 1000, 10000, 100000 };
+        if (args.length > 2) {
+            lengths = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                lengths[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int length : lengths) {
+            run(length, commits, behind);
+        }
+    }
+
+    private static void run(int length, int commits, int behind) throws Exception {
+        File root = createTempDirectory("CommitLatency-root");
+        File configuration = createTempDirectory("CommitLatency-configuration");
+        DocumentFactory factory = new DocumentFactoryImpl();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int i = 0; i < length; i++) {
+            history = history.appendChanges(factory.createChangeDocument(Collections.singletonList(change(ontology, i)),
+                                                                         new ChangeMetaData("Commit " + i), history.getEndRevision()));
+        }
+        new ChangeHistoryFile(factory, new File(root, DOCUMENT.substring(1))).write(history);
+
+        ServerImpl server = new ServerImpl(root, configuration);
+        server.setSnapshotInterval(0);
+        AuthToken u = new UnauthorizedToken("redmond");
+        ServerOntologyDocument doc = (ServerOntologyDocument) server.getServerDocument(u, new ServerPath(DOCUMENT));
+        for (int i = 0; i < commits; i++) {
+            commit(server, u, doc, factory, ontology, behind, length + i);
+        }
+        long[] warmUp = server.getCommitMetrics().getCommitLatencyHistogram();
+        for (int i = 0; i < commits; i++) {
+            commit(server, u, doc, factory, ontology, behind, length + commits + i);
+        }
+        long[] histogram = server.getCommitMetrics().getCommitLatencyHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] -= warmUp[i];
+        }
+        System.out.println("History of " + length + " revisions, " + commits + " commits " + behind + " revisions behind head:");
+        print(histogram, commits);
+        server.shutdown();
+        delete(root);
+        delete(configuration);
+    }
+
+    private static void commit(ServerImpl server, AuthToken u, ServerOntologyDocument doc, DocumentFactory factory, OWLOntology ontology,
+                               int behind, int i) throws Exception {
+        OntologyDocumentRevision head = server.evaluateRevisionPointer(u, doc, RevisionPointer.HEAD_REVISION);
+        OntologyDocumentRevision base = OntologyDocumentRevision.START_REVISION;
+        if (head.getRevisionDifferenceFrom(base) > behind) {
+            base = head.add(-behind);
+        }
+        server.commit(u, doc, factory.createChangeDocument(Collections.singletonList(change(ontology, i)), new ChangeMetaData("Commit " + i), base));
+    }
+
+    private static OWLOntologyChange change(OWLOntology ontology, int i) {
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        return new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(IRI.create(NS + "#C" + i)),
+                                                                        dataFactory.getOWLThing()));
+    }
+
+    private static void print(long[] histogram, int commits) {
+        long cumulative = 0;
+        for (int i = 0; i < CommitMetrics.LATENCY_BUCKETS; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            cumulative += histogram[i];
+            StringBuilder bar = new StringBuilder();
+            for (long j = 0; j < (60 * histogram[i]) / commits; j++) {
+                bar.append('#');
+            }
+            System.out.println(String.format("    %9d us %7d %6.1f%% %s", 1L << i, histogram[i], (100.0 * cumulative) / commits, bar));
+        }
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
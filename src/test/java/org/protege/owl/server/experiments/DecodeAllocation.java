@@ -0,0 +1,96 @@
+package org.protege.owl.server.experiments;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Measures the bytes allocated and the time taken per decoded axiom when a serialized change document is read.
+ * Each revision is larger than the compression limit so every revision is decoded from its own compressed block.
+ * The allocation is measured with the per thread allocation counter of the HotSpot thread management bean.
+ * <p>
+ * Usage: DecodeAllocation [revisions] [axioms per revision] [iterations]
+ */
+public class DecodeAllocation {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/decode.owl";
+    public static final int COMPRESSION_LIMIT = 10;
+
+    public static void main(String[] args) throws Exception {
+        int revisions = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int axiomsPerRevision = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        ChangeHistory history = createHistory(factory, revisions, axiomsPerRevision);
+        history.setCompressionLimit(COMPRESSION_LIMIT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        history.writeChangeDocument(out);
+        byte[] bytes = out.toByteArray();
+        long axioms = (long) revisions * axiomsPerRevision;
+        System.out.println(revisions + " revisions with " + axiomsPerRevision + " axioms each, " + bytes.length + " bytes serialized");
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            ChangeHistory read = factory.readChangeDocument(new ByteArrayInputStream(bytes), null, null);
+            long elapsed = System.nanoTime() - startTime;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            if (!read.getEndRevision().equals(history.getEndRevision())) {
+                throw new IllegalStateException("Decoded the wrong number of revisions");
+            }
+            System.out.println("Iteration " + i + ": " + (allocated / axioms) + " bytes/axiom, " + (elapsed / axioms) + " ns/axiom");
+        }
+    }
+
+    private static ChangeHistory createHistory(DocumentFactory factory, int revisions, int axiomsPerRevision) throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        OWLObjectProperty partOf = dataFactory.getOWLObjectProperty(IRI.create(NS + "#partOf"));
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int revision = 0; revision < revisions; revision++) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            for (int i = 0; i < axiomsPerRevision; i++) {
+                OWLClass cls = dataFactory.getOWLClass(IRI.create(NS + "#C" + revision + "_" + i));
+                OWLClass parent = dataFactory.getOWLClass(IRI.create(NS + "#C" + revision));
+                OWLNamedIndividual individual = dataFactory.getOWLNamedIndividual(IRI.create(NS + "#i" + revision + "_" + i));
+                switch (i % 4) {
+                case 0:
+                    changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(cls, parent)));
+                    break;
+                case 1:
+                    changes.add(new AddAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(cls.getIRI(),
+                            dataFactory.getOWLAnnotation(dataFactory.getRDFSLabel(), dataFactory.getOWLLiteral("Class " + revision + " " + i, "en")))));
+                    break;
+                case 2:
+                    changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(cls,
+                            dataFactory.getOWLObjectIntersectionOf(parent, dataFactory.getOWLObjectSomeValuesFrom(partOf, parent)))));
+                    break;
+                default:
+                    changes.add(new AddAxiom(ontology, dataFactory.getOWLClassAssertionAxiom(cls, individual)));
+                    break;
+                }
+            }
+            history = history.appendChanges(factory.createChangeDocument(changes, new ChangeMetaData("Revision " + revision), history.getEndRevision()));
+        }
+        return history;
+    }
+}
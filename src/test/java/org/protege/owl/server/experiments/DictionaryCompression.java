@@ -0,0 +1,231 @@
+package org.protege.owl.server.experiments;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.changes.format.OWLInputStream;
+import org.protege.owl.server.changes.format.OWLOutputStream;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Compares the ways that the changes of each revision of a history can be stored on their own: the plain binary OWL
+ * encoding, the encoding written with writeWithCompression (a COMPRESSED block only for revisions above the compression
+ * limit), the encoding of every revision gzipped, the encoding deflated without a dictionary and the encoding deflated
+ * with the compression dictionary that a history file builds for the document.  The sizes are the totals over all revisions and
+ * the times are the time spent encoding and compressing, and decompressing and decoding, all the revisions.
+ * <p>
+ * The histories are the pizza-scale and thesaurus-scale histories of {@link InternedHistoryMemory}.
+ * <p>
+ * Usage: DictionaryCompression [thesaurus classes] [edit revisions]
+ */
+@SuppressWarnings("deprecation")
+public class DictionaryCompression {
+
+    public static void main(String[] args) throws Exception {
+        int thesaurusClasses = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        measure(factory, "pizza", InternedHistoryMemory.createPizzaHistory(factory, edits));
+        measure(factory, "thesaurus", InternedHistoryMemory.createThesaurusHistory(factory, thesaurusClasses, edits));
+    }
+
+    private static void measure(DocumentFactory factory, String name, ChangeHistory history) throws Exception {
+        File historyFile = File.createTempFile("DictionaryCompression", ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+        file.write(history);
+        byte[] dictionary = file.getDictionary();
+        System.out.println(name + ": " + history.getEndRevision() + " revisions, history file " + historyFile.length()
+                                + " bytes, " + dictionary.length + " byte dictionary");
+        historyFile.delete();
+        new File(historyFile.getAbsolutePath() + ".index").delete();
+
+        OWLOntology fakeOntology = OWLManager.createOWLOntologyManager().createOntology();
+        List<List<OWLOntologyChange>> revisions = new ArrayList<List<OWLOntologyChange>>();
+        for (OntologyDocumentRevision revision = history.getStartRevision(); revision.compareTo(history.getEndRevision()) < 0; revision = revision.next()) {
+            revisions.add(history.cropChanges(revision, revision.next()).getChanges(fakeOntology));
+        }
+        for (int i = 0; i < 2; i++) {
+            boolean report = i == 1;
+            run(report, "raw", revisions, new RawCodec());
+            run(report, "compressed", revisions, new CompressedCodec());
+            run(report, "gzip", revisions, new GzipCodec());
+            run(report, "deflate", revisions, new DeflateCodec(new byte[0]));
+            run(report, "dictionary", revisions, new DeflateCodec(dictionary));
+        }
+    }
+
+    private static void run(boolean report, String name, List<List<OWLOntologyChange>> revisions, Codec codec) throws Exception {
+        long size = 0;
+        long encodeTime = 0;
+        long decodeTime = 0;
+        for (List<OWLOntologyChange> changes : revisions) {
+            long startTime = System.nanoTime();
+            byte[] encoded = codec.encode(changes);
+            long encodedTime = System.nanoTime();
+            List<OWLOntologyChange> decoded = codec.decode(encoded);
+            decodeTime += System.nanoTime() - encodedTime;
+            encodeTime += encodedTime - startTime;
+            size += encoded.length;
+            if (decoded.size() != changes.size()) {
+                throw new IllegalStateException("Decoded the wrong number of changes");
+            }
+        }
+        if (report) {
+            System.out.println(String.format("    %-10s %10d bytes, encode %6d ms, decode %6d ms",
+                                             name, size, encodeTime / 1000000, decodeTime / 1000000));
+        }
+    }
+
+    private static byte[] encode(List<OWLOntologyChange> changes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OWLOutputStream(out).write(changes);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<OWLOntologyChange> decode(byte[] bytes, int length) throws IOException {
+        return (List<OWLOntologyChange>) new OWLInputStream(new ByteArrayInputStream(bytes, 0, length)).read();
+    }
+
+    private interface Codec {
+        byte[] encode(List<OWLOntologyChange> changes) throws IOException;
+
+        List<OWLOntologyChange> decode(byte[] bytes) throws IOException;
+    }
+
+    private static class RawCodec implements Codec {
+        @Override
+        public byte[] encode(List<OWLOntologyChange> changes) throws IOException {
+            return DictionaryCompression.encode(changes);
+        }
+
+        @Override
+        public List<OWLOntologyChange> decode(byte[] bytes) throws IOException {
+            return DictionaryCompression.decode(bytes, bytes.length);
+        }
+    }
+
+    /*
+     * Compresses the changes as writeWithCompression does today: only lists longer than the compression limit are
+     * gzipped and the small ones are left as they are.
+     */
+    private static class CompressedCodec implements Codec {
+        @Override
+        public byte[] encode(List<OWLOntologyChange> changes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new OWLOutputStream(out).writeWithCompression(changes);
+            return out.toByteArray();
+        }
+
+        @Override
+        public List<OWLOntologyChange> decode(byte[] bytes) throws IOException {
+            return DictionaryCompression.decode(bytes, bytes.length);
+        }
+    }
+
+    private static class GzipCodec implements Codec {
+        @Override
+        public byte[] encode(List<OWLOntologyChange> changes) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            new OWLOutputStream(out).write(changes);
+            out.close();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<OWLOntologyChange> decode(byte[] bytes) throws IOException {
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (List<OWLOntologyChange>) new OWLInputStream(in).read();
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    /*
+     * Deflates the encoded changes the way a history file record does, with the raw length in front.
+     */
+    private static class DeflateCodec implements Codec {
+        private final byte[] dictionary;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private byte[] buffer = new byte[4096];
+
+        public DeflateCodec(byte[] dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public byte[] encode(List<OWLOntologyChange> changes) throws IOException {
+            byte[] raw = DictionaryCompression.encode(changes);
+            deflater.reset();
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            int length = 4;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            byte[] encoded = Arrays.copyOf(buffer, length);
+            encoded[0] = (byte) (raw.length >>> 24);
+            encoded[1] = (byte) (raw.length >>> 16);
+            encoded[2] = (byte) (raw.length >>> 8);
+            encoded[3] = (byte) raw.length;
+            return encoded;
+        }
+
+        @Override
+        public List<OWLOntologyChange> decode(byte[] bytes) throws IOException {
+            int length = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+            inflater.reset();
+            if (dictionary.length > 0) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(bytes, 4, bytes.length - 4);
+            if (buffer.length < length) {
+                buffer = new byte[length];
+            }
+            try {
+                int inflated = 0;
+                while (inflated < length) {
+                    int count = inflater.inflate(buffer, inflated, length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated changes");
+                    }
+                    inflated += count;
+                }
+            }
+            catch (DataFormatException dfe) {
+                throw new IOException(dfe);
+            }
+            return DictionaryCompression.decode(buffer, length);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.protege.owl.server.api.AuthToken;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionPointer;
+import org.protege.owl.server.api.server.ServerOntologyDocument;
+import org.protege.owl.server.api.server.ServerPath;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.core.SynchronizationFilter;
+import org.protege.owl.server.policy.UnauthorizedToken;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Measures the commit throughput of concurrent writers to a single document for a range of group commit windows.
+ * <p>
+ * Usage: GroupCommitThroughput [threads] [commits per thread] [window in ms]...
+ */
+public class GroupCommitThroughput {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/groupcommit.owl";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int commitsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        List<Long> windows = new ArrayList<Long>();
+        for (int i = 2; i < args.length; i++) {
+            windows.add(Long.parseLong(args[i]));
+        }
+        if (windows.isEmpty()) {
+            windows.add(0L);
+            windows.add(2L);
+            windows.add(10L);
+        }
+        for (long window : windows) {
+            run(threads, commitsPerThread, window);
+        }
+    }
+
+    private static void run(int threads, final int commitsPerThread, long window) throws Exception {
+        File root = createTempDirectory("GroupCommit-root");
+        File configuration = createTempDirectory("GroupCommit-configuration");
+        ServerImpl core = new ServerImpl(root, configuration);
+        core.setSnapshotInterval(0);
+        core.setGroupCommitWindow(window);
+        final SynchronizationFilter server = new SynchronizationFilter(core);
+        final AuthToken u = new UnauthorizedToken("redmond");
+        final DocumentFactory factory = new DocumentFactoryImpl();
+        final ServerOntologyDocument doc = server.createOntologyDocument(u, new ServerPath("/throughput.history"), new HashMap<String, Object>());
+        final OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        final OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < commitsPerThread; i++) {
+                            IRI sub = IRI.create(NS + "#C" + thread + "_" + i);
+                            List<OWLOntologyChange> changes = Collections.singletonList((OWLOntologyChange) new AddAxiom(ontology,
+                                    dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(sub), dataFactory.getOWLThing())));
+                            OntologyDocumentRevision head = server.evaluateRevisionPointer(u, doc, RevisionPointer.HEAD_REVISION);
+                            server.commit(u, doc, factory.createChangeDocument(changes, new ChangeMetaData("Commit " + i), head));
+                        }
+                    }
+                    catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }, "Writer " + t));
+        }
+        long startTime = System.currentTimeMillis();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        int commits = threads * commitsPerThread;
+        System.out.println("Window " + window + " ms: " + commits + " commits from " + threads + " threads in " + elapsed + " ms ("
+                                + (commits * 1000L / elapsed) + " commits/s)");
+        System.out.println("    " + core.getCommitMetrics());
+        if (!failures.isEmpty()) {
+            System.out.println("    " + failures.size() + " writers failed: " + failures.get(0));
+        }
+        server.shutdown();
+        delete(root);
+        delete(configuration);
+    }
+
+    private static File createTempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
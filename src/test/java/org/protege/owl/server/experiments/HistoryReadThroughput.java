@@ -0,0 +1,98 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.ChangeHistoryUtilities;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+/**
+ * Compares the time taken to load a synthetic change history with the serialized change document reader,
+ * the streaming reader of the history file and the memory mapped reader of the history file.
+ * <p>
+ * Usage: HistoryReadThroughput [revisions] [axioms per revision] [iterations]
+ */
+public class HistoryReadThroughput {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/throughput.owl";
+
+    public static void main(String[] args) throws IOException, OWLOntologyCreationException {
+        int revisions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int axiomsPerRevision = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        ChangeHistory history = createHistory(factory, revisions, axiomsPerRevision);
+        File legacyFile = File.createTempFile("Throughput-legacy", ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        File historyFile = File.createTempFile("Throughput", ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        try {
+            ChangeHistoryUtilities.writeChanges(history, legacyFile);
+            new ChangeHistoryFile(factory, historyFile).write(history);
+            System.out.println("History of " + revisions + " revisions with " + axiomsPerRevision + " axioms each");
+            System.out.println("Serialized change document: " + legacyFile.length() + " bytes, history file: " + historyFile.length() + " bytes");
+            for (int i = 0; i < iterations; i++) {
+                long legacyTime = timeLegacyRead(factory, legacyFile);
+                long streamTime = timeRead(factory, historyFile, false);
+                long mappedTime = timeRead(factory, historyFile, true);
+                System.out.println("Iteration " + i + ": serialized " + legacyTime + " ms, stream " + streamTime + " ms ("
+                                        + throughput(historyFile, streamTime) + " MB/s), mapped " + mappedTime + " ms ("
+                                        + throughput(historyFile, mappedTime) + " MB/s)");
+            }
+        }
+        finally {
+            legacyFile.delete();
+            historyFile.delete();
+            new File(historyFile.getAbsolutePath() + ".index").delete();
+        }
+    }
+
+    private static ChangeHistory createHistory(DocumentFactory factory, int revisions, int axiomsPerRevision) throws OWLOntologyCreationException {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        int counter = 0;
+        for (int revision = 0; revision < revisions; revision++) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            for (int i = 0; i < axiomsPerRevision; i++, counter++) {
+                OWLClass sub = dataFactory.getOWLClass(IRI.create(NS + "#C" + counter));
+                OWLClass sup = dataFactory.getOWLClass(IRI.create(NS + "#C" + (counter / 10)));
+                changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(sub, sup)));
+            }
+            ChangeMetaData metaData = new ChangeMetaData("Revision " + revision);
+            history = history.appendChanges(factory.createChangeDocument(changes, metaData, history.getEndRevision()));
+        }
+        return history;
+    }
+
+    private static long timeLegacyRead(DocumentFactory factory, File legacyFile) throws IOException {
+        long startTime = System.currentTimeMillis();
+        ChangeHistoryUtilities.readChanges(factory, legacyFile, null, null);
+        return System.currentTimeMillis() - startTime;
+    }
+
+    private static long timeRead(DocumentFactory factory, File historyFile, boolean memoryMapped) throws IOException {
+        long startTime = System.currentTimeMillis();
+        ChangeHistoryFile changeHistoryFile = new ChangeHistoryFile(factory, historyFile);
+        changeHistoryFile.setMemoryMapped(memoryMapped);
+        changeHistoryFile.read();
+        return System.currentTimeMillis() - startTime;
+    }
+
+    private static long throughput(File file, long millis) {
+        return millis == 0 ? 0 : (file.length() * 1000) / (millis * 1024 * 1024);
+    }
+}
@@ -0,0 +1,164 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.util.OWLObjectInterner;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+/**
+ * Measures the heap retained by a change history loaded from a history file with and without interning of the
+ * decoded objects.
+ * <p>
+ * Two histories are measured.  The pizza-scale history is the pizza ontology followed by revisions that remove and
+ * add back some of its axioms.  The thesaurus-scale history is a generated ontology with many labelled classes,
+ * committed in batches, followed by revisions that edit the labels.  The retained heap is the used heap after a
+ * full collection while the loaded history is reachable, minus the used heap before the load.
+ * <p>
+ * Usage: InternedHistoryMemory [thesaurus classes] [edit revisions]
+ */
+public class InternedHistoryMemory {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/thesaurus.owl";
+    public static final int AXIOMS_PER_REVISION = 500;
+    public static final int AXIOMS_PER_EDIT = 10;
+
+    public static void main(String[] args) throws Exception {
+        int thesaurusClasses = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        File dir = File.createTempFile("InternedHistoryMemory", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            File pizza = new File(dir, "pizza" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+            new ChangeHistoryFile(factory, pizza).write(createPizzaHistory(factory, edits));
+            measure(factory, "pizza", pizza);
+
+            File thesaurus = new File(dir, "thesaurus" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+            new ChangeHistoryFile(factory, thesaurus).write(createThesaurusHistory(factory, thesaurusClasses, edits));
+            measure(factory, "thesaurus", thesaurus);
+        }
+        finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void measure(DocumentFactory factory, String name, File historyFile) throws Exception {
+        System.out.println(name + ": " + historyFile.length() + " bytes");
+        for (OWLObjectInterner.Scope scope : OWLObjectInterner.Scope.values()) {
+            OWLObjectInterner interner = scope == OWLObjectInterner.Scope.NONE ? null : new OWLObjectInterner();
+            long before = usedHeap();
+            ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+            file.setInterner(interner);
+            ChangeHistory history = file.read();
+            file = null;
+            if (scope == OWLObjectInterner.Scope.DOCUMENT) {
+                interner = null;
+            }
+            long retained = usedHeap() - before;
+            System.out.println("    " + scope + ": " + (retained / 1024) + " KB retained by " + history.getEndRevision() + " revisions"
+                                    + (interner == null ? "" : ", including an interner with " + interner.size() + " objects"));
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    static ChangeHistory createPizzaHistory(DocumentFactory factory, int edits) throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLOntology ontology = manager.loadOntologyFromOntologyDocument(new File("src/test/resources/pizza.owl"));
+        List<OWLAxiom> axioms = new ArrayList<OWLAxiom>(ontology.getAxioms());
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int start = 0; start < axioms.size(); start += AXIOMS_PER_REVISION) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            for (OWLAxiom axiom : axioms.subList(start, Math.min(axioms.size(), start + AXIOMS_PER_REVISION))) {
+                changes.add(new AddAxiom(ontology, axiom));
+            }
+            history = commit(factory, history, changes);
+        }
+        Random random = new Random(0);
+        for (int edit = 0; edit < edits; edit++) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            for (int i = 0; i < AXIOMS_PER_EDIT; i++) {
+                OWLAxiom axiom = axioms.get(random.nextInt(axioms.size()));
+                changes.add(edit % 2 == 0 ? new RemoveAxiom(ontology, axiom) : new AddAxiom(ontology, axiom));
+            }
+            history = commit(factory, history, changes);
+        }
+        return history;
+    }
+
+    static ChangeHistory createThesaurusHistory(DocumentFactory factory, int classes, int edits) throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        OWLAnnotationProperty preferredName = dataFactory.getOWLAnnotationProperty(IRI.create(NS + "#Preferred_Name"));
+        OWLAnnotationProperty synonym = dataFactory.getOWLAnnotationProperty(IRI.create(NS + "#FULL_SYN"));
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+        for (int c = 0; c < classes; c++) {
+            OWLClass cls = dataFactory.getOWLClass(IRI.create(NS + "#C" + c));
+            OWLClass parent = dataFactory.getOWLClass(IRI.create(NS + "#C" + (c / 10)));
+            changes.add(new AddAxiom(ontology, dataFactory.getOWLDeclarationAxiom(cls)));
+            changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(cls, parent)));
+            changes.add(new AddAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(preferredName, cls.getIRI(),
+                    dataFactory.getOWLLiteral("Concept " + c, "en"))));
+            changes.add(new AddAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(synonym, cls.getIRI(),
+                    dataFactory.getOWLLiteral("Synonym " + c, "en"))));
+            if (changes.size() >= AXIOMS_PER_REVISION) {
+                history = commit(factory, history, changes);
+                changes = new ArrayList<OWLOntologyChange>();
+            }
+        }
+        if (!changes.isEmpty()) {
+            history = commit(factory, history, changes);
+        }
+        Random random = new Random(0);
+        for (int edit = 0; edit < edits; edit++) {
+            changes = new ArrayList<OWLOntologyChange>();
+            for (int i = 0; i < AXIOMS_PER_EDIT; i++) {
+                int c = random.nextInt(classes);
+                OWLClass cls = dataFactory.getOWLClass(IRI.create(NS + "#C" + c));
+                changes.add(new RemoveAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(synonym, cls.getIRI(),
+                        dataFactory.getOWLLiteral("Synonym " + c, "en"))));
+                changes.add(new AddAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(synonym, cls.getIRI(),
+                        dataFactory.getOWLLiteral("Synonym " + c + " revised " + edit, "en"))));
+            }
+            history = commit(factory, history, changes);
+        }
+        return history;
+    }
+
+    private static ChangeHistory commit(DocumentFactory factory, ChangeHistory history, List<OWLOntologyChange> changes) {
+        return history.appendChanges(factory.createChangeDocument(changes, new ChangeMetaData("Revision " + history.getEndRevision()), history.getEndRevision()));
+    }
+}
@@ -0,0 +1,84 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Measures the time taken to load a history file with an increasing number of decoding threads, from one thread up
+ * to the number of available processors unless a larger number is given.
+ * <p>
+ * Usage: ParallelHistoryLoad [revisions] [axioms per revision] [iterations] [max threads]
+ */
+public class ParallelHistoryLoad {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/parallel.owl";
+
+    public static void main(String[] args) throws Exception {
+        int revisions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int axiomsPerRevision = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : processors;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        File dir = File.createTempFile("ParallelHistoryLoad", "");
+        dir.delete();
+        dir.mkdir();
+        File historyFile = new File(dir, "history" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        ChangeHistory history = createHistory(factory, revisions, axiomsPerRevision);
+        new ChangeHistoryFile(factory, historyFile).write(history);
+        System.out.println(revisions + " revisions with " + axiomsPerRevision + " axioms each, "
+                                + historyFile.length() + " bytes, " + processors + " processors");
+
+        for (int parallelism = 1; parallelism <= maxThreads; parallelism *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < iterations; i++) {
+                ChangeHistoryFile file = new ChangeHistoryFile(factory, historyFile);
+                file.setParallelism(parallelism);
+                long startTime = System.nanoTime();
+                ChangeHistory read = file.read();
+                best = Math.min(best, System.nanoTime() - startTime);
+                if (!read.getEndRevision().equals(history.getEndRevision())) {
+                    throw new IllegalStateException("Decoded the wrong number of revisions");
+                }
+            }
+            System.out.println(parallelism + " threads: best of " + iterations + " loads " + (best / 1000000) + " ms");
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static ChangeHistory createHistory(DocumentFactory factory, int revisions, int axiomsPerRevision) throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int revision = 0; revision < revisions; revision++) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            OWLClass parent = dataFactory.getOWLClass(IRI.create(NS + "#C" + revision));
+            for (int i = 0; i < axiomsPerRevision; i++) {
+                OWLClass cls = dataFactory.getOWLClass(IRI.create(NS + "#C" + revision + "_" + i));
+                changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(cls, parent)));
+                changes.add(new AddAxiom(ontology, dataFactory.getOWLAnnotationAssertionAxiom(cls.getIRI(),
+                        dataFactory.getOWLAnnotation(dataFactory.getRDFSLabel(), dataFactory.getOWLLiteral("Class " + revision + " " + i, "en")))));
+            }
+            history = history.appendChanges(factory.createChangeDocument(changes, new ChangeMetaData("Revision " + revision), history.getEndRevision()));
+        }
+        return history;
+    }
+}
@@ -0,0 +1,187 @@
+package org.protege.owl.server.experiments;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.protege.owl.server.api.ChangeHistory;
+import org.protege.owl.server.api.ChangeMetaData;
+import org.protege.owl.server.api.DocumentFactory;
+import org.protege.owl.server.api.OntologyDocumentRevision;
+import org.protege.owl.server.api.RevisionPointer;
+import org.protege.owl.server.api.client.Client;
+import org.protege.owl.server.api.client.RemoteOntologyDocument;
+import org.protege.owl.server.api.server.ServerTransport;
+import org.protege.owl.server.changes.ChangeHistoryFile;
+import org.protege.owl.server.changes.DocumentFactoryImpl;
+import org.protege.owl.server.connect.local.LocalClient;
+import org.protege.owl.server.connect.local.LocalTransportImpl;
+import org.protege.owl.server.core.ChangeDocumentPoolEntry;
+import org.protege.owl.server.core.ServerImpl;
+import org.protege.owl.server.core.SynchronizationFilter;
+import org.protege.owl.server.policy.UnauthorizedToken;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Measures the throughput of document lookups through the local transport while another thread keeps loading
+ * large documents that do not fit in the change document pool together.
+ * <p>
+ * Usage: PoolContention [reader threads] [seconds] [small documents] [revisions of the large documents]
+ */
+public class PoolContention {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/contention.owl";
+    public static final int CHANGES_PER_REVISION = 20;
+    private static int largeRevisions;
+
+    public static void main(String[] args) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int smallDocuments = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        largeRevisions = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        DocumentFactory factory = new DocumentFactoryImpl();
+        File root = File.createTempFile("PoolContention", "");
+        root.delete();
+        root.mkdir();
+        ChangeHistory small = createHistory(factory, 10);
+        ChangeHistory large = createHistory(factory, largeRevisions);
+        for (int i = 0; i < smallDocuments; i++) {
+            new ChangeHistoryFile(factory, new File(root, "small" + i + ChangeHistory.CHANGE_DOCUMENT_EXTENSION)).write(small);
+        }
+        for (int i = 0; i < 2; i++) {
+            new ChangeHistoryFile(factory, new File(root, "large" + i + ChangeHistory.CHANGE_DOCUMENT_EXTENSION)).write(large);
+        }
+
+        ServerImpl core = new ServerImpl(root, root);
+        core.setSnapshotInterval(0);
+        SynchronizationFilter server = new SynchronizationFilter(core);
+        LocalTransportImpl transport = new LocalTransportImpl();
+        server.setTransports(Collections.singleton((ServerTransport) transport));
+        transport.start(server);
+        final Client client = transport.getClient(new UnauthorizedToken("redmond"));
+
+        final List<IRI> smallIRIs = new ArrayList<IRI>();
+        for (int i = 0; i < smallDocuments; i++) {
+            smallIRIs.add(IRI.create(LocalClient.SCHEME + "://localhost/small" + i + ChangeHistory.CHANGE_DOCUMENT_EXTENSION));
+            client.getChanges((RemoteOntologyDocument) client.getServerDocument(smallIRIs.get(i)), RevisionPointer.START_REVISION, RevisionPointer.START_REVISION);
+        }
+        final IRI[] largeIRIs = new IRI[2];
+        for (int i = 0; i < 2; i++) {
+            largeIRIs[i] = IRI.create(LocalClient.SCHEME + "://localhost/large" + i + ChangeHistory.CHANGE_DOCUMENT_EXTENSION);
+        }
+        client.getChanges((RemoteOntologyDocument) client.getServerDocument(largeIRIs[0]), RevisionPointer.START_REVISION, RevisionPointer.START_REVISION);
+        /* room for the small documents and one large document */
+        core.setPoolMemoryBudget((long) (getPoolWeight(root) * 1.5));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        final AtomicLong coldLoads = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < readers; t++) {
+            final Random random = new Random(t);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            long start = System.nanoTime();
+                            IRI iri = smallIRIs.get(random.nextInt(smallIRIs.size()));
+                            client.evaluateRevisionPointer((RemoteOntologyDocument) client.getServerDocument(iri), RevisionPointer.HEAD_REVISION);
+                            long latency = System.nanoTime() - start;
+                            long max;
+                            while ((max = maxLatency.get()) < latency && !maxLatency.compareAndSet(max, latency)) {
+                                ;
+                            }
+                            lookups.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, "Reader " + t));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; running.get(); i++) {
+                        RemoteOntologyDocument doc = (RemoteOntologyDocument) client.getServerDocument(largeIRIs[i % 2]);
+                        client.getChanges(doc, RevisionPointer.START_REVISION, RevisionPointer.START_REVISION);
+                        coldLoads.incrementAndGet();
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "Cold loader"));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println(readers + " readers: " + (lookups.get() / seconds) + " lookups/s, max lookup latency "
+                                + (maxLatency.get() / 1000000) + " ms, " + coldLoads.get() + " cold loads of a large document");
+        server.shutdown();
+        delete(root);
+    }
+
+    /*
+     * The weight of the small documents and one large document as the pool estimates it.
+     */
+    private static long getPoolWeight(File root) {
+        long weight = 0;
+        for (File f : root.listFiles()) {
+            String name = f.getName();
+            if (name.startsWith("small") && name.endsWith(ChangeHistory.CHANGE_DOCUMENT_EXTENSION)) {
+                weight += getWeight(f, 10);
+            }
+            else if (name.equals("large0" + ChangeHistory.CHANGE_DOCUMENT_EXTENSION)) {
+                weight += getWeight(f, largeRevisions);
+            }
+        }
+        return weight;
+    }
+
+    private static long getWeight(File historyFile, int revisions) {
+        return revisions * CHANGES_PER_REVISION * ChangeDocumentPoolEntry.BYTES_PER_CHANGE + historyFile.length() * ChangeDocumentPoolEntry.BYTES_PER_HISTORY_BYTE;
+    }
+
+    private static ChangeHistory createHistory(DocumentFactory factory, int revisions) throws Exception {
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory dataFactory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        ChangeHistory history = factory.createEmptyChangeDocument(OntologyDocumentRevision.START_REVISION);
+        for (int revision = 0; revision < revisions; revision++) {
+            List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
+            for (int i = 0; i < CHANGES_PER_REVISION; i++) {
+                IRI sub = IRI.create(NS + "#C" + revision + "_" + i);
+                changes.add(new AddAxiom(ontology, dataFactory.getOWLSubClassOfAxiom(dataFactory.getOWLClass(sub), dataFactory.getOWLThing())));
+            }
+            history = history.appendChanges(factory.createChangeDocument(changes, new ChangeMetaData("Revision " + revision), history.getEndRevision()));
+        }
+        return history;
+    }
+
+    private static void delete(File dir) throws IOException {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
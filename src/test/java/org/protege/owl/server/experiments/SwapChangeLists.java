@@ -0,0 +1,85 @@
+package org.protege.owl.server.experiments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.protege.owl.server.util.ChangeUtilities;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+/**
+ * Times ChangeUtilities.swapOrderOfChangeLists on two lists of n axiom changes each, half of whose axioms are
+ * shared by the two lists.  For the smaller sizes it also times the pairwise overlap test that the routine used to
+ * make, which is quadratic in n.
+ * <p>
+ * Usage: SwapChangeLists [largest n for the pairwise test] [n]...
+ */
+public class SwapChangeLists {
+    public static final String NS = "http://protege.stanford.edu/ontologies/experiments/swap.owl";
+
+    public static void main(String[] args) throws Exception {
+        int pairwiseLimit = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int[] sizes = { 1000, 10000, 100000 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLDataFactory factory = ontology.getOWLOntologyManager().getOWLDataFactory();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int n : sizes) {
+                List<OWLOntologyChange> firstChanges = new ArrayList<OWLOntologyChange>();
+                List<OWLOntologyChange> secondChanges = new ArrayList<OWLOntologyChange>();
+                for (int i = 0; i < n; i++) {
+                    firstChanges.add(new AddAxiom(ontology, subClassAxiom(factory, i)));
+                    secondChanges.add(new RemoveAxiom(ontology, subClassAxiom(factory, i + n / 2)));
+                }
+                long startTime = System.nanoTime();
+                List<OWLOntologyChange> swapped = ChangeUtilities.swapOrderOfChangeLists(firstChanges, secondChanges);
+                long indexed = System.nanoTime() - startTime;
+                String pairwiseResult = "skipped";
+                if (n <= pairwiseLimit) {
+                    startTime = System.nanoTime();
+                    List<OWLOntologyChange> pairwise = pairwiseSwap(firstChanges, secondChanges);
+                    long elapsed = System.nanoTime() - startTime;
+                    if (pairwise.size() != swapped.size()) {
+                        throw new IllegalStateException("Pairwise swap kept " + pairwise.size() + " changes but indexed swap kept " + swapped.size());
+                    }
+                    pairwiseResult = (elapsed / 1000000) + " ms";
+                }
+                if (pass == 1) {
+                    System.out.println(String.format("%7d x %7d changes: indexed %6d ms, pairwise %s, %d changes kept",
+                                                     n, n, indexed / 1000000, pairwiseResult, swapped.size()));
+                }
+            }
+        }
+    }
+
+    private static List<OWLOntologyChange> pairwiseSwap(List<OWLOntologyChange> firstChanges, List<OWLOntologyChange> secondChanges) {
+        List<OWLOntologyChange> result = ChangeUtilities.normalizeChangeDelta(firstChanges);
+        secondChanges = ChangeUtilities.normalizeChangeDelta(secondChanges);
+        List<OWLOntologyChange> toRemove = new ArrayList<OWLOntologyChange>();
+        for (OWLOntologyChange firstChange : result) {
+            if (ChangeUtilities.overlappingChange(firstChange, secondChanges)) {
+                toRemove.add(firstChange);
+            }
+        }
+        result.removeAll(toRemove);
+        return result;
+    }
+
+    private static OWLSubClassOfAxiom subClassAxiom(OWLDataFactory factory, int i) {
+        OWLClass sub = factory.getOWLClass(IRI.create(NS + "#C" + i));
+        OWLClass sup = factory.getOWLClass(IRI.create(NS + "#D" + i));
+        return factory.getOWLSubClassOfAxiom(sub, sup);
+    }
+}